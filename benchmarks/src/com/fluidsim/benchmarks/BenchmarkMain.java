@@ -0,0 +1,63 @@
+package com.fluidsim.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+/**
+ * Runs the benchmarks with the GC profiler and prints ns per cell-step and bytes allocated
+ * per operation for every parameter combination.
+ * Usage: BenchmarkMain [benchmark regex] [param=value,value ...]
+ * for example BenchmarkMain PhaseBenchmark size=256,1024 scenario=WALLS
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(BenchmarkMain.class.getPackage().getName() + "." + (args.length > 0 ? args[0] : ""))
+                .addProfiler(GCProfiler.class);
+        for (int a = 1; a < args.length; a++) {
+            int split = args[a].indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("expected param=value,value but got " + args[a]);
+            }
+            options.param(args[a].substring(0, split), args[a].substring(split + 1).split(","));
+        }
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.printf("%-40s %6s %8s %10s %-22s %14s %12s%n",
+                "benchmark", "size", "accuracy", "scenario", "phase", "ns/cell-step", "B/op");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String benchmark = params.getBenchmark();
+            Result<?> cells = result.getSecondaryResults().get("cellSteps");
+            double nsPerCell = cells == null || cells.getScore() == 0 ? Double.NaN : 1e9 / cells.getScore();
+            System.out.printf("%-40s %6s %8s %10s %-22s %14.3f %12.1f%n",
+                    benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1),
+                    params.getParam("size"), params.getParam("accuracy"), params.getParam("scenario"),
+                    params.getParam("phase") == null ? "-" : params.getParam("phase"),
+                    nsPerCell, allocation(result));
+        }
+    }
+
+    // bytes allocated per operation, the GC profiler's key changed its prefix between JMH versions.
+    // JMH hands out the secondary results with a raw Result, taking them one at a time as
+    // Result<?> keeps the raw type out of this file
+    private static double allocation(RunResult result) {
+        for (String key : result.getSecondaryResults().keySet()) {
+            if (key.endsWith("gc.alloc.rate.norm")) {
+                Result<?> allocated = result.getSecondaryResults().get(key);
+                return allocated.getScore();
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,23 @@
+package com.fluidsim.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the cells every invocation processed. JMH reports it as a rate next to the
+ * primary score, BenchmarkMain turns it into ns per cell-step.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class CellSteps {
+
+    public long cellSteps;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        cellSteps = 0;
+    }
+}
@@ -0,0 +1,37 @@
+package com.fluidsim.benchmarks;
+
+import com.fluidsim.StepPhase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One phase of the step at a time, repeated on the state a full step left behind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class PhaseBenchmark {
+
+    @Param({"ADVECTION", "DIVERGENCE", "PRESSURE", "FINAL_CALCULATION", "ADD_FORCES", "VORTICITY_CONFINEMENT"})
+    public StepPhase phase;
+
+    @Benchmark
+    public void phase(SimulationState state, CellSteps counter) {
+        state.env.runPhase(phase, SimulationState.TIME, state.accuracy);
+        counter.cellSteps += state.cells();
+    }
+}
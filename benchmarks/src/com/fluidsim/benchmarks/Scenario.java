@@ -0,0 +1,34 @@
+package com.fluidsim.benchmarks;
+
+import com.fluidsim.Environment;
+
+/**
+ * Initial states the benchmarks start from.
+ */
+public enum Scenario {
+    // noise in every cell, the app's default start
+    RANDOM {
+        @Override
+        void apply(Environment env) {
+            env.initRandom();
+        }
+    },
+    // an even breeze, every back trace lands the same distance into its cell
+    UNIFORM {
+        @Override
+        void apply(Environment env) {
+            env.initUniform(0, 1.3, 0.7);
+        }
+    },
+    // noise around a floor and a central block of walls
+    WALLS {
+        @Override
+        void apply(Environment env) {
+            env.initRandom();
+            env.initFloor();
+            env.initCentralWall(env.getWidth() / 5, env.getHeight() / 5);
+        }
+    };
+
+    abstract void apply(Environment env);
+}
@@ -0,0 +1,67 @@
+package com.fluidsim.benchmarks;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+import com.fluidsim.JacobiSolver;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An Environment of the given size and scenario, stepped past its first frames so every
+ * working buffer holds real data. Every iteration starts again from the same state, so
+ * phases that keep adding to the velocities can't drift into a different regime.
+ */
+@State(Scope.Benchmark)
+public class SimulationState {
+
+    // seconds per step, as in the app
+    public static final double TIME = 0.03;
+
+    private static final int SETTLE_STEPS = 20;
+
+    @Param({"64", "256", "1024", "2048"})
+    public int size;
+
+    @Param({"10", "40"})
+    public int accuracy;
+
+    @Param({"RANDOM", "UNIFORM", "WALLS"})
+    public Scenario scenario;
+
+    // Jacobi sweeps per pass over the grid, only pays off once the grid outgrows the cache
+    @Param({"1", "8"})
+    public int sweepsPerPass;
+
+    public Environment env;
+
+    private FieldStore initial;
+
+    @Setup(Level.Trial)
+    public void create() {
+        env = new Environment(size, size);
+        JacobiSolver solver = new JacobiSolver();
+        solver.setSweepsPerPass(sweepsPerPass);
+        env.setPressureSolver(solver);
+        scenario.apply(env);
+        for (int s = 0; s < SETTLE_STEPS; s++) {
+            env.step(TIME, accuracy);
+        }
+        initial = new FieldStore(size, size);
+        initial.copyFrom(env.getFields());
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        env.getFields().copyFrom(initial);
+        // leaves the working buffers of a complete step behind for the phase benchmarks
+        env.step(TIME, accuracy);
+    }
+
+    public long cells() {
+        return (long) size * size;
+    }
+}
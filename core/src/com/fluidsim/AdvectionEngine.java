@@ -0,0 +1,305 @@
+package com.fluidsim;
+
+/**
+ * The MACCORMACK and BFECC advection of Environment's double precision step. Each pass
+ * is a row band phase of its own, a pass traces into the whole output of the pass before.
+ *
+ * The back trace of every cell is taken once per step: the first pass keeps the corner
+ * cell and the offsets within the cell, and the last pass reads both velocity components
+ * at the same corners with the same weights instead of tracing again. The result is
+ * clamped to the four velocities the back trace landed between, which keeps the
+ * correction from overshooting where the flow changes sharply.
+ *
+ * Weights come from the offset within the cell, a trace landing on a whole cell reads
+ * that cell alone. Solid cells end up with zero velocity, quiet tiles keep theirs.
+ */
+class AdvectionEngine {
+
+    private final FieldStore fields;
+
+    private final HaloGrid halo;
+
+    private final TileActivity activity;
+
+    private final int width;
+
+    private final int height;
+
+    // corner cell of every back trace in the padded layout, the others are to its right and above
+    private final int[] traceIndex;
+
+    private final double[] traceRight;
+
+    private final double[] traceAbove;
+
+    // result of the first back trace
+    private final double[] hatX;
+
+    private final double[] hatY;
+
+    // the input less the estimated error, BFECC only
+    private double[] barX;
+
+    private double[] barY;
+
+    // state shared with the row band passes of the current step
+    private double[] sourceX;
+
+    private double[] sourceY;
+
+    private double[] outputX;
+
+    private double[] outputY;
+
+    private double cellSize;
+
+    private double time;
+
+    private final RowBandTask traceTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            trace(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask correctTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            correct(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask compensateTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            compensate(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask retraceTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            retrace(startRow, endRow);
+        }
+    };
+
+    AdvectionEngine(FieldStore fields, HaloGrid halo, TileActivity activity) {
+        this.fields = fields;
+        this.halo = halo;
+        this.activity = activity;
+        this.width = halo.width;
+        this.height = halo.height;
+        this.traceIndex = new int[width * height];
+        this.traceRight = new double[width * height];
+        this.traceAbove = new double[width * height];
+        this.hatX = halo.allocate();
+        this.hatY = halo.allocate();
+    }
+
+    /**
+     * Advects the velocity of the field store with the given scheme, sampling the velocity
+     * halo, which must wrap in x and y, into the rows of the output. The ghost columns of
+     * the output wrap, its ghost rows are left to the caller.
+     */
+    void advect(AdvectionScheme scheme, double[] velocityHaloX, double[] velocityHaloY, double[] outputX,
+                double[] outputY, double cellSize, double time, StepExecutor executor) {
+        this.sourceX = velocityHaloX;
+        this.sourceY = velocityHaloY;
+        this.outputX = outputX;
+        this.outputY = outputY;
+        this.cellSize = cellSize;
+        this.time = time;
+        executor.runBands(traceTask, height);
+        wrapRowsY(hatX);
+        wrapRowsY(hatY);
+        if (scheme == AdvectionScheme.MACCORMACK) {
+            executor.runBands(correctTask, height);
+        } else {
+            if (barX == null) {
+                this.barX = halo.allocate();
+                this.barY = halo.allocate();
+            }
+            executor.runBands(compensateTask, height);
+            wrapRowsY(barX);
+            wrapRowsY(barY);
+            executor.runBands(retraceTask, height);
+        }
+        this.sourceX = null;
+        this.sourceY = null;
+        this.outputX = null;
+        this.outputY = null;
+    }
+
+    // back trace of every cell into hat, remembering where it landed
+    private void trace(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int stride = halo.stride;
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                int out = (j + 1) * stride + i + 1;
+                if (types[idx] != CellType.AIR) {
+                    hatX[out] = 0;
+                    hatY[out] = 0;
+                    continue;
+                }
+                double x = wrap(i * cellSize - velocityX[idx] * time, width);
+                double y = wrap(j * cellSize - velocityY[idx] * time, height);
+                int x1 = (int) Math.floor(x);
+                int y1 = (int) Math.floor(y);
+                double right = x - x1;
+                double above = y - y1;
+                int p = (y1 + 1) * stride + x1 + 1;
+                traceIndex[idx] = p;
+                traceRight[idx] = right;
+                traceAbove[idx] = above;
+                hatX[out] = sample(sourceX, p, stride, right, above);
+                hatY[out] = sample(sourceY, p, stride, right, above);
+            }
+        }
+        halo.wrapRows(hatX, startRow, endRow);
+        halo.wrapRows(hatY, startRow, endRow);
+    }
+
+    // MacCormack: traces hat forward and adds half of what the round trip lost
+    private void correct(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int stride = halo.stride;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                boolean active = activity.isActive(start, j);
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int out = (j + 1) * stride + i + 1;
+                    if (types[idx] != CellType.AIR) {
+                        outputX[out] = 0;
+                        outputY[out] = 0;
+                    } else if (!active) {
+                        outputX[out] = velocityX[idx];
+                        outputY[out] = velocityY[idx];
+                    } else {
+                        double x = wrap(i * cellSize + velocityX[idx] * time, width);
+                        double y = wrap(j * cellSize + velocityY[idx] * time, height);
+                        int x1 = (int) Math.floor(x);
+                        int y1 = (int) Math.floor(y);
+                        int p = (y1 + 1) * stride + x1 + 1;
+                        double right = x - x1;
+                        double above = y - y1;
+                        double roundTripX = sample(hatX, p, stride, right, above);
+                        double roundTripY = sample(hatY, p, stride, right, above);
+                        int q = traceIndex[idx];
+                        outputX[out] = clamp(hatX[out] + 0.5 * (velocityX[idx] - roundTripX), sourceX, q, stride);
+                        outputY[out] = clamp(hatY[out] + 0.5 * (velocityY[idx] - roundTripY), sourceY, q, stride);
+                    }
+                }
+            }
+        }
+        halo.wrapRows(outputX, startRow, endRow);
+        halo.wrapRows(outputY, startRow, endRow);
+    }
+
+    // BFECC: the input less half of what the round trip through hat lost
+    private void compensate(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int stride = halo.stride;
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                int out = (j + 1) * stride + i + 1;
+                if (types[idx] != CellType.AIR) {
+                    barX[out] = 0;
+                    barY[out] = 0;
+                    continue;
+                }
+                double x = wrap(i * cellSize + velocityX[idx] * time, width);
+                double y = wrap(j * cellSize + velocityY[idx] * time, height);
+                int x1 = (int) Math.floor(x);
+                int y1 = (int) Math.floor(y);
+                int p = (y1 + 1) * stride + x1 + 1;
+                double right = x - x1;
+                double above = y - y1;
+                barX[out] = velocityX[idx] + 0.5 * (velocityX[idx] - sample(hatX, p, stride, right, above));
+                barY[out] = velocityY[idx] + 0.5 * (velocityY[idx] - sample(hatY, p, stride, right, above));
+            }
+        }
+        halo.wrapRows(barX, startRow, endRow);
+        halo.wrapRows(barY, startRow, endRow);
+    }
+
+    // BFECC: bar along the back traces of the first pass
+    private void retrace(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int stride = halo.stride;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                boolean active = activity.isActive(start, j);
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int out = (j + 1) * stride + i + 1;
+                    if (types[idx] != CellType.AIR) {
+                        outputX[out] = 0;
+                        outputY[out] = 0;
+                    } else if (!active) {
+                        outputX[out] = velocityX[idx];
+                        outputY[out] = velocityY[idx];
+                    } else {
+                        int q = traceIndex[idx];
+                        double right = traceRight[idx];
+                        double above = traceAbove[idx];
+                        outputX[out] = clamp(sample(barX, q, stride, right, above), sourceX, q, stride);
+                        outputY[out] = clamp(sample(barY, q, stride, right, above), sourceY, q, stride);
+                    }
+                }
+            }
+        }
+        halo.wrapRows(outputX, startRow, endRow);
+        halo.wrapRows(outputY, startRow, endRow);
+    }
+
+    // bilinear, the corner at p and the cells right of and above it
+    private static double sample(double[] data, int p, int stride, double right, double above) {
+        double left = 1 - right;
+        double below = 1 - above;
+        return below * (left * data[p] + right * data[p + 1])
+                + above * (left * data[p + stride] + right * data[p + stride + 1]);
+    }
+
+    // within the four values around the corner at p
+    private static double clamp(double value, double[] data, int p, int stride) {
+        double a = data[p];
+        double b = data[p + 1];
+        double c = data[p + stride];
+        double d = data[p + stride + 1];
+        double min = Math.min(Math.min(a, b), Math.min(c, d));
+        double max = Math.max(Math.max(a, b), Math.max(c, d));
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // the ghost rows wrap too, traces cross the top and bottom like the velocity halo
+    private void wrapRowsY(double[] padded) {
+        halo.copyRow(padded, 0, height);
+        halo.copyRow(padded, height - 1, -1);
+    }
+
+    // a trace can land any distance outside the grid
+    private static double wrap(double pos, int size) {
+        while (pos < 0 || pos >= size) {
+            if (pos < 0) {
+                pos += size;
+            } else {
+                pos -= size;
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,16 @@
+package com.fluidsim;
+
+/**
+ * How Environment advects the velocity. The higher order schemes trace every cell back and
+ * forth to estimate the error of a plain back trace and take it out again, which keeps
+ * small eddies alive that a plain back trace smooths away, so a coarser grid shows as much.
+ * Only the DOUBLE precision step has them, FLOAT always traces back once.
+ */
+public enum AdvectionScheme {
+    // one back trace per cell, blurs the flow a little every step
+    SEMI_LAGRANGIAN,
+    // back trace, forward trace of the result and half the difference added, twice the work
+    MACCORMACK,
+    // back and forward error compensation, corrects the input and traces it back again, three times the work
+    BFECC
+}
@@ -1,48 +1,51 @@
 package com.fluidsim;
 
+// view onto one air cell of a FieldStore, reads and writes go straight to the backing arrays
 public class AirCell extends Cell {
 
-    private double velocityX;
+    private final FieldStore fields;
 
-    private double velocityY;
-
-    private double pressure;
-
-    private double temperature;
+    private final int index;
 
     public AirCell(int xPos, int yPos) {
+        this(xPos, yPos, new FieldStore(1, 1), 0);
+    }
+
+    AirCell(int xPos, int yPos, FieldStore fields, int index) {
         super(xPos, yPos);
+        this.fields = fields;
+        this.index = index;
     }
 
     public double getVelocityX() {
-        return velocityX;
+        return fields.getVelocityX()[index];
     }
 
     public void setVelocityX(double velocityX) {
-        this.velocityX = velocityX;
+        fields.getVelocityX()[index] = velocityX;
     }
 
     public double getVelocityY() {
-        return velocityY;
+        return fields.getVelocityY()[index];
     }
 
     public void setVelocityY(double velocityY) {
-        this.velocityY = velocityY;
+        fields.getVelocityY()[index] = velocityY;
     }
 
     public double getPressure() {
-        return pressure;
+        return fields.getPressure()[index];
     }
 
     public void setPressure(double pressure) {
-        this.pressure = pressure;
+        fields.getPressure()[index] = pressure;
     }
 
     public double getTemperature() {
-        return temperature;
+        return fields.getTemperature()[index];
     }
 
     public void setTemperature(double temperature) {
-        this.temperature = temperature;
+        fields.getTemperature()[index] = temperature;
     }
 }
@@ -0,0 +1,11 @@
+package com.fluidsim;
+
+/**
+ * Source of the heap bytes allocated so far by the calling thread, for StepMetrics. The
+ * core module can't ask the JVM itself, see AllocationCounter for the implementation.
+ */
+public interface AllocationProbe {
+
+    // bytes allocated by the calling thread so far, -1 when unknown
+    long allocatedBytes();
+}
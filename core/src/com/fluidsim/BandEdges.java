@@ -0,0 +1,33 @@
+package com.fluidsim;
+
+/**
+ * Where the executor split the rows of a phase. Fused phases work through their band in
+ * one sweep, rows that need results from the band on the other side of a split are left
+ * for afterwards, when every band is done.
+ */
+final class BandEdges {
+
+    private final boolean[] starts;
+
+    BandEdges(int rows) {
+        this.starts = new boolean[rows];
+    }
+
+    // called by every band with its first row, bands never share an entry
+    void mark(int startRow) {
+        starts[startRow] = true;
+    }
+
+    // first split after the row, -1 when there is none. Forgets the split, so every phase
+    // walks them once with for (edge = next(0); edge >= 0; edge = next(edge))
+    int next(int row) {
+        starts[0] = false;
+        for (int j = row + 1; j < starts.length; j++) {
+            if (starts[j]) {
+                starts[j] = false;
+                return j;
+            }
+        }
+        return -1;
+    }
+}
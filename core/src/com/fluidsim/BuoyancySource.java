@@ -0,0 +1,41 @@
+package com.fluidsim;
+
+/**
+ * Lifts air warmer than the ambient temperature and sinks colder air, in proportion to
+ * the difference: velocityY grows by coefficient * (temperature - ambient) per second.
+ * The temperature is whatever the field store holds, see Environment.initHeater. Nothing
+ * advects it, so a warm patch works like a heater that lifts whatever air passes over it.
+ */
+public class BuoyancySource extends ForceSource {
+
+    private final double coefficient;
+
+    private final double ambientTemperature;
+
+    public BuoyancySource(double coefficient, double ambientTemperature) {
+        this.coefficient = coefficient;
+        this.ambientTemperature = ambientTemperature;
+    }
+
+    @Override
+    protected void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityY = fields.getVelocityY();
+        double[] temperature = fields.getTemperature();
+        int width = fields.getWidth();
+        double lift = coefficient * getStrength() * time;
+        for (int idx = (startRow - firstRow) * width; idx < (endRow - firstRow) * width; idx++) {
+            if (types[idx] == CellType.AIR) {
+                velocityY[idx] += lift * (temperature[idx] - ambientTemperature);
+            }
+        }
+    }
+
+    public double getCoefficient() {
+        return coefficient;
+    }
+
+    public double getAmbientTemperature() {
+        return ambientTemperature;
+    }
+}
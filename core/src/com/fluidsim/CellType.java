@@ -0,0 +1,12 @@
+package com.fluidsim;
+
+// cell type codes stored in the FieldStore cell mask
+public final class CellType {
+
+    public static final byte AIR = 0;
+
+    public static final byte WALL = 1;
+
+    private CellType() {
+    }
+}
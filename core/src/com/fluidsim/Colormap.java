@@ -0,0 +1,44 @@
+package com.fluidsim;
+
+/**
+ * Colour scales for displaying a field. Every map is a table of SIZE packed RGBA8888
+ * colours, built once from a few anchor colours spread evenly over the range. Index 0 is
+ * the most negative value on display, SIZE - 1 the most positive.
+ */
+public enum Colormap {
+    // blue for negative, black at zero, red for positive
+    DIVERGING(0x0000ff, 0x000000, 0xff0000),
+    VIRIDIS(0x440154, 0x482878, 0x3e4989, 0x31688e, 0x26828e, 0x1f9e89, 0x35b779, 0x6ece58, 0xfde725),
+    MAGMA(0x000004, 0x1c1044, 0x4f127b, 0x812581, 0xb5367a, 0xe55064, 0xfb8761, 0xfec287, 0xfcfdbf),
+    GREYSCALE(0x000000, 0xffffff);
+
+    public static final int SIZE = 1024;
+
+    private final int[] table;
+
+    // anchors are 0xRRGGBB, fully opaque
+    Colormap(int... anchors) {
+        this.table = new int[SIZE];
+        int segments = anchors.length - 1;
+        for (int k = 0; k < SIZE; k++) {
+            double t = (double) k / (SIZE - 1) * segments;
+            int segment = Math.min((int) t, segments - 1);
+            double f = t - segment;
+            int from = anchors[segment];
+            int to = anchors[segment + 1];
+            int r = lerp(from >> 16 & 0xff, to >> 16 & 0xff, f);
+            int g = lerp(from >> 8 & 0xff, to >> 8 & 0xff, f);
+            int b = lerp(from & 0xff, to & 0xff, f);
+            table[k] = r << 24 | g << 16 | b << 8 | 0xff;
+        }
+    }
+
+    // shared, callers must not write to it
+    public int[] getTable() {
+        return table;
+    }
+
+    private static int lerp(int from, int to, double f) {
+        return (int) Math.round(from + (to - from) * f);
+    }
+}
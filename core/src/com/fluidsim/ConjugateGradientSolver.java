@@ -0,0 +1,173 @@
+package com.fluidsim;
+
+/**
+ * Conjugate Gradient with a diagonal (Jacobi) preconditioner. Needs the symmetric,
+ * compatible system PressureSystem provides. Every iteration is three phases: the operator
+ * with the q.Aq dot product, the update of pressure and residual, and the new search direction.
+ */
+public class ConjugateGradientSolver extends PressureSolver {
+
+    private double[] residualField;
+
+    private double[] preconditioned;
+
+    private double[] direction;
+
+    private double[] applied;
+
+    private double[] rowDotA;
+
+    private double[] rowDotB;
+
+    private PressureSystem system;
+
+    private double[] pressure;
+
+    private double alpha;
+
+    private double beta;
+
+    private final RowBandTask initTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            initialResidual(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask applyTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            applyOperator(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask updateTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            update(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask directionTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            nextDirection(startRow, endRow);
+        }
+    };
+
+    @Override
+    public void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor) {
+        int size = system.getSize();
+        int height = system.getHeight();
+        if (residualField == null || residualField.length != size || rowDotA.length != height) {
+            residualField = new double[size];
+            preconditioned = new double[size];
+            direction = new double[size];
+            applied = new double[size];
+            rowDotA = new double[height];
+            rowDotB = new double[height];
+        }
+        double norm = system.getRhsNorm();
+        if (norm == 0) {
+            report(0, 0);
+            return;
+        }
+        this.system = system;
+        this.pressure = pressure;
+
+        // r = b - A p, z = M^-1 r, q = z
+        executor.runBands(initTask, height);
+        double rz = sumRows(rowDotA, height);
+        double residual = Math.sqrt(sumRows(rowDotB, height)) / norm;
+        int iterations = 0;
+        while (iterations < maxIterations && residual > getTolerance()) {
+            executor.runBands(applyTask, height);
+            double qAq = sumRows(rowDotA, height);
+            if (qAq <= 0) {
+                // direction lies in the null space, nothing left to reduce
+                break;
+            }
+            alpha = rz / qAq;
+            executor.runBands(updateTask, height);
+            double nextRz = sumRows(rowDotA, height);
+            residual = Math.sqrt(sumRows(rowDotB, height)) / norm;
+            beta = nextRz / rz;
+            rz = nextRz;
+            iterations++;
+            if (residual > getTolerance()) {
+                executor.runBands(directionTask, height);
+            }
+        }
+        this.system = null;
+        this.pressure = null;
+        report(iterations, residual);
+    }
+
+    @Override
+    public String getName() {
+        return "cg";
+    }
+
+    private void initialResidual(int startRow, int endRow) {
+        int width = system.getWidth();
+        double[] rhs = system.getRhs();
+        double[] p = pressure;
+        for (int j = startRow; j < endRow; j++) {
+            double diagonal = system.diagonal(j);
+            double rz = 0;
+            double rr = 0;
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                double r = rhs[idx] - (diagonal * p[idx] - system.neighbourSum(p, i, j));
+                double z = r / diagonal;
+                residualField[idx] = r;
+                preconditioned[idx] = z;
+                direction[idx] = z;
+                rz += r * z;
+                rr += r * r;
+            }
+            rowDotA[j] = rz;
+            rowDotB[j] = rr;
+        }
+    }
+
+    private void applyOperator(int startRow, int endRow) {
+        int width = system.getWidth();
+        system.apply(direction, applied, startRow, endRow);
+        for (int j = startRow; j < endRow; j++) {
+            double qAq = 0;
+            for (int idx = j * width; idx < (j + 1) * width; idx++) {
+                qAq += direction[idx] * applied[idx];
+            }
+            rowDotA[j] = qAq;
+        }
+    }
+
+    private void update(int startRow, int endRow) {
+        int width = system.getWidth();
+        double[] p = pressure;
+        for (int j = startRow; j < endRow; j++) {
+            double diagonal = system.diagonal(j);
+            double rz = 0;
+            double rr = 0;
+            for (int idx = j * width; idx < (j + 1) * width; idx++) {
+                p[idx] += alpha * direction[idx];
+                double r = residualField[idx] - alpha * applied[idx];
+                double z = r / diagonal;
+                residualField[idx] = r;
+                preconditioned[idx] = z;
+                rz += r * z;
+                rr += r * r;
+            }
+            rowDotA[j] = rz;
+            rowDotB[j] = rr;
+        }
+    }
+
+    private void nextDirection(int startRow, int endRow) {
+        int width = system.getWidth();
+        for (int idx = startRow * width; idx < endRow * width; idx++) {
+            direction[idx] = preconditioned[idx] + beta * direction[idx];
+        }
+    }
+}
@@ -1,12 +1,26 @@
 package com.fluidsim;
 
+import java.util.Arrays;
 import java.util.Random;
 
 public class Environment {
-    private Cell[][] cells;
-    private AirCell skyCell;
+    private FieldStore fields;
+    // the sky above the top row is still air with zero velocity
+    private static final double SKY_VELOCITY = 0;
+    // cached, values() copies the array on every call
+    private static final StepPhase[] PHASES = StepPhase.values();
     private int width;
     private int height;
+    // set when this steps a slab, null for a whole grid
+    private final SlabLink link;
+    // row 0 of the field store is this row of a grid gridHeight rows high
+    private final int firstRow;
+    private int gridHeight;
+    // rows of the smallest slab, no back trace may reach further past its own slab
+    private final int smallestSlab;
+    // whether the bottom and top row of the grid are held here, both are for a whole grid
+    private final boolean gridBottom;
+    private final boolean gridTop;
     // cell size in meters
     private double cellSize;
     // air density in atm. 1 atm at sea level
@@ -17,87 +31,332 @@ public class Environment {
     private double airmass;
     //vorticity of air
     private double vorticity;
-    private double maxVelocityX;
-    private double minVelocityX;
-    private double maxVelocityY;
-    private double minVelocityY;
-    private double maxPressure;
-    private double minPressure;
+    // scales the forces of the fan, 1 blows as hard as it always did
+    private double fanStrength;
+    private ForceSources forceSources;
+    // the fan the simulation always had, two sources placed for the height of the grid
+    private FanSource upperFan;
+    private FanSource lowerFan;
+    private FieldStatisticsCollector statisticsCollector;
+    // statistics of the last completed step
+    private FieldStatistics statistics;
+    // working buffers, allocated on resize and reused by every step
+    // buffers padded with ghost cells so the stencils never wrap or clamp coordinates
+    private HaloGrid halo;
+    private double[] velocityHaloX;
+    private double[] velocityHaloY;
+    // the velocity back traces sample, traceDepth ghost rows of which the step filled traceReach.
+    // The velocity halo itself for a whole grid
+    private double[] traceHaloX;
+    private double[] traceHaloY;
+    private int traceDepth;
+    private int traceReach;
+    private double[] advectionX;
+    private double[] advectionY;
+    private double[] pressureHalo;
+    private double[] curlField;
+    private double[] divergenceField;
+    private double[] pressureField;
+    private PressureSystem pressureSystem;
+    private PressureSolver pressureSolver;
+    // start each pressure solve from the previous step's solution instead of zero
+    private boolean warmStartPressure;
+    // state shared with the row band phases of the current step
+    private double stepTime;
+    private StepExecutor executor;
+    private StencilKernels kernels;
+    private Precision precision;
+    // single precision pipeline, only allocated while the precision is FLOAT
+    private FloatStep floatStep;
+    private AdvectionScheme advectionScheme;
+    // buffers of the higher order schemes, only allocated once one of them steps
+    private AdvectionEngine advectionEngine;
+    // tiles advection and vorticity confinement run on, all of them unless sparse stepping is on
+    private TileActivity activity;
+    // splits of the fused phases, the rows next to them are finished once all bands are done
+    private BandEdges edges;
+    // the advection phase also took the divergence, the divergence phase has nothing left to do
+    private boolean divergenceFresh;
+    // timings and counters of the recent steps, kept across resizes
+    private StepMetrics metrics = new StepMetrics();
+    // what a slab hands to a reduction
+    private final double[] slabValue = new double[1];
+
+    private final RowBandTask velocityHaloTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            halo.copyRows(fields.getVelocityX(), velocityHaloX, startRow, endRow);
+            halo.copyRows(fields.getVelocityY(), velocityHaloY, startRow, endRow);
+        }
+    };
+    private final RowBandTask traceHaloTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            halo.copyRows(fields.getVelocityX(), 0, traceHaloX, traceDepth, startRow, endRow);
+            halo.copyRows(fields.getVelocityY(), 0, traceHaloY, traceDepth, startRow, endRow);
+        }
+    };
+    private final RowBandTask advectionTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            advectionAndDivergence(startRow, endRow);
+        }
+    };
+    private final RowBandTask divergenceTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            divergence(startRow, endRow);
+        }
+    };
+    private final RowBandTask pressureHaloTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            halo.copyRows(pressureField, pressureSystem.rowStart(0), pressureHalo, 1, startRow, endRow);
+        }
+    };
+    private final RowBandTask finalCalculationTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            finalCalculation(startRow, endRow);
+        }
+    };
+    private final RowBandTask addForcesTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            addForces(startRow, endRow);
+        }
+    };
+    private final RowBandTask vorticityTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            curlAndConfinement(startRow, endRow);
+        }
+    };
 
     public Environment(int width, int height) {
-        this.width = width;
-        this.height = height;
-        this.cells = new Cell[width][height];
+        this(null, width, height, 1, 0);
+    }
+
+    /**
+     * Slab number slab of slabs of a grid gridHeight rows high, split like SlabStep.firstRow.
+     * The ghost rows above and below come from the slabs around through the link, the rows
+     * next to them are finished once they are in.
+     */
+    Environment(SlabLink link, int width, int gridHeight, int slabs, int slab) {
+        this.link = link;
+        this.firstRow = SlabStep.firstRow(gridHeight, slabs, slab);
+        this.gridHeight = gridHeight;
+        this.smallestSlab = gridHeight / slabs;
+        this.gridBottom = slab == 0;
+        this.gridTop = slab == slabs - 1;
         this.cellSize = 1;
         this.density = 1;
         this.g = 9.81;
         this.airmass = 1.293;
         this.vorticity = 0.0001;
-        setSkyCells();
+        this.fanStrength = 1;
+        this.forceSources = new ForceSources();
+        this.executor = new SerialStepExecutor();
+        this.kernels = new ScalarStencilKernels();
+        this.precision = Precision.DOUBLE;
+        this.advectionScheme = AdvectionScheme.SEMI_LAGRANGIAN;
+        this.pressureSolver = new JacobiSolver();
+        resize(width, SlabStep.firstRow(gridHeight, slabs, slab + 1) - firstRow);
+    }
+
+    // reallocates the field store, all cells become still air
+    public void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (link == null) {
+            this.gridHeight = height;
+        }
+        this.fields = new FieldStore(width, height);
+        FieldStatisticsCollector previous = statisticsCollector;
+        this.statisticsCollector = new FieldStatisticsCollector(fields);
+        if (previous != null) {
+            for (FluidField field : FluidField.values()) {
+                statisticsCollector.setEnabled(field, previous.isEnabled(field));
+            }
+        }
+        this.statistics = FieldStatistics.EMPTY;
+        int size = width * height;
+        this.halo = new HaloGrid(width, height);
+        this.velocityHaloX = halo.allocate();
+        this.velocityHaloY = halo.allocate();
+        this.advectionX = halo.allocate();
+        this.advectionY = halo.allocate();
+        this.pressureHalo = halo.allocate();
+        // the ghost cells stay zero, curl outside the grid reads as zero
+        this.curlField = halo.allocate();
+        this.traceHaloX = link == null ? velocityHaloX : halo.allocate();
+        this.traceHaloY = link == null ? velocityHaloY : halo.allocate();
+        this.traceDepth = 1;
+        this.traceReach = 1;
+        this.divergenceField = new double[size];
+        this.pressureSystem = new PressureSystem(width, height, divergenceField, link, firstRow, gridHeight);
+        pressureSystem.setKernels(kernels);
+        this.pressureField = new double[pressureSystem.getSize()];
+        this.edges = new BandEdges(height);
+        this.divergenceFresh = false;
+        this.advectionEngine = null;
+        placeFan();
+        this.activity = activity == null ? new TileActivity(fields, TileActivity.DEFAULT_TILE_SIZE)
+                : new TileActivity(fields, activity.getTileSize(), activity);
+        rebuildFloatStep();
+    }
+
+    // the fan keeps its place relative to the height, unless it has been taken out
+    private void placeFan() {
+        FanSource upper = createUpperFan(gridHeight, fanStrength);
+        FanSource lower = createLowerFan(gridHeight, fanStrength);
+        if (upperFan == null || isFan()) {
+            forceSources.replace(upperFan, upper);
+            forceSources.replace(lowerFan, lower);
+        }
+        this.upperFan = upper;
+        this.lowerFan = lower;
+    }
+
+    // the half of the fan above the middle of a grid this high
+    static FanSource createUpperFan(int height, double strength) {
+        return createFan(5 * height / 10, 6 * height / 10, 100, strength);
+    }
+
+    static FanSource createLowerFan(int height, double strength) {
+        return createFan(4 * height / 10, 5 * height / 10, 75, strength);
+    }
+
+    // blows right on column 10 in the rows between, but not on, after and before
+    private static FanSource createFan(int after, int before, double force, double strength) {
+        FanSource fan = new FanSource(10, after + 1, 1, Math.max(0, before - after - 1), force, 0);
+        fan.setStrength(strength);
+        return fan;
+    }
+
+    // the float step copies the constants, so it is rebuilt whenever one of them changes
+    private void rebuildFloatStep() {
+        this.floatStep = precision == Precision.FLOAT
+                ? new FloatStep(fields, halo, activity, cellSize, density, vorticity) : null;
     }
 
     // init simulation with uniform pressure and velocity field
     public void initUniform(double pressure, double velocityX, double velocityY) {
-        for(int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                AirCell ac = new AirCell(i, j);
-                ac.setPressure(pressure);
-                ac.setVelocityY(velocityY);
-                ac.setVelocityX(velocityX);
-                cells[i][j] = ac;
-            }
+        clearPressure();
+        for (int idx = 0; idx < fields.getSize(); idx++) {
+            fields.setAir(idx, pressure, velocityX, velocityY);
         }
     }
 
     public void initRandom() {
-        Random rand = new Random();
+        initRandom(new Random());
+    }
+
+    // same seed, same start, for runs that have to be repeatable
+    public void initRandom(long seed) {
+        initRandom(new Random(seed));
+    }
+
+    // a slab draws the numbers of the whole grid too, so it starts like the whole grid would
+    private void initRandom(Random rand) {
+        clearPressure();
         for(int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                AirCell ac = new AirCell(i, j);
-                ac.setPressure(rand.nextDouble());
-                ac.setVelocityY((rand.nextDouble() * 200) - 100);
-                ac.setVelocityX((rand.nextDouble() * 200) - 100);
-                cells[i][j] = ac;
+            for (int j = 0; j < gridHeight; j++) {
+                double pressure = rand.nextDouble();
+                double velocityY = (rand.nextDouble() * 200) - 100;
+                double velocityX = (rand.nextDouble() * 200) - 100;
+                if (ownsRow(j)) {
+                    fields.setAir(fields.index(i, j - firstRow), pressure, velocityX, velocityY);
+                }
             }
         }
     }
 
     public void initCentralWall(int width, int height) {
         int x = (this.width / 2) - (width / 2);
-        int y = (this.height / 2) - (height / 2);
+        int y = (gridHeight / 2) - (height / 2);
         for(int i = x; i < x + width; i++) {
             for(int j = y; j < y + height; j++) {
-                WallCell wc = new WallCell(i, j);
-                cells[i][j] = wc;
+                if (ownsRow(j)) {
+                    fields.setWall(fields.index(i, j - firstRow));
+                }
             }
         }
     }
 
     public void initFloor() {
         for(int i = 0; i < width; i++) {
-            WallCell wc1 = new WallCell(i, 0);
-            WallCell wc2 = new WallCell(i, 1);
-            cells[i][0] = wc1;
-            cells[i][1] = wc2;
+            for (int j = 0; j < 2; j++) {
+                if (ownsRow(j)) {
+                    fields.setWall(fields.index(i, j - firstRow));
+                }
+            }
         }
     }
 
+    /**
+     * Holds the air of a rectangle at the given temperature, for a BuoyancySource to lift.
+     * The temperature stays in the cells, the air passing over them is lifted in turn.
+     * Walls and the start methods reset it, heat after them.
+     */
+    public void initHeater(int x, int y, int width, int height, double temperature) {
+        double[] temperatures = fields.getTemperature();
+        for (int j = Math.max(0, y); j < Math.min(gridHeight, y + height); j++) {
+            if (!ownsRow(j)) {
+                continue;
+            }
+            for (int i = Math.max(0, x); i < Math.min(this.width, x + width); i++) {
+                int idx = fields.index(i, j - firstRow);
+                if (fields.isAir(idx)) {
+                    temperatures[idx] = temperature;
+                }
+            }
+        }
+    }
+
+    // whether row j of the grid is in the field store
+    private boolean ownsRow(int j) {
+        return j >= firstRow && j < firstRow + height;
+    }
+
     public void setPoint(int xPos, int yPos, double pressure, double velocityX, double velocityY) {
-        Cell c = cells[xPos][yPos];
-        if (c instanceof AirCell) {
-            AirCell ac = (AirCell) c;
-            ac.setPressure(pressure);
-            ac.setVelocityX(velocityX);
-            ac.setVelocityY(velocityY);
+        int idx = fields.index(xPos, yPos);
+        if (fields.isAir(idx)) {
+            fields.getPressure()[idx] = pressure;
+            fields.getVelocityX()[idx] = velocityX;
+            fields.getVelocityY()[idx] = velocityY;
         }
     }
 
+    public FieldStore getFields() {
+        return fields;
+    }
+
+    // compatibility view, allocates one Cell per grid point so keep it off the hot path
     public Cell[][] getCells() {
+        Cell[][] cells = new Cell[width][height];
+        for(int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                cells[i][j] = getCell(i, j);
+            }
+        }
         return cells;
     }
 
+    // copies the given cells into the field store, missing cells become walls
     public void setCells(AirCell[][] cells) {
-        this.cells = cells;
+        for(int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                int idx = fields.index(i, j);
+                AirCell ac = cells[i][j];
+                if (ac == null) {
+                    fields.setWall(idx);
+                } else {
+                    fields.setAir(idx, ac.getPressure(), ac.getVelocityX(), ac.getVelocityY());
+                    fields.getTemperature()[idx] = ac.getTemperature();
+                }
+            }
+        }
     }
 
     public int getWidth() {
@@ -105,7 +364,7 @@ public class Environment {
     }
 
     public void setWidth(int width) {
-        this.width = width;
+        resize(width, this.height);
     }
 
     public int getHeight() {
@@ -113,405 +372,703 @@ public class Environment {
     }
 
     public void setHeight(int height) {
-        this.height = height;
+        resize(this.width, height);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(double cellSize) {
+        this.cellSize = cellSize;
+        rebuildFloatStep();
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    public void setDensity(double density) {
+        this.density = density;
+        rebuildFloatStep();
+    }
+
+    public double getGravity() {
+        return g;
+    }
+
+    public void setGravity(double g) {
+        this.g = g;
+    }
+
+    public double getAirmass() {
+        return airmass;
+    }
+
+    public void setAirmass(double airmass) {
+        this.airmass = airmass;
+    }
+
+    public double getVorticity() {
+        return vorticity;
+    }
+
+    public void setVorticity(double vorticity) {
+        this.vorticity = vorticity;
+        rebuildFloatStep();
+    }
+
+    public double getFanStrength() {
+        return fanStrength;
+    }
+
+    public void setFanStrength(double fanStrength) {
+        this.fanStrength = fanStrength;
+        upperFan.setStrength(fanStrength);
+        lowerFan.setStrength(fanStrength);
     }
 
+    /**
+     * Fans, jets, point sources, gravity and buoyancy applied every step, add to them to
+     * push the air. Holds the fan the simulation always had until it is taken out with
+     * setFan(false).
+     */
+    public ForceSources getForceSources() {
+        return forceSources;
+    }
+
+    public boolean isFan() {
+        return forceSources.contains(upperFan);
+    }
+
+    // the fan on the left the simulation always had
+    public void setFan(boolean fan) {
+        if (fan == isFan()) {
+            return;
+        }
+        if (fan) {
+            forceSources.add(upperFan);
+            forceSources.add(lowerFan);
+        } else {
+            forceSources.remove(upperFan);
+            forceSources.remove(lowerFan);
+        }
+    }
+
+    // compatibility view onto the field store
     public Cell getCell(int xPos, int yPos) {
-        return cells[xPos][yPos];
+        int idx = fields.index(xPos, yPos);
+        if (fields.isAir(idx)) {
+            return new AirCell(xPos, yPos, fields, idx);
+        }
+        return new WallCell(xPos, yPos);
+    }
+
+    public FieldStatistics getStatistics() {
+        return statistics;
+    }
+
+    // for a SlabStep, which merges the rows of every slab
+    FieldStatisticsCollector getStatisticsCollector() {
+        return statisticsCollector;
+    }
+
+    // fields nobody looks at can be left out of the per step statistics
+    public void setStatisticsEnabled(FluidField field, boolean enabled) {
+        statisticsCollector.setEnabled(field, enabled);
+    }
+
+    public boolean isStatisticsEnabled(FluidField field) {
+        return statisticsCollector.isEnabled(field);
     }
 
     public double getMaxVelocityX() {
-        return maxVelocityX;
+        return statistics.getMax(FluidField.VELOCITY_X);
     }
 
     public double getMinVelocityX() {
-        return minVelocityX;
+        return statistics.getMin(FluidField.VELOCITY_X);
     }
 
     public double getMaxVelocityY() {
-        return maxVelocityY;
+        return statistics.getMax(FluidField.VELOCITY_Y);
     }
 
     public double getMinVelocityY() {
-        return minVelocityY;
+        return statistics.getMin(FluidField.VELOCITY_Y);
     }
 
     public double getMaxPressure() {
-        return maxPressure;
+        return statistics.getMax(FluidField.PRESSURE);
     }
 
     public double getMinPressure() {
-        return minPressure;
+        return statistics.getMin(FluidField.PRESSURE);
     }
 
     /**
      * Step on iteration of the sim
      * @param time time elapsed in seconds
-     * @param accuracy accuracy of pressure gradient, recommend k = 10
+     * @param accuracy iteration budget of the pressure solver, recommend k = 10
      */
     public void step(double time, int accuracy) {
-        resetMinMax();
-        AirCell[][] advectionField = advection(time);
-        double[][] divergence = divergence(advectionField, time);
-        double[][] pressureField = pressure(divergence, accuracy);
-        finalCalculation(advectionField, pressureField, time);
-        addForces(time);
-        vorticityConfinement(time);
-    }
-
-    private void resetMinMax() {
-        this.minPressure = Double.MAX_VALUE;
-        this.minVelocityX = Double.MAX_VALUE;
-        this.minVelocityX = Double.MAX_VALUE;
-        this.maxPressure = Double.MIN_VALUE;
-        this.maxVelocityX = Double.MIN_VALUE;
-        this.maxVelocityY = Double.MIN_VALUE;
-    }
-
-    private void setSkyCells() {
-        skyCell = new AirCell(width, height);
-        skyCell.setVelocityX(0);
-        skyCell.setVelocityY(0);
-        skyCell.setPressure(1);
-    }
-
-    private AirCell[][] advection(double time) {
-        AirCell[][] output = new AirCell[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Cell c = cells[i][j];
-                if (c instanceof AirCell) {
-                    double x = i*cellSize;
-                    double y = j*cellSize;
-                    x = x - (((AirCell) c).getVelocityX() * time);
-                    y = y - (((AirCell) c).getVelocityY() * time);
-                    double velocityX = bilinearInterpolateVelocityX(x, y);
-                    double velocityY = bilinearInterpolateVelocityY(x, y);
-                    AirCell ac = new AirCell(i, j);
-                    ac.setVelocityX(velocityX);
-                    ac.setVelocityY(velocityY);
-                    output[i][j] = ac;
-                }
-            }
+        metrics.startStep();
+        long start = System.nanoTime();
+        long last = start;
+        for (StepPhase phase : PHASES) {
+            runPhase(phase, time, accuracy);
+            long now = System.nanoTime();
+            metrics.recordPhase(phase, now - last);
+            last = now;
         }
-        return output;
+        this.statistics = statisticsCollector.collect(executor);
+        long end = System.nanoTime();
+        metrics.recordStep(end - last, end - start, getPressureIterations(), getPressureResidual(), width * height,
+                activity.getActiveFraction());
     }
 
-    private double[][] divergence(Cell[][] advectionField, double time) {
-        double[][] output = new double[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Cell top = getCell(advectionField, i, j + 1);
-                Cell bottom = getCell(advectionField, i, j - 1);
-                Cell left = getCell(advectionField, i - 1, j);
-                Cell right = getCell(advectionField, i + 1, j);
-                double next = 0;
-                if (top instanceof AirCell) {
-                    next += ((AirCell) top).getVelocityY();
+    /**
+     * Runs a single phase of the step on the current state, for benchmarks and profiling.
+     * Every phase works on what the phase before it left behind, step runs them all in order.
+     */
+    public void runPhase(StepPhase phase, double time, int accuracy) {
+        this.stepTime = time;
+        if (phase == StepPhase.ADVECTION) {
+            activity.update(executor);
+        }
+        if (floatStep != null) {
+            runFloatPhase(phase, time, accuracy);
+            return;
+        }
+        switch (phase) {
+            case ADVECTION:
+                if (link != null) {
+                    refreshTraceHalo(time);
+                } else {
+                    refreshVelocityHalo();
                 }
-                if (bottom instanceof  AirCell) {
-                    next -= ((AirCell) bottom).getVelocityY();
+                if (advectionScheme != AdvectionScheme.SEMI_LAGRANGIAN) {
+                    higherOrderAdvection();
+                    break;
                 }
-                if (right instanceof  AirCell) {
-                    next += ((AirCell) right).getVelocityX();
+                // above the top row is sky, below the bottom row repeats the bottom row, which
+                // the band holding it copies once it is advected
+                fillAdvectionSky();
+                executor.runBands(advectionTask, height);
+                if (link != null) {
+                    link.exchange(advectionX, halo.stride, halo.stride, height, 1);
+                    link.exchange(advectionY, halo.stride, halo.stride, height, 1);
+                    fillAdvectionSky();
+                    if (gridBottom) {
+                        halo.copyRow(advectionX, 0, -1);
+                        halo.copyRow(advectionY, 0, -1);
+                    }
                 }
-                if (left instanceof  AirCell) {
-                    next -= ((AirCell) left).getVelocityX();
+                for (int edge = edges.next(0); edge >= 0; edge = edges.next(edge)) {
+                    divergence(edge - 1, edge + 1);
                 }
-                next = next * ((-2 * cellSize * density) / time);
-                output[i][j] = next;
-            }
+                // the rows next to the slabs around were left for when their ghost rows are in
+                if (!gridBottom) {
+                    divergence(0, 1);
+                }
+                if (!gridTop) {
+                    divergence(height - 1, height);
+                }
+                divergenceFresh = true;
+                break;
+            case DIVERGENCE:
+                if (!divergenceFresh) {
+                    executor.runBands(divergenceTask, height);
+                }
+                divergenceFresh = false;
+                break;
+            case PRESSURE:
+                pressure(accuracy);
+                executor.runBands(pressureHaloTask, height);
+                if (link != null) {
+                    link.exchange(pressureHalo, halo.stride, halo.stride, height, 1);
+                }
+                // pressure is clamped at the top and bottom
+                if (gridTop) {
+                    halo.copyRow(pressureHalo, height - 1, height);
+                }
+                if (gridBottom) {
+                    halo.copyRow(pressureHalo, 0, -1);
+                }
+                break;
+            case FINAL_CALCULATION:
+                executor.runBands(finalCalculationTask, height);
+                break;
+            case ADD_FORCES:
+                addForces();
+                break;
+            default:
+                refreshVelocityHalo();
+                executor.runBands(vorticityTask, height);
+                if (link != null) {
+                    link.exchange(curlField, halo.stride, halo.stride, height, 1);
+                    // outside the grid the curl stays zero
+                    if (gridTop) {
+                        halo.fillRow(curlField, height, 0);
+                    }
+                    if (gridBottom) {
+                        halo.fillRow(curlField, -1, 0);
+                    }
+                }
+                for (int edge = edges.next(0); edge >= 0; edge = edges.next(edge)) {
+                    vorticityConfinement(edge - 1, edge + 1);
+                }
+                if (!gridBottom) {
+                    vorticityConfinement(0, 1);
+                }
+                if (!gridTop) {
+                    vorticityConfinement(height - 1, height);
+                }
+                break;
         }
-        return output;
     }
 
-    private double[][] pressure(double[][] divergance, int k) {
-        double[][] output = new double[width][height];
-        for(int l = 0; l < k; l++) {
-            double temp[][] = new double[width][height];
-            for(int i = 0; i < width; i++) {
-                for(int j = 0; j < height; j++) {
-                    if (l == 0) {
-                        temp[i][j] = 0;
-                    } else {
-                        temp[i][j] = (divergance[i][j]
-                                + getCellData(output, i + 2, j)
-                                + getCellData(output, i - 2, j)
-                                + getCellData(output, i, j + 2)
-                                + getCellData(output, i, j - 2)) / 4;
-                    }
-                }
-            }
-            output = temp;
+    // the passes of the scheme need the whole advected field, the divergence follows as a phase of its own
+    private void higherOrderAdvection() {
+        if (advectionEngine == null) {
+            this.advectionEngine = new AdvectionEngine(fields, halo, activity);
         }
-        return output;
+        advectionEngine.advect(advectionScheme, velocityHaloX, velocityHaloY, advectionX, advectionY,
+                cellSize, stepTime, executor);
+        halo.fillRow(advectionX, height, SKY_VELOCITY);
+        halo.fillRow(advectionY, height, SKY_VELOCITY);
+        halo.copyRow(advectionX, 0, -1);
+        halo.copyRow(advectionY, 0, -1);
+        executor.runBands(divergenceTask, height);
+        divergenceFresh = true;
     }
 
+    private void runFloatPhase(StepPhase phase, double time, int accuracy) {
+        floatStep.setStepTime(time);
+        switch (phase) {
+            case ADVECTION:
+                floatStep.advection(executor);
+                break;
+            case DIVERGENCE:
+                floatStep.divergence(executor);
+                break;
+            case PRESSURE:
+                floatStep.pressure(accuracy, pressureSolver.getTolerance(), warmStartPressure, executor);
+                break;
+            case FINAL_CALCULATION:
+                floatStep.finalCalculation(executor);
+                break;
+            case ADD_FORCES:
+                addForces();
+                break;
+            default:
+                floatStep.confineVorticity(executor);
+                break;
+        }
+    }
 
+    public boolean isSparseStepping() {
+        return activity.isEnabled();
+    }
 
-    private void finalCalculation(AirCell[][] advection, double[][] pressureField, double time) {
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Cell c = cells[i][j];
-                if (c instanceof AirCell) {
-                    AirCell ac = (AirCell) c;
-                    double velocityX = advection[i][j].getVelocityX()
-                            - ((time / (2 * density * cellSize))
-                            * (getCellData(pressureField, i + 1, j)
-                            - getCellData(pressureField, i - 1, j)));
-                    double velocityY = advection[i][j].getVelocityY()
-                            - ((time / (2 * density * cellSize))
-                            * (getCellData(pressureField, i, j + 1)
-                            - getCellData(pressureField, i, j - 1)));
-                    double cellPressure = pressureField[i][j];
-                    ac.setVelocityX(velocityX);
-                    ac.setVelocityY(velocityY);
-                    ac.setPressure(cellPressure);
-                    cells[i][j] = ac;
-                }
-            }
+    /**
+     * Skip advection and vorticity confinement in tiles where the flow is at rest, see
+     * TileActivity for when a tile counts as quiet. The thresholds are set on the tracker.
+     */
+    public void setSparseStepping(boolean sparseStepping) {
+        activity.setEnabled(sparseStepping);
+    }
+
+    public TileActivity getTileActivity() {
+        return activity;
+    }
+
+    // edge length of the tiles in cells, keeps the other settings of the tracker
+    public void setActivityTileSize(int tileSize) {
+        this.activity = new TileActivity(fields, tileSize, activity);
+        rebuildFloatStep();
+    }
+
+    // share of the tiles the last step advected
+    public double getActiveTileFraction() {
+        return activity.getActiveFraction();
+    }
+
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    // e.g. one a launcher already set up with an allocation probe and exporters
+    public void setMetrics(StepMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public PressureSolver getPressureSolver() {
+        return pressureSolver;
+    }
+
+    public void setPressureSolver(PressureSolver pressureSolver) {
+        this.pressureSolver = pressureSolver;
+    }
+
+    // iterations the pressure solver needed in the last step
+    public int getPressureIterations() {
+        return floatStep != null ? floatStep.getPressureIterations() : pressureSolver.getIterations();
+    }
+
+    // relative residual the pressure solver reached in the last step
+    public double getPressureResidual() {
+        return floatStep != null ? floatStep.getPressureResidual() : pressureSolver.getResidual();
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * FLOAT runs every working buffer of the step in single precision, the field store stays
+     * double. The pressure is then always relaxed with Jacobi sweeps, with the tolerance of
+     * the configured solver, and the stencil kernels are not used.
+     */
+    public void setPrecision(Precision precision) {
+        if (precision == this.precision) {
+            return;
         }
+        this.precision = precision;
+        rebuildFloatStep();
+        Arrays.fill(pressureField, 0);
     }
 
-    private void addForces(double time) {
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Cell c = cells[i][j];
-                if (c instanceof AirCell) {
-                    AirCell ac = (AirCell) c;
-                    double velocityX = ac.getVelocityX();
-                    double velocityY = ac.getVelocityY();
-                    double pressure = ac.getPressure();
-
-                    //velocityY += forceOfGravity(time);
-                    if (i >= 10 && i < 11 && j > (5 * height / 10) && j < (6 * height / 10)) {
-                        velocityX += 100 * time;
-                    }
-                    if (i >= 10 && i < 11 && j > (4 * height / 10) && j < (5 * height / 10)) {
-                        velocityX += 75 * time;
-                    }
+    public AdvectionScheme getAdvectionScheme() {
+        return advectionScheme;
+    }
+
+    /**
+     * How the velocity is carried along the flow, see AdvectionScheme. The higher order
+     * schemes trace every cell two or three times per step and only run in DOUBLE precision,
+     * FLOAT always traces back once, the way it always relaxes with Jacobi sweeps.
+     */
+    public void setAdvectionScheme(AdvectionScheme advectionScheme) {
+        this.advectionScheme = advectionScheme;
+    }
+
+    public boolean isWarmStartPressure() {
+        return warmStartPressure;
+    }
+
+    /**
+     * Seed every pressure solve with the solution of the previous step. Where the pressure
+     * changes little between frames the solver's tolerance is met after fewer iterations,
+     * a stale guess that is further off than zero is dropped.
+     */
+    public void setWarmStartPressure(boolean warmStartPressure) {
+        this.warmStartPressure = warmStartPressure;
+    }
+
+    public StepExecutor getStepExecutor() {
+        return executor;
+    }
+
+    // phases are split into row bands by the executor, results do not depend on the split
+    public void setStepExecutor(StepExecutor executor) {
+        this.executor = executor;
+    }
+
+    // velocities wrap in x and y for interpolation and curl, around the slabs for a slab
+    private void refreshVelocityHalo() {
+        executor.runBands(velocityHaloTask, height);
+        if (link != null) {
+            link.exchange(velocityHaloX, halo.stride, halo.stride, height, 1);
+            link.exchange(velocityHaloY, halo.stride, halo.stride, height, 1);
+            return;
+        }
+        halo.copyRow(velocityHaloX, 0, height);
+        halo.copyRow(velocityHaloY, 0, height);
+        halo.copyRow(velocityHaloX, height - 1, -1);
+        halo.copyRow(velocityHaloY, height - 1, -1);
+    }
 
-                    ac.setVelocityX(velocityX);
-                    ac.setVelocityY(velocityY);
-                    ac.setPressure(pressure);
+    /**
+     * The velocity of the owned rows and as many rows around as the back traces of any slab
+     * reach into, which the slabs agree on first. That can't be more than the smallest slab holds.
+     */
+    private void refreshTraceHalo(double time) {
+        slabValue[0] = measureTraceReach(time);
+        int reach = Math.max(1, (int) link.reduce(SlabStep.REACH, slabValue, 1)[0]);
+        if (reach > smallestSlab) {
+            throw new IllegalStateException("back traces reach " + reach + " rows past their slab, slabs only have "
+                    + smallestSlab + ", use fewer slabs or a shorter time step");
+        }
+        if (reach > traceDepth) {
+            this.traceDepth = reach;
+            this.traceHaloX = new double[halo.stride * (height + 2 * reach)];
+            this.traceHaloY = new double[halo.stride * (height + 2 * reach)];
+        }
+        this.traceReach = reach;
+        executor.runBands(traceHaloTask, height);
+        link.exchange(traceHaloX, halo.stride, traceDepth * halo.stride, height, reach);
+        link.exchange(traceHaloY, halo.stride, traceDepth * halo.stride, height, reach);
+    }
 
-                    checkCellMinMax(ac);
+    // rows past the slab the back traces of the owned cells sample, the shorter way round the grid
+    private int measureTraceReach(double time) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityY = fields.getVelocityY();
+        int reach = 0;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                if (types[idx] == CellType.AIR) {
+                    double y = wrapYBoundsDouble((j + firstRow)*cellSize - (velocityY[idx] * time));
+                    int offset = traceOffset((int) Math.floor(y));
+                    int above = Math.max(0, offset - height + 2);
+                    reach = Math.max(reach, Math.min(above, gridHeight - offset));
                 }
             }
         }
+        return reach;
+    }
+
+    // rows grid row y1 is above the first owned row, going up around the grid
+    private int traceOffset(int y1) {
+        return y1 < firstRow ? y1 - firstRow + gridHeight : y1 - firstRow;
     }
 
-    private void checkCellMinMax(AirCell ac) {
-        double velocityX = ac.getVelocityX();
-        double velocityY = ac.getVelocityY();
-        double pressure = ac.getPressure();
+    // row of the trace halo holding grid row y1, on the side where the row above it was filled too
+    private int traceRow(int y1) {
+        int offset = traceOffset(y1);
+        return (offset + 1 < height + traceReach ? offset : offset - gridHeight) + traceDepth;
+    }
 
-        if (minVelocityX > velocityX) {
-            minVelocityX = velocityX;
+    private void fillAdvectionSky() {
+        if (gridTop) {
+            halo.fillRow(advectionX, height, SKY_VELOCITY);
+            halo.fillRow(advectionY, height, SKY_VELOCITY);
         }
-        if (minVelocityY > velocityY) {
-            minVelocityY = velocityY;
+    }
+
+    public StencilKernels getStencilKernels() {
+        return kernels;
+    }
+
+    // implementation of the inner loops, the pressure system shares it
+    public void setStencilKernels(StencilKernels kernels) {
+        this.kernels = kernels;
+        pressureSystem.setKernels(kernels);
+    }
+
+    /**
+     * Advects the band row by row and takes the divergence of a row as soon as the rows on
+     * both sides of it are advected, while they are still in the cache. The first and last
+     * row of a band that touch another band are left to the caller, so are the rows next to
+     * the slabs around.
+     */
+    private void advectionAndDivergence(int startRow, int endRow) {
+        edges.mark(startRow);
+        for (int j = startRow; j < endRow; j++) {
+            advection(j, j + 1);
+            if (j == 0 && gridBottom) {
+                halo.copyRow(advectionX, 0, -1);
+                halo.copyRow(advectionY, 0, -1);
+            }
+            if (j - 1 >= startRow && (j - 2 >= startRow || (j - 1 == 0 && gridBottom))) {
+                divergence(j - 1, j);
+            }
         }
-        if (minPressure > pressure) {
-            minPressure = pressure;
+        if (endRow == height && gridTop && (endRow - 2 >= startRow || endRow == 1)) {
+            divergence(endRow - 1, endRow);
         }
-        if (maxVelocityX < velocityX) {
-            maxVelocityX = velocityX;
+    }
+
+    // solid cells are left at zero velocity in the output, inactive tiles keep their velocity
+    private void advection(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        double[] outputX = advectionX;
+        double[] outputY = advectionY;
+        double[] sampleX = traceHaloX;
+        double[] sampleY = traceHaloY;
+        int stride = halo.stride;
+        double time = stepTime;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                if (!activity.isActive(start, j)) {
+                    for (int i = start; i < end; i++) {
+                        int idx = j * width + i;
+                        int out = (j + 1) * stride + i + 1;
+                        boolean air = types[idx] == CellType.AIR;
+                        outputX[out] = air ? velocityX[idx] : 0;
+                        outputY[out] = air ? velocityY[idx] : 0;
+                    }
+                    continue;
+                }
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int out = (j + 1) * stride + i + 1;
+                    if (types[idx] == CellType.AIR) {
+                        double x = i*cellSize;
+                        double y = (j + firstRow)*cellSize;
+                        x = x - (velocityX[idx] * time);
+                        y = y - (velocityY[idx] * time);
+                        // https://en.wikipedia.org/wiki/Bilinear_interpolation
+                        x = wrapXBoundsDouble(x);
+                        y = wrapYBoundsDouble(y);
+                        int x1 = (int) Math.floor(x);
+                        int y1 = (int) Math.floor(y);
+                        // weights from the cell above and right of the corner, a trace landing
+                        // on a whole cell reads that cell alone
+                        double left = (x1 + 1) - x;
+                        double right = x - x1;
+                        double below = (y1 + 1) - y;
+                        double above = y - y1;
+                        // x1 + 1 and y1 + 1 may be width and height, the ghost cells hold the wrapped values
+                        int p11 = traceRow(y1) * stride + x1 + 1;
+                        int p12 = p11 + stride;
+                        // both components from the same four cells
+                        double xy1 = (left * sampleX[p11]) + (right * sampleX[p11 + 1]);
+                        double xy2 = (left * sampleX[p12]) + (right * sampleX[p12 + 1]);
+                        outputX[out] = (below * xy1) + (above * xy2);
+                        xy1 = (left * sampleY[p11]) + (right * sampleY[p11 + 1]);
+                        xy2 = (left * sampleY[p12]) + (right * sampleY[p12 + 1]);
+                        outputY[out] = (below * xy1) + (above * xy2);
+                    } else {
+                        outputX[out] = 0;
+                        outputY[out] = 0;
+                    }
+                }
+            }
         }
-        if (maxVelocityY < velocityY) {
-            maxVelocityY = velocityY;
+        halo.wrapRows(outputX, startRow, endRow);
+        halo.wrapRows(outputY, startRow, endRow);
+    }
+
+    private void divergence(int startRow, int endRow) {
+        double scale = (-2 * cellSize * density) / stepTime;
+        kernels.divergence(advectionX, advectionY, divergenceField, scale, width, halo.stride, startRow, endRow);
+    }
+
+    /**
+     * The pressure the next warm started solve begins from, row-major like the field store.
+     * Unlike the store it also holds the solution inside walls. Read only, in FLOAT precision
+     * it is a copy that the next call refreshes.
+     */
+    public double[] getPressureGuess() {
+        if (floatStep != null) {
+            floatStep.copyPressure(pressureField);
         }
-        if (maxPressure < pressure) {
-            maxPressure = pressure;
+        return pressureField;
+    }
+
+    // e.g. the guess saved with a checkpoint, so a restored run continues exactly
+    public void setPressureGuess(double[] guess) {
+        System.arraycopy(guess, 0, pressureField, 0, pressureField.length);
+        if (floatStep != null) {
+            floatStep.loadPressure(guess);
         }
     }
 
-    private Cell getCell(Cell[][] cells, int xPos, int yPos) {
-        xPos = wrapXBounds(xPos);
-        if (yPos >= height) {
-            return skyCell;
-        } else if (yPos < 0){
-            return cells[xPos][0];
+    private void clearPressure() {
+        Arrays.fill(pressureField, 0);
+        if (floatStep != null) {
+            floatStep.clearPressure();
         }
-        return cells[xPos][yPos];
     }
 
-    private double getCellData(double[][] data, int xPos, int yPos) {
-        xPos = wrapXBounds(xPos);
-        if (yPos >= height) {
-            yPos = height - 1;
-        } else if (yPos < 0) {
-            yPos = 0;
+    private void pressure(int k) {
+        pressureSystem.makeCompatible(executor);
+        // the last solution only helps while it is closer than the zero guess
+        if (!warmStartPressure
+                || pressureSystem.residualNorm(pressureField, executor) >= pressureSystem.getRhsNorm()) {
+            Arrays.fill(pressureField, 0);
         }
-        return data[xPos][yPos];
+        pressureSolver.solve(pressureSystem, pressureField, k, executor);
+        pressureSystem.normalise(pressureField, executor);
     }
 
-    private double curl(int x, int y) {
-        if(checkXBounds(x) && checkYBounds(y)) {
-            Cell c;
-            AirCell ac;
-            double curl = 0;
-            c = cells[wrapXBounds(x + 1)][wrapYBounds(y)];
-            if (c instanceof AirCell) {
-                ac = (AirCell) c;
-                curl += ac.getVelocityY();
-            }
-            c = cells[wrapXBounds(x - 1)][wrapYBounds(y)];
-            if (c instanceof AirCell) {
-                ac = (AirCell) c;
-                curl -= ac.getVelocityY();
+    private void finalCalculation(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] pressure = fields.getPressure();
+        double[] pressureField = this.pressureField;
+        // the solution may start after ghost rows
+        int solution = pressureSystem.rowStart(0);
+        double factor = stepTime / (2 * density * cellSize);
+        kernels.project(types, advectionX, advectionY, pressureHalo, factor,
+                fields.getVelocityX(), fields.getVelocityY(), width, halo.stride, startRow, endRow);
+        for (int idx = startRow * width; idx < endRow * width; idx++) {
+            if (types[idx] == CellType.AIR) {
+                pressure[idx] = pressureField[solution + idx];
             }
-            c = cells[wrapXBounds(x)][wrapYBounds(y + 1)];
-            if (c instanceof AirCell) {
-                ac = (AirCell) c;
-                curl += ac.getVelocityX();
-            }
-            c = cells[wrapXBounds(x)][wrapYBounds(y - 1)];
-            if (c instanceof AirCell) {
-                ac = (AirCell) c;
-                curl -= ac.getVelocityX();
-            }
-            return curl;
         }
-        return 0;
     }
 
-    private double forceOfGravity(double time) {
-        return -(airmass * g) * time;
+    // sources only touch the rows they cover, a grid without any has nothing to do
+    private void addForces() {
+        if (!forceSources.isEmpty()) {
+            forceSources.prepare(gridHeight);
+            executor.runBands(addForcesTask, height);
+        }
     }
 
-    private void vorticityConfinement(double time) {
-        double[][][] temp = new double[2][width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (checkXBounds(i) && checkYBounds(j) && cells[i][j] instanceof AirCell) {
-                    AirCell ac = (AirCell) cells[i][j];
-                    double dx = Math.abs(curl(i, j - 1)) - Math.abs(curl(i, j + 1));
-                    double dy = Math.abs(curl(i + 1, j)) - Math.abs(curl(i - 1, j));
-                    double len = Math.sqrt((dx * dx) + (dy * dy)) + 0.00001;
-                    dx = vorticity / len * dx;
-                    dy = vorticity / len * dy;
-                    double velocityX = ac.getVelocityX();
-                    double velocityY = ac.getVelocityY();
-                    velocityX += time * curl(i, j) * dx;
-                    velocityY += time * curl(i, j) * dy;
-                    temp[0][i][j] = velocityX;
-                    temp[1][i][j] = velocityY;
-                }
+    private void addForces(int startRow, int endRow) {
+        forceSources.apply(fields, firstRow, firstRow + startRow, firstRow + endRow, stepTime);
+    }
+
+    // same order as advectionAndDivergence, a row is confined once the curl around it is known
+    private void curlAndConfinement(int startRow, int endRow) {
+        edges.mark(startRow);
+        for (int j = startRow; j < endRow; j++) {
+            curl(j, j + 1);
+            if (j - 1 >= startRow && (j - 2 >= startRow || (j - 1 == 0 && gridBottom))) {
+                vorticityConfinement(j - 1, j);
             }
         }
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (checkXBounds(i) && checkYBounds(j) && cells[i][j] instanceof AirCell) {
-                    AirCell ac = (AirCell) cells[i][j];
-                    ac.setVelocityX(temp[0][i][j]);
-                    ac.setVelocityY(temp[1][i][j]);
-                }
-            }
+        if (endRow == height && gridTop && (endRow - 2 >= startRow || endRow == 1)) {
+            vorticityConfinement(endRow - 1, endRow);
         }
     }
 
-    private double bilinearInterpolateVelocityX(double x, double y) {
-        double output = 0;
-        x = wrapXBoundsDouble(x);
-        y = wrapYBoundsDouble(y);
-        int x1 = (int) Math.floor(x);
-        int x2 = (int) Math.ceil(x);
-        int y1 = (int) Math.floor(y);
-        int y2 = (int) Math.ceil(y);
-        int x1pos = wrapXBounds(x1);;
-        int x2pos = wrapXBounds(x2);;
-        int y1pos = wrapYBounds(y1);;
-        int y2pos = wrapYBounds(y2);;
-        double v11 = 0;
-        double v12 = 0;
-        double v21 = 0;
-        double v22 = 0;
-        Cell c;
-        c = cells[x1pos][y1pos];
-        if (c instanceof AirCell) {
-            v11 = ((AirCell) c).getVelocityX();
-        }
-        c = cells[x1pos][y2pos];
-        if (c instanceof AirCell) {
-            v12 = ((AirCell) c).getVelocityX();
-        }
-        c = cells[x2pos][y1pos];
-        if (c instanceof AirCell) {
-            v21 = ((AirCell) c).getVelocityX();
-        }
-        c = cells[x2pos][y2pos];
-        if (c instanceof AirCell) {
-            v22 = ((AirCell) c).getVelocityX();
-        }
-        // https://en.wikipedia.org/wiki/Bilinear_interpolation
-        double xy1 = (((x2 - x) / (x2 - x1)) * v11) + (((x - x1) / (x2 - x1)) * v21);
-        double xy2 = (((x2 - x) / (x2 - x1)) * v12) + (((x - x1) / (x2 - x1)) * v22);
-        output = (((y2 - y) / (y2 - y1)) * xy1) + (((y - y1) / (y2 - y1)) * xy2);
-        return output;
-    }
-
-    private double bilinearInterpolateVelocityY(double x, double y) {
-        double output = 0;
-        x = wrapXBoundsDouble(x);
-        y = wrapYBoundsDouble(y);
-        int x1 = (int) Math.floor(x);
-        int x2 = (int) Math.ceil(x);
-        int y1 = (int) Math.floor(y);
-        int y2 = (int) Math.ceil(y);
-        int x1pos = wrapXBounds(x1);;
-        int x2pos = wrapXBounds(x2);;
-        int y1pos = wrapYBounds(y1);;
-        int y2pos = wrapYBounds(y2);;
-        double v11 = 0;
-        double v12 = 0;
-        double v21 = 0;
-        double v22 = 0;
-        Cell c;
-        c = cells[x1pos][y1pos];
-        if (c instanceof AirCell) {
-            v11 = ((AirCell) c).getVelocityY();
-        }
-        c = cells[x1pos][y2pos];
-        if (c instanceof AirCell) {
-            v12 = ((AirCell) c).getVelocityY();
-        }
-        c = cells[x2pos][y1pos];
-        if (c instanceof AirCell) {
-            v21 = ((AirCell) c).getVelocityY();
-        }
-        c = cells[x2pos][y2pos];
-        if (c instanceof AirCell) {
-            v22 = ((AirCell) c).getVelocityY();
-        }
-        // https://en.wikipedia.org/wiki/Bilinear_interpolation
-        double xy1 = (((x2 - x) / (x2 - x1)) * v11) + (((x - x1) / (x2 - x1)) * v21);
-        double xy2 = (((x2 - x) / (x2 - x1)) * v12) + (((x - x1) / (x2 - x1)) * v22);
-        output = (((y2 - y) / (y2 - y1)) * xy1) + (((y - y1) / (y2 - y1)) * xy2);
-        return output;
-    }
-
-    private int wrapXBounds(int xPos) {
-        while (xPos < 0 || xPos >= width) {
-            if (xPos < 0) {
-                xPos += width;
-            } else if (xPos >= width) {
-                xPos -= width;
-            }
-        }
-        return xPos;
+    // curl of every cell, solid or not, from the velocity halo
+    private void curl(int startRow, int endRow) {
+        kernels.curl(velocityHaloX, velocityHaloY, curlField, width, halo.stride, startRow, endRow);
     }
-    private int wrapYBounds(int yPos) {
-        while(yPos < 0 || yPos >= height) {
-            if (yPos < 0) {
-                yPos += height;
-            } else if (yPos >= height) {
-                yPos -= height;
+
+    // the curl comes from the velocity halo, so every cell can take its new velocity right away.
+    // Starting from the halo too, a row of a one row band that is confined twice stays right
+    private void vorticityConfinement(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] sampleX = velocityHaloX;
+        double[] sampleY = velocityHaloY;
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        double[] curl = curlField;
+        int stride = halo.stride;
+        double time = stepTime;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                if (!activity.isActive(start, j)) {
+                    continue;
+                }
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int p = (j + 1) * stride + i + 1;
+                    if (types[idx] == CellType.AIR) {
+                        double dx = Math.abs(curl[p - stride]) - Math.abs(curl[p + stride]);
+                        double dy = Math.abs(curl[p + 1]) - Math.abs(curl[p - 1]);
+                        double len = Math.sqrt((dx * dx) + (dy * dy)) + 0.00001;
+                        dx = vorticity / len * dx;
+                        dy = vorticity / len * dy;
+                        velocityX[idx] = sampleX[p] + time * curl[p] * dx;
+                        velocityY[idx] = sampleY[p] + time * curl[p] * dy;
+                    }
+                }
             }
         }
-        return yPos;
     }
 
+    // the back traced position can be any distance outside the grid
     private double wrapXBoundsDouble(double xPos) {
         while (xPos < 0 || xPos >= width) {
             if (xPos < 0) {
@@ -523,20 +1080,13 @@ public class Environment {
         return xPos;
     }
     private double wrapYBoundsDouble(double yPos) {
-        while(yPos < 0 || yPos >= height) {
+        while(yPos < 0 || yPos >= gridHeight) {
             if (yPos < 0) {
-                yPos += height;
-            } else if (yPos >= height) {
-                yPos -= height;
+                yPos += gridHeight;
+            } else if (yPos >= gridHeight) {
+                yPos -= gridHeight;
             }
         }
         return yPos;
     }
-
-    private boolean checkXBounds(int xPos) {
-        return (xPos >= 0 && xPos < width);
-    }
-    private boolean checkYBounds(int yPos) {
-        return (yPos >= 0 && yPos < height);
-    }
 }
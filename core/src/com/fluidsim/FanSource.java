@@ -0,0 +1,52 @@
+package com.fluidsim;
+
+/**
+ * Blows with the same force on every air cell of a rectangle, a fan across a channel or,
+ * made narrow, a jet. The force is an acceleration in cells per second squared.
+ */
+public class FanSource extends ForceSource {
+
+    private final double forceX;
+
+    private final double forceY;
+
+    public FanSource(int x, int y, int width, int height, double forceX, double forceY) {
+        super(x, y, width, height);
+        this.forceX = forceX;
+        this.forceY = forceY;
+    }
+
+    @Override
+    protected void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int width = fields.getWidth();
+        int startColumn = getStartColumn();
+        int endColumn = getEndColumn(width);
+        double pushX = forceX * getStrength() * time;
+        double pushY = forceY * getStrength() * time;
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = startColumn; i < endColumn; i++) {
+                int idx = (j - firstRow) * width + i;
+                if (types[idx] == CellType.AIR) {
+                    // a component without force stays untouched, -0 included
+                    if (forceX != 0) {
+                        velocityX[idx] += pushX;
+                    }
+                    if (forceY != 0) {
+                        velocityY[idx] += pushY;
+                    }
+                }
+            }
+        }
+    }
+
+    public double getForceX() {
+        return forceX;
+    }
+
+    public double getForceY() {
+        return forceY;
+    }
+}
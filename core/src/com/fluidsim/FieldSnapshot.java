@@ -0,0 +1,98 @@
+package com.fluidsim;
+
+/**
+ * Copy of the fields an Environment held after a step, handed from the simulation to the
+ * renderer. Readers must treat it as immutable, a SimulationRunner only writes a snapshot
+ * again once nobody can see it any more. Snapshots are reused, capturing allocates nothing.
+ */
+public final class FieldSnapshot {
+
+    private final int width;
+
+    private final int height;
+
+    private final double[] velocityX;
+
+    private final double[] velocityY;
+
+    private final double[] pressure;
+
+    private final byte[] cellTypes;
+
+    // a copy, the environment overwrites its own statistics while the snapshot is shown
+    private final FieldStatistics statistics;
+
+    // number of steps the environment had taken, 0 before the first. Written last, a runner may
+    // compare it while the snapshot is being captured
+    private volatile long step;
+
+    public FieldSnapshot(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        this.velocityX = new double[size];
+        this.velocityY = new double[size];
+        this.pressure = new double[size];
+        this.cellTypes = new byte[size];
+        this.statistics = new FieldStatistics();
+    }
+
+    // only the runner that owns the snapshot may call this, before publishing it
+    public void capture(Environment env, long step) {
+        capture(env.getFields(), env.getStatistics(), step);
+    }
+
+    // for runners that don't step an environment, e.g. a replay
+    public void capture(FieldStore fields, FieldStatistics statistics, long step) {
+        if (fields.getWidth() != width || fields.getHeight() != height) {
+            throw new IllegalArgumentException("fields are " + fields.getWidth() + "x" + fields.getHeight()
+                    + ", snapshot is " + width + "x" + height);
+        }
+        System.arraycopy(fields.getVelocityX(), 0, velocityX, 0, velocityX.length);
+        System.arraycopy(fields.getVelocityY(), 0, velocityY, 0, velocityY.length);
+        System.arraycopy(fields.getPressure(), 0, pressure, 0, pressure.length);
+        System.arraycopy(fields.getCellTypes(), 0, cellTypes, 0, cellTypes.length);
+        this.statistics.copyFrom(statistics);
+        this.step = step;
+    }
+
+    public int index(int xPos, int yPos) {
+        return yPos * width + xPos;
+    }
+
+    public boolean isAir(int index) {
+        return cellTypes[index] == CellType.AIR;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double[] getVelocityX() {
+        return velocityX;
+    }
+
+    public double[] getVelocityY() {
+        return velocityY;
+    }
+
+    public double[] getPressure() {
+        return pressure;
+    }
+
+    public byte[] getCellTypes() {
+        return cellTypes;
+    }
+
+    public FieldStatistics getStatistics() {
+        return statistics;
+    }
+
+    public long getStep() {
+        return step;
+    }
+}
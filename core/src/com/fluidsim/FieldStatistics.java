@@ -0,0 +1,93 @@
+package com.fluidsim;
+
+/**
+ * Min, max, mean and RMS of every field over the air cells, taken at the end of one step.
+ * Fields that were not collected report zero for everything.
+ *
+ * Environment reuses two of these so that stepping allocates nothing: the statistics of a
+ * step stay as they are during the next step and are overwritten by the one after it.
+ * Read them right after the step or copy them, FieldSnapshot keeps a copy of its own.
+ */
+public final class FieldStatistics {
+
+    public static final FieldStatistics EMPTY = new FieldStatistics(0, 0, new boolean[FluidField.values().length],
+            new double[FluidField.values().length * FieldStatisticsCollector.VALUES]);
+
+    private int cellCount;
+
+    private double maxVelocity;
+
+    private final boolean[] collected;
+
+    // min, max, mean and rms per field, in FluidField order
+    private final double[] values;
+
+    // nothing collected, to be filled in by a FieldStatisticsCollector or a copy
+    FieldStatistics() {
+        this(0, 0, new boolean[FluidField.values().length], new double[FluidField.values().length
+                * FieldStatisticsCollector.VALUES]);
+    }
+
+    FieldStatistics(int cellCount, double maxVelocity, boolean[] collected, double[] values) {
+        this.cellCount = cellCount;
+        this.maxVelocity = maxVelocity;
+        this.collected = collected;
+        this.values = values;
+    }
+
+    // takes over everything from source, allocates nothing
+    void copyFrom(FieldStatistics source) {
+        this.cellCount = source.cellCount;
+        this.maxVelocity = source.maxVelocity;
+        System.arraycopy(source.collected, 0, collected, 0, collected.length);
+        System.arraycopy(source.values, 0, values, 0, values.length);
+    }
+
+    void set(int cellCount, double maxVelocity) {
+        this.cellCount = cellCount;
+        this.maxVelocity = maxVelocity;
+    }
+
+    boolean[] getCollected() {
+        return collected;
+    }
+
+    double[] getValues() {
+        return values;
+    }
+
+    // number of air cells the statistics were taken over
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    // largest velocity component over the air cells, always collected, for the CFL condition
+    public double getMaxVelocity() {
+        return maxVelocity;
+    }
+
+    public boolean isCollected(FluidField field) {
+        return collected[field.ordinal()];
+    }
+
+    public double getMin(FluidField field) {
+        return values[field.ordinal() * FieldStatisticsCollector.VALUES];
+    }
+
+    public double getMax(FluidField field) {
+        return values[field.ordinal() * FieldStatisticsCollector.VALUES + 1];
+    }
+
+    public double getMean(FluidField field) {
+        return values[field.ordinal() * FieldStatisticsCollector.VALUES + 2];
+    }
+
+    public double getRms(FluidField field) {
+        return values[field.ordinal() * FieldStatisticsCollector.VALUES + 3];
+    }
+
+    // largest absolute value of the field
+    public double getAbsMax(FluidField field) {
+        return Math.max(Math.abs(getMin(field)), Math.abs(getMax(field)));
+    }
+}
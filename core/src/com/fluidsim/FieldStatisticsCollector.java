@@ -0,0 +1,200 @@
+package com.fluidsim;
+
+/**
+ * Reduces the fields of a FieldStore to a FieldStatistics snapshot. Every row keeps its
+ * own partial min, max, sum and sum of squares, so bands can run on any thread, and the
+ * partials are merged in row order afterwards. The result doesn't depend on how the rows
+ * were split between threads.
+ *
+ * Collecting fills the older of two snapshots and returns it, the snapshot of the collect
+ * before stays untouched until the next one.
+ */
+public class FieldStatisticsCollector implements RowBandTask {
+
+    // min, max, sum and sum of squares per field while collecting, min, max, mean and rms after merging
+    static final int VALUES = 4;
+
+    private static final FluidField[] FIELDS = FluidField.values();
+
+    // per row in exportRows
+    static final int ROW_VALUES = 2 + FIELDS.length * VALUES;
+
+    private final FieldStore fields;
+
+    private final double[] rowPartials;
+
+    private final int[] rowCounts;
+
+    private final double[] rowMaxVelocity;
+
+    private final boolean[] enabled;
+
+    private final FieldStatistics[] snapshots;
+
+    // the snapshot the next collect fills
+    private int next;
+
+    public FieldStatisticsCollector(FieldStore fields) {
+        this.fields = fields;
+        this.rowPartials = new double[fields.getHeight() * FIELDS.length * VALUES];
+        this.rowCounts = new int[fields.getHeight()];
+        this.rowMaxVelocity = new double[fields.getHeight()];
+        this.enabled = new boolean[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            enabled[f] = true;
+        }
+        this.snapshots = new FieldStatistics[] {new FieldStatistics(), new FieldStatistics()};
+    }
+
+    public boolean isEnabled(FluidField field) {
+        return enabled[field.ordinal()];
+    }
+
+    // fields that are switched off are skipped entirely while collecting
+    public void setEnabled(FluidField field, boolean enabled) {
+        this.enabled[field.ordinal()] = enabled;
+    }
+
+    public FieldStatistics collect(StepExecutor executor) {
+        executor.runBands(this, fields.getHeight());
+        FieldStatistics statistics = snapshots[next];
+        next = 1 - next;
+        merge(rowPartials, rowCounts, rowMaxVelocity, fields.getHeight(), enabled, statistics);
+        return statistics;
+    }
+
+    // the partials of every row after run, as the cell count, the largest velocity and ROW_VALUES - 2 partials
+    void exportRows(double[] out, int offset, int startRow, int endRow) {
+        int partials = FIELDS.length * VALUES;
+        for (int j = startRow; j < endRow; j++) {
+            int to = offset + (j - startRow) * ROW_VALUES;
+            out[to] = rowCounts[j];
+            out[to + 1] = rowMaxVelocity[j];
+            System.arraycopy(rowPartials, j * partials, out, to + 2, partials);
+        }
+    }
+
+    // statistics of rows exported by collectors of every field, in row order
+    static FieldStatistics mergeRows(double[] rows, int height) {
+        int partials = FIELDS.length * VALUES;
+        double[] rowPartials = new double[height * partials];
+        int[] rowCounts = new int[height];
+        double[] rowMaxVelocity = new double[height];
+        boolean[] enabled = new boolean[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            enabled[f] = true;
+        }
+        for (int j = 0; j < height; j++) {
+            rowCounts[j] = (int) rows[j * ROW_VALUES];
+            rowMaxVelocity[j] = rows[j * ROW_VALUES + 1];
+            System.arraycopy(rows, j * ROW_VALUES + 2, rowPartials, j * partials, partials);
+        }
+        FieldStatistics statistics = new FieldStatistics();
+        merge(rowPartials, rowCounts, rowMaxVelocity, height, enabled, statistics);
+        return statistics;
+    }
+
+    @Override
+    public void run(int startRow, int endRow) {
+        int width = fields.getWidth();
+        byte[] types = fields.getCellTypes();
+        for (int j = startRow; j < endRow; j++) {
+            int count = 0;
+            int rowStart = j * width;
+            for (int idx = rowStart; idx < rowStart + width; idx++) {
+                if (types[idx] == CellType.AIR) {
+                    count++;
+                }
+            }
+            rowCounts[j] = count;
+            rowMaxVelocity[j] = maxVelocity(fields.getVelocityX(), fields.getVelocityY(), types, rowStart, width);
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (enabled[f]) {
+                    reduceRow(fields.getField(FIELDS[f]), types, rowStart, width,
+                            (j * FIELDS.length + f) * VALUES);
+                }
+            }
+        }
+    }
+
+    private void reduceRow(double[] data, byte[] types, int rowStart, int width, int out) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int idx = rowStart; idx < rowStart + width; idx++) {
+            if (types[idx] == CellType.AIR) {
+                double v = data[idx];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+                sum += v;
+                sumSquares += v * v;
+            }
+        }
+        rowPartials[out] = min;
+        rowPartials[out + 1] = max;
+        rowPartials[out + 2] = sum;
+        rowPartials[out + 3] = sumSquares;
+    }
+
+    // largest velocity component of the row, whatever is enabled, NaN is skipped
+    private static double maxVelocity(double[] velocityX, double[] velocityY, byte[] types, int rowStart, int width) {
+        double max = 0;
+        for (int idx = rowStart; idx < rowStart + width; idx++) {
+            if (types[idx] == CellType.AIR) {
+                double x = Math.abs(velocityX[idx]);
+                double y = Math.abs(velocityY[idx]);
+                if (x > max) {
+                    max = x;
+                }
+                if (y > max) {
+                    max = y;
+                }
+            }
+        }
+        return max;
+    }
+
+    private static void merge(double[] rowPartials, int[] rowCounts, double[] rowMaxVelocity, int height,
+                              boolean[] enabled, FieldStatistics out) {
+        int count = 0;
+        double maxVelocity = 0;
+        for (int j = 0; j < height; j++) {
+            count += rowCounts[j];
+            maxVelocity = Math.max(maxVelocity, rowMaxVelocity[j]);
+        }
+        boolean[] collected = out.getCollected();
+        double[] values = out.getValues();
+        for (int f = 0; f < FIELDS.length; f++) {
+            collected[f] = false;
+            values[f * VALUES] = 0;
+            values[f * VALUES + 1] = 0;
+            values[f * VALUES + 2] = 0;
+            values[f * VALUES + 3] = 0;
+            if (!enabled[f] || count == 0) {
+                continue;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int j = 0; j < height; j++) {
+                int in = (j * FIELDS.length + f) * VALUES;
+                min = Math.min(min, rowPartials[in]);
+                max = Math.max(max, rowPartials[in + 1]);
+                sum += rowPartials[in + 2];
+                sumSquares += rowPartials[in + 3];
+            }
+            collected[f] = true;
+            values[f * VALUES] = min;
+            values[f * VALUES + 1] = max;
+            values[f * VALUES + 2] = sum / count;
+            values[f * VALUES + 3] = Math.sqrt(sumSquares / count);
+        }
+        out.set(count, maxVelocity);
+    }
+}
@@ -0,0 +1,127 @@
+package com.fluidsim;
+
+import java.util.Arrays;
+
+/**
+ * Flat storage for the simulation state. Every field is one contiguous array in
+ * row-major order, the cell at (x, y) lives at index y * width + x.
+ * Solid cells always hold zero velocity so stencils can read them without checking the mask.
+ */
+public class FieldStore {
+
+    private final int width;
+
+    private final int height;
+
+    private final double[] velocityX;
+
+    private final double[] velocityY;
+
+    private final double[] pressure;
+
+    // static, nothing advects it, it holds what initHeater or AirCell.setTemperature put there
+    private final double[] temperature;
+
+    private final byte[] cellTypes;
+
+    public FieldStore(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        this.velocityX = new double[size];
+        this.velocityY = new double[size];
+        this.pressure = new double[size];
+        this.temperature = new double[size];
+        this.cellTypes = new byte[size];
+    }
+
+    public int index(int xPos, int yPos) {
+        return yPos * width + xPos;
+    }
+
+    public boolean isAir(int index) {
+        return cellTypes[index] == CellType.AIR;
+    }
+
+    public void setAir(int index, double pressure, double velocityX, double velocityY) {
+        this.cellTypes[index] = CellType.AIR;
+        this.pressure[index] = pressure;
+        this.velocityX[index] = velocityX;
+        this.velocityY[index] = velocityY;
+        this.temperature[index] = 0;
+    }
+
+    public void setWall(int index) {
+        this.cellTypes[index] = CellType.WALL;
+        this.pressure[index] = 0;
+        this.velocityX[index] = 0;
+        this.velocityY[index] = 0;
+        this.temperature[index] = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(velocityX, 0);
+        Arrays.fill(velocityY, 0);
+        Arrays.fill(pressure, 0);
+        Arrays.fill(temperature, 0);
+        Arrays.fill(cellTypes, CellType.AIR);
+    }
+
+    // copies every field and the cell types of a store of the same size
+    public void copyFrom(FieldStore other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("field store is " + other.width + "x" + other.height
+                    + ", expected " + width + "x" + height);
+        }
+        System.arraycopy(other.velocityX, 0, velocityX, 0, velocityX.length);
+        System.arraycopy(other.velocityY, 0, velocityY, 0, velocityY.length);
+        System.arraycopy(other.pressure, 0, pressure, 0, pressure.length);
+        System.arraycopy(other.temperature, 0, temperature, 0, temperature.length);
+        System.arraycopy(other.cellTypes, 0, cellTypes, 0, cellTypes.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSize() {
+        return velocityX.length;
+    }
+
+    public double[] getVelocityX() {
+        return velocityX;
+    }
+
+    public double[] getVelocityY() {
+        return velocityY;
+    }
+
+    public double[] getPressure() {
+        return pressure;
+    }
+
+    public double[] getTemperature() {
+        return temperature;
+    }
+
+    public double[] getField(FluidField field) {
+        switch (field) {
+            case VELOCITY_X:
+                return velocityX;
+            case VELOCITY_Y:
+                return velocityY;
+            case PRESSURE:
+                return pressure;
+            default:
+                return temperature;
+        }
+    }
+
+    public byte[] getCellTypes() {
+        return cellTypes;
+    }
+}
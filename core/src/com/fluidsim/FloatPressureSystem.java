@@ -0,0 +1,288 @@
+package com.fluidsim;
+
+/**
+ * Single precision version of the PressureSystem problem for the float step, relaxed with
+ * Jacobi sweeps. Fields are float, sums and norms are accumulated in double so the mean
+ * removal and the tolerance check don't lose what little precision there is.
+ */
+class FloatPressureSystem {
+
+    // damping of the sweeps, see JacobiSolver
+    private static final float WEIGHT = (float) JacobiSolver.DEFAULT_WEIGHT;
+
+    private final int width;
+
+    private final int height;
+
+    private final float[] rhs;
+
+    private final float[] temp;
+
+    private final int[] left2;
+
+    private final int[] right2;
+
+    private final int xClasses;
+
+    // per row sums of the even and odd columns, or per row squared norms
+    private final double[] rowPartials;
+
+    private final double[] componentMeans;
+
+    private double rhsNorm;
+
+    private int iterations;
+
+    private double residual;
+
+    // fields the row band phases work on
+    private float[] source;
+
+    private float[] target;
+
+    private final RowBandTask sumTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            sumComponents(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask shiftTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            shiftComponents(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask residualTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            residualRows(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask sweepTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            sweep(startRow, endRow);
+        }
+    };
+
+    FloatPressureSystem(int width, int height, float[] rhs) {
+        this.width = width;
+        this.height = height;
+        this.rhs = rhs;
+        this.temp = new float[width * height];
+        this.left2 = new int[width];
+        this.right2 = new int[width];
+        for (int i = 0; i < width; i++) {
+            left2[i] = (((i - 2) % width) + width) % width;
+            right2[i] = (i + 2) % width;
+        }
+        this.xClasses = width % 2 == 0 ? 2 : 1;
+        this.rowPartials = new double[height * 2];
+        this.componentMeans = new double[4];
+    }
+
+    // removes the mean of the right hand side on every sub-lattice
+    void makeCompatible(StepExecutor executor) {
+        removeMeans(rhs, executor);
+        rhsNorm = residualNorm(null, executor);
+    }
+
+    // fixes every sub-lattice of the pressure to zero mean
+    void normalise(float[] pressure, StepExecutor executor) {
+        removeMeans(pressure, executor);
+    }
+
+    // euclidean norm of rhs - A p, p == null stands for zero pressure
+    double residualNorm(float[] pressure, StepExecutor executor) {
+        this.source = pressure;
+        executor.runBands(residualTask, height);
+        this.source = null;
+        return Math.sqrt(sumRows());
+    }
+
+    /**
+     * Jacobi sweeps until the relative residual is below the tolerance or the iteration
+     * budget is spent. Float can't get much below 1e-6, smaller tolerances run the full budget.
+     */
+    void solve(float[] pressure, int maxIterations, double tolerance, StepExecutor executor) {
+        if (rhsNorm == 0) {
+            iterations = 0;
+            residual = 0;
+            return;
+        }
+        float[] current = pressure;
+        float[] next = temp;
+        double relative = Double.POSITIVE_INFINITY;
+        int count = 0;
+        while (count < maxIterations) {
+            this.source = current;
+            this.target = next;
+            executor.runBands(sweepTask, height);
+            relative = Math.sqrt(sumRows()) / rhsNorm;
+            float[] swap = current;
+            current = next;
+            next = swap;
+            count++;
+            if (relative <= tolerance) {
+                break;
+            }
+        }
+        if (current != pressure) {
+            System.arraycopy(current, 0, pressure, 0, pressure.length);
+        }
+        this.source = null;
+        this.target = null;
+        this.iterations = count;
+        this.residual = relative;
+    }
+
+    double getRhsNorm() {
+        return rhsNorm;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    double getResidual() {
+        return residual;
+    }
+
+    private void removeMeans(float[] field, StepExecutor executor) {
+        this.target = field;
+        executor.runBands(sumTask, height);
+        for (int c = 0; c < xClasses * 2; c++) {
+            double sum = 0;
+            double count = 0;
+            for (int j = c / xClasses; j < height; j += 2) {
+                sum += rowPartials[j * 2 + c % xClasses];
+                count += xClasses == 1 ? width : width / 2;
+            }
+            componentMeans[c] = count > 0 ? sum / count : 0;
+        }
+        executor.runBands(shiftTask, height);
+        this.target = null;
+    }
+
+    private double sumRows() {
+        double sum = 0;
+        for (int j = 0; j < height; j++) {
+            sum += rowPartials[j * 2];
+        }
+        return sum;
+    }
+
+    private float neighbourSum(float[] p, int i, int j) {
+        int row = j * width;
+        float sum = p[row + left2[i]] + p[row + right2[i]];
+        if (j + 2 < height) {
+            sum += p[row + 2 * width + i];
+        }
+        if (j - 2 >= 0) {
+            sum += p[row - 2 * width + i];
+        }
+        return sum;
+    }
+
+    private float diagonal(int j) {
+        float diagonal = 2;
+        if (j + 2 < height) {
+            diagonal++;
+        }
+        if (j - 2 >= 0) {
+            diagonal++;
+        }
+        return diagonal;
+    }
+
+    private void sumComponents(int startRow, int endRow) {
+        float[] field = target;
+        for (int j = startRow; j < endRow; j++) {
+            double even = 0;
+            double odd = 0;
+            for (int i = 0; i < width; i += 2) {
+                even += field[j * width + i];
+            }
+            for (int i = 1; i < width; i += 2) {
+                odd += field[j * width + i];
+            }
+            if (xClasses == 1) {
+                rowPartials[j * 2] = even + odd;
+                rowPartials[j * 2 + 1] = 0;
+            } else {
+                rowPartials[j * 2] = even;
+                rowPartials[j * 2 + 1] = odd;
+            }
+        }
+    }
+
+    private void shiftComponents(int startRow, int endRow) {
+        float[] field = target;
+        for (int j = startRow; j < endRow; j++) {
+            int component = (j & 1) * xClasses;
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                field[idx] = (float) (field[idx] - componentMeans[component + (i % xClasses)]);
+            }
+        }
+    }
+
+    private void residualRows(int startRow, int endRow) {
+        float[] p = source;
+        for (int j = startRow; j < endRow; j++) {
+            float diagonal = diagonal(j);
+            double norm = 0;
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                float r = p == null ? rhs[idx] : rhs[idx] - (diagonal * p[idx] - neighbourSum(p, i, j));
+                norm += (double) r * r;
+            }
+            rowPartials[j * 2] = norm;
+        }
+    }
+
+    // the stride two neighbours only wrap on the first and last two columns
+    private void sweep(int startRow, int endRow) {
+        float[] p = source;
+        float[] out = target;
+        int up = 2 * width;
+        for (int j = startRow; j < endRow; j++) {
+            float diagonal = diagonal(j);
+            float step = WEIGHT / diagonal;
+            int row = j * width;
+            double norm = 0;
+            int interiorEnd = Math.max(2, width - 2);
+            for (int i = 0; i < Math.min(2, width); i++) {
+                norm += relax(p, out, diagonal, step, i, j);
+            }
+            if (j + 2 < height && j - 2 >= 0) {
+                for (int idx = row + 2; idx < row + interiorEnd; idx++) {
+                    float sum = rhs[idx] + (p[idx - 2] + p[idx + 2] + p[idx + up] + p[idx - up]);
+                    float r = sum - diagonal * p[idx];
+                    norm += r * r;
+                    out[idx] = p[idx] + r * step;
+                }
+            } else {
+                for (int i = 2; i < interiorEnd; i++) {
+                    norm += relax(p, out, diagonal, step, i, j);
+                }
+            }
+            for (int i = interiorEnd; i < width; i++) {
+                norm += relax(p, out, diagonal, step, i, j);
+            }
+            rowPartials[j * 2] = norm;
+        }
+    }
+
+    // squared residual of cell (i, j), writes its relaxed value
+    private float relax(float[] p, float[] out, float diagonal, float step, int i, int j) {
+        int idx = j * width + i;
+        float sum = rhs[idx] + neighbourSum(p, i, j);
+        float r = sum - diagonal * p[idx];
+        out[idx] = p[idx] + r * step;
+        return r * r;
+    }
+}
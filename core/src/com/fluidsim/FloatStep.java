@@ -0,0 +1,391 @@
+package com.fluidsim;
+
+import java.util.Arrays;
+
+/**
+ * The step of an Environment in single precision. The field store stays the double state
+ * every step starts from and ends in, all working buffers in between are float, which
+ * halves the bytes the advection, projection, vorticity and the pressure sweeps stream
+ * through. Forces are left to the Environment, the phases match StepPhase.
+ * The pressure is always relaxed with Jacobi sweeps, see FloatPressureSystem.
+ */
+class FloatStep {
+
+    // the sky above the top row is still air with zero velocity
+    private static final float SKY_VELOCITY = 0;
+
+    private final FieldStore fields;
+
+    private final HaloGrid halo;
+
+    private final TileActivity activity;
+
+    private final BandEdges edges;
+
+    private final int width;
+
+    private final int height;
+
+    private final float cellSize;
+
+    private final float density;
+
+    private final float vorticity;
+
+    private final float[] velocityHaloX;
+
+    private final float[] velocityHaloY;
+
+    private final float[] advectionX;
+
+    private final float[] advectionY;
+
+    private final float[] divergenceField;
+
+    private final float[] pressureField;
+
+    private final float[] pressureHalo;
+
+    private final float[] curlField;
+
+    private final FloatPressureSystem pressureSystem;
+
+    // state shared with the row band phases of the current step
+    private float stepTime;
+
+    // the advection also took the divergence, see Environment
+    private boolean divergenceFresh;
+
+    private final RowBandTask velocityHaloTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            halo.copyRows(fields.getVelocityX(), velocityHaloX, startRow, endRow);
+            halo.copyRows(fields.getVelocityY(), velocityHaloY, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask advectionTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            advectionAndDivergence(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask divergenceTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            divergence(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask pressureHaloTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            halo.copyRows(pressureField, pressureHalo, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask finalCalculationTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            finalCalculation(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask vorticityTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            curlAndConfinement(startRow, endRow);
+        }
+    };
+
+    FloatStep(FieldStore fields, HaloGrid halo, TileActivity activity, double cellSize, double density,
+              double vorticity) {
+        this.fields = fields;
+        this.halo = halo;
+        this.activity = activity;
+        this.width = halo.width;
+        this.height = halo.height;
+        this.cellSize = (float) cellSize;
+        this.density = (float) density;
+        this.vorticity = (float) vorticity;
+        this.velocityHaloX = halo.allocateFloat();
+        this.velocityHaloY = halo.allocateFloat();
+        this.advectionX = halo.allocateFloat();
+        this.advectionY = halo.allocateFloat();
+        this.pressureHalo = halo.allocateFloat();
+        // the ghost cells stay zero, curl outside the grid reads as zero
+        this.curlField = halo.allocateFloat();
+        this.divergenceField = new float[width * height];
+        this.pressureField = new float[width * height];
+        this.pressureSystem = new FloatPressureSystem(width, height, divergenceField);
+        this.edges = new BandEdges(height);
+    }
+
+    void setStepTime(double time) {
+        this.stepTime = (float) time;
+    }
+
+    // also takes the divergence, rows by the splits between bands last
+    void advection(StepExecutor executor) {
+        refreshVelocityHalo(executor);
+        // above the top row is sky, below the bottom row repeats the bottom row
+        halo.fillRow(advectionX, height, SKY_VELOCITY);
+        halo.fillRow(advectionY, height, SKY_VELOCITY);
+        executor.runBands(advectionTask, height);
+        for (int edge = edges.next(0); edge >= 0; edge = edges.next(edge)) {
+            divergence(edge - 1, edge + 1);
+        }
+        divergenceFresh = true;
+    }
+
+    void divergence(StepExecutor executor) {
+        if (!divergenceFresh) {
+            executor.runBands(divergenceTask, height);
+        }
+        divergenceFresh = false;
+    }
+
+    void pressure(int accuracy, double tolerance, boolean warmStart, StepExecutor executor) {
+        pressureSystem.makeCompatible(executor);
+        // the last solution only helps while it is closer than the zero guess
+        if (!warmStart || pressureSystem.residualNorm(pressureField, executor) >= pressureSystem.getRhsNorm()) {
+            Arrays.fill(pressureField, 0);
+        }
+        pressureSystem.solve(pressureField, accuracy, tolerance, executor);
+        pressureSystem.normalise(pressureField, executor);
+        executor.runBands(pressureHaloTask, height);
+        // pressure is clamped at the top and bottom
+        halo.copyRow(pressureHalo, height - 1, height);
+        halo.copyRow(pressureHalo, 0, -1);
+    }
+
+    // projection of the advected velocity into the field store
+    void finalCalculation(StepExecutor executor) {
+        executor.runBands(finalCalculationTask, height);
+    }
+
+    // vorticity confinement on the velocities of the field store
+    void confineVorticity(StepExecutor executor) {
+        refreshVelocityHalo(executor);
+        executor.runBands(vorticityTask, height);
+        for (int edge = edges.next(0); edge >= 0; edge = edges.next(edge)) {
+            vorticityConfinement(edge - 1, edge + 1);
+        }
+    }
+
+    void clearPressure() {
+        Arrays.fill(pressureField, 0);
+    }
+
+    void copyPressure(double[] target) {
+        for (int idx = 0; idx < pressureField.length; idx++) {
+            target[idx] = pressureField[idx];
+        }
+    }
+
+    void loadPressure(double[] source) {
+        for (int idx = 0; idx < pressureField.length; idx++) {
+            pressureField[idx] = (float) source[idx];
+        }
+    }
+
+    int getPressureIterations() {
+        return pressureSystem.getIterations();
+    }
+
+    double getPressureResidual() {
+        return pressureSystem.getResidual();
+    }
+
+    // velocities wrap in x and y for interpolation and curl
+    private void refreshVelocityHalo(StepExecutor executor) {
+        executor.runBands(velocityHaloTask, height);
+        halo.copyRow(velocityHaloX, 0, height);
+        halo.copyRow(velocityHaloY, 0, height);
+        halo.copyRow(velocityHaloX, height - 1, -1);
+        halo.copyRow(velocityHaloY, height - 1, -1);
+    }
+
+    // a row's divergence is taken as soon as the rows on both sides are advected
+    private void advectionAndDivergence(int startRow, int endRow) {
+        edges.mark(startRow);
+        for (int j = startRow; j < endRow; j++) {
+            advection(j, j + 1);
+            if (j == 0) {
+                halo.copyRow(advectionX, 0, -1);
+                halo.copyRow(advectionY, 0, -1);
+            }
+            if (j - 1 >= startRow && (j - 2 >= startRow || j - 1 == 0)) {
+                divergence(j - 1, j);
+            }
+        }
+        if (endRow == height && (endRow - 2 >= startRow || endRow == 1)) {
+            divergence(endRow - 1, endRow);
+        }
+    }
+
+    // solid cells are left at zero velocity in the output, inactive tiles keep their velocity
+    private void advection(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        float[] sampleX = velocityHaloX;
+        float[] sampleY = velocityHaloY;
+        float[] outputX = advectionX;
+        float[] outputY = advectionY;
+        int stride = halo.stride;
+        float time = stepTime;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                if (!activity.isActive(start, j)) {
+                    for (int i = start; i < end; i++) {
+                        int out = (j + 1) * stride + i + 1;
+                        boolean air = types[j * width + i] == CellType.AIR;
+                        outputX[out] = air ? sampleX[out] : 0;
+                        outputY[out] = air ? sampleY[out] : 0;
+                    }
+                    continue;
+                }
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int out = (j + 1) * stride + i + 1;
+                    if (types[idx] == CellType.AIR) {
+                        float x = wrap(i * cellSize - sampleX[out] * time, width);
+                        float y = wrap(j * cellSize - sampleY[out] * time, height);
+                        // weights from the offset within the cell, float lands on whole cells too often
+                        // to divide by the distance between floor and ceil
+                        int x1 = (int) Math.floor(x);
+                        int y1 = (int) Math.floor(y);
+                        float right = x - x1;
+                        float left = 1 - right;
+                        float above = y - y1;
+                        float below = 1 - above;
+                        // the cells right of and above the last ones are the wrapped ghost cells
+                        int p11 = (y1 + 1) * stride + x1 + 1;
+                        int p21 = p11 + 1;
+                        int p12 = p11 + stride;
+                        int p22 = p12 + 1;
+                        outputX[out] = below * (left * sampleX[p11] + right * sampleX[p21])
+                                + above * (left * sampleX[p12] + right * sampleX[p22]);
+                        outputY[out] = below * (left * sampleY[p11] + right * sampleY[p21])
+                                + above * (left * sampleY[p12] + right * sampleY[p22]);
+                    } else {
+                        outputX[out] = 0;
+                        outputY[out] = 0;
+                    }
+                }
+            }
+        }
+        halo.wrapRows(outputX, startRow, endRow);
+        halo.wrapRows(outputY, startRow, endRow);
+    }
+
+    private void divergence(int startRow, int endRow) {
+        float[] inputX = advectionX;
+        float[] inputY = advectionY;
+        float[] output = divergenceField;
+        int stride = halo.stride;
+        float scale = (-2 * cellSize * density) / stepTime;
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            for (int i = 0; i < width; i++) {
+                int p = row + i;
+                output[j * width + i] = (inputY[p + stride] - inputY[p - stride] + inputX[p + 1] - inputX[p - 1]) * scale;
+            }
+        }
+    }
+
+    private void finalCalculation(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        double[] pressure = fields.getPressure();
+        float[] gradient = pressureHalo;
+        int stride = halo.stride;
+        float factor = stepTime / (2 * density * cellSize);
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                int p = (j + 1) * stride + i + 1;
+                if (types[idx] == CellType.AIR) {
+                    velocityX[idx] = advectionX[p] - factor * (gradient[p + 1] - gradient[p - 1]);
+                    velocityY[idx] = advectionY[p] - factor * (gradient[p + stride] - gradient[p - stride]);
+                    pressure[idx] = gradient[p];
+                }
+            }
+        }
+    }
+
+    private void curlAndConfinement(int startRow, int endRow) {
+        edges.mark(startRow);
+        for (int j = startRow; j < endRow; j++) {
+            curl(j, j + 1);
+            if (j - 1 >= startRow && (j - 2 >= startRow || j - 1 == 0)) {
+                vorticityConfinement(j - 1, j);
+            }
+        }
+        if (endRow == height && (endRow - 2 >= startRow || endRow == 1)) {
+            vorticityConfinement(endRow - 1, endRow);
+        }
+    }
+
+    // curl of every cell, solid or not, from the velocity halo
+    private void curl(int startRow, int endRow) {
+        float[] velocityX = velocityHaloX;
+        float[] velocityY = velocityHaloY;
+        float[] output = curlField;
+        int stride = halo.stride;
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            for (int p = row; p < row + width; p++) {
+                output[p] = velocityY[p + 1] - velocityY[p - 1] + velocityX[p + stride] - velocityX[p - stride];
+            }
+        }
+    }
+
+    // the curl comes from the velocity halo, so every cell can take its new velocity right away.
+    // Starting from the halo too, a row of a one row band that is confined twice stays right
+    private void vorticityConfinement(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        float[] sampleX = velocityHaloX;
+        float[] sampleY = velocityHaloY;
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        float[] curl = curlField;
+        int stride = halo.stride;
+        float time = stepTime;
+        for (int j = startRow; j < endRow; j++) {
+            for (int start = 0, end; start < width; start = end) {
+                end = activity.spanEnd(start);
+                if (!activity.isActive(start, j)) {
+                    continue;
+                }
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    int p = (j + 1) * stride + i + 1;
+                    if (types[idx] == CellType.AIR) {
+                        float dx = Math.abs(curl[p - stride]) - Math.abs(curl[p + stride]);
+                        float dy = Math.abs(curl[p + 1]) - Math.abs(curl[p - 1]);
+                        float len = (float) Math.sqrt((dx * dx) + (dy * dy)) + 0.00001f;
+                        dx = vorticity / len * dx;
+                        dy = vorticity / len * dy;
+                        velocityX[idx] = sampleX[p] + time * curl[p] * dx;
+                        velocityY[idx] = sampleY[p] + time * curl[p] * dy;
+                    }
+                }
+            }
+        }
+    }
+
+    // the back traced position can be any distance outside the grid
+    private static float wrap(float position, int size) {
+        while (position < 0 || position >= size) {
+            if (position < 0) {
+                position += size;
+            } else {
+                position -= size;
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,9 @@
+package com.fluidsim;
+
+// the per cell quantities held by a FieldStore
+public enum FluidField {
+    VELOCITY_X,
+    VELOCITY_Y,
+    PRESSURE,
+    TEMPERATURE
+}
@@ -14,30 +14,81 @@ public class FluidSimuation extends ApplicationAdapter {
 	Environment e;
 
 	GUIController gui;
+
+	StepExecutor executor;
+
+	StencilKernels kernels;
+
+	Precision precision;
+
+	SimulationRunner runner;
+
+	StepMetrics metrics;
+
+	TimestepController timestep;
+
+	public FluidSimuation() {
+		this(new SerialStepExecutor());
+	}
+
+	public FluidSimuation(StepExecutor executor) {
+		this(executor, new ScalarStencilKernels());
+	}
+
+	public FluidSimuation(StepExecutor executor, StencilKernels kernels) {
+		this(executor, kernels, Precision.DOUBLE);
+	}
+
+	public FluidSimuation(StepExecutor executor, StencilKernels kernels, Precision precision) {
+		// 30 steps a second, the speed the simulation always ran at
+		this(executor, kernels, precision, new SerialSimulationRunner(30));
+	}
+
+	public FluidSimuation(StepExecutor executor, StencilKernels kernels, Precision precision, SimulationRunner runner) {
+		this(executor, kernels, precision, runner, new StepMetrics());
+	}
+
+	// metrics the launcher may have set up with an allocation probe and exporters
+	public FluidSimuation(StepExecutor executor, StencilKernels kernels, Precision precision, SimulationRunner runner,
+			StepMetrics metrics) {
+		this.executor = executor;
+		this.kernels = kernels;
+		this.precision = precision;
+		this.runner = runner;
+		this.metrics = metrics;
+	}
 	
 	@Override
 	public void create () {
 		e = new Environment(200, 200);
+		e.setStepExecutor(executor);
+		e.setStencilKernels(kernels);
+		e.setPrecision(precision);
+		e.setWarmStartPressure(true);
+		e.setMetrics(metrics);
 		//e.initUniform(0, 30, 0);
 		e.initRandom();
 		e.initFloor();
 		//e.initCentralWall(20, 20);
 
-		gui = new GUIController(e);
+		// steps follow the flow, 0.03 seconds of simulation per step the runner used to take
+		timestep = new TimestepController();
+		runner.setTimestepController(timestep);
+		// the runner owns e from here on
+		runner.start(e, 0.03, 10);
+		gui = new GUIController(runner, metrics);
+		gui.setTimestepController(timestep);
 	}
 
 	@Override
 	public void render () {
-		step();
+		runner.update(Gdx.graphics.getDeltaTime());
 		gui.render();
 	}
 	
 	@Override
 	public void dispose () {
-	}
-
-	private void step() {
-
-		e.step(0.03, 10);
+		runner.dispose();
+		gui.dispose();
 	}
 }
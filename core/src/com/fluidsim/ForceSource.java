@@ -0,0 +1,91 @@
+package com.fluidsim;
+
+/**
+ * Something that pushes the air every step, registered with the ForceSources of an
+ * Environment. A source covers a rectangle of cells in grid coordinates, parts of it
+ * outside the grid are cut off, and is only asked for the rows of that rectangle.
+ * Solid cells must be left at zero velocity.
+ */
+public abstract class ForceSource {
+
+    private final int x;
+
+    private final int y;
+
+    private final int width;
+
+    private final int height;
+
+    private double strength;
+
+    // the whole grid, however large it is
+    protected ForceSource() {
+        this(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    protected ForceSource(int x, int y, int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("size must not be negative, got " + width + " x " + height);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.strength = 1;
+    }
+
+    /**
+     * Adds the force of one step to the air cells of rows startRow to endRow, grid rows the
+     * source covers. fields holds the grid from row firstRow on, so grid row j is row
+     * j - firstRow of fields, which is not always the whole grid, see SlabStep.
+     */
+    protected abstract void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time);
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getStrength() {
+        return strength;
+    }
+
+    // scales the force, 1 pushes as hard as the source was made to, e.g. to ramp it up or down
+    public void setStrength(double strength) {
+        this.strength = strength;
+    }
+
+    // first column of the source within the grid
+    protected int getStartColumn() {
+        return Math.max(0, x);
+    }
+
+    // column after the last column of the source within a grid this wide
+    protected int getEndColumn(int gridWidth) {
+        return clipEnd(x, width, gridWidth);
+    }
+
+    int getStartRow() {
+        return Math.max(0, y);
+    }
+
+    int getEndRow(int gridHeight) {
+        return clipEnd(y, height, gridHeight);
+    }
+
+    // start + length without overflowing for sources as large as the whole grid
+    private static int clipEnd(int start, int length, int size) {
+        return length >= (long) size - start ? size : start + length;
+    }
+}
@@ -0,0 +1,132 @@
+package com.fluidsim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The force sources of a grid, indexed by the rows they cover. The grid is split into
+ * buckets of BUCKET_ROWS rows and every source is listed in the buckets its rectangle
+ * overlaps, so a row band only visits the sources next to it and a source only visits
+ * its own cells. Hundreds of small emitters cost about as much as the cells they cover.
+ *
+ * Sources are applied in the order they were added. Add and remove them between steps,
+ * from the thread that steps the environment.
+ */
+public class ForceSources {
+
+    // rows per bucket of the index
+    static final int BUCKET_ROWS = 16;
+
+    private static final ForceSource[] NONE = new ForceSource[0];
+
+    private final List<ForceSource> sources;
+
+    // sources per bucket, rebuilt when the sources or the grid change
+    private ForceSource[][] buckets;
+
+    private int indexedHeight;
+
+    public ForceSources() {
+        this.sources = new ArrayList<ForceSource>();
+        this.buckets = new ForceSource[0][];
+        this.indexedHeight = -1;
+    }
+
+    public void add(ForceSource source) {
+        sources.add(source);
+        indexedHeight = -1;
+    }
+
+    // whether the source was registered
+    public boolean remove(ForceSource source) {
+        boolean removed = sources.remove(source);
+        indexedHeight = -1;
+        return removed;
+    }
+
+    // puts replacement where source was, or adds it at the end when source isn't registered
+    public void replace(ForceSource source, ForceSource replacement) {
+        int index = sources.indexOf(source);
+        if (index >= 0) {
+            sources.set(index, replacement);
+        } else {
+            sources.add(replacement);
+        }
+        indexedHeight = -1;
+    }
+
+    public boolean contains(ForceSource source) {
+        return sources.contains(source);
+    }
+
+    public void clear() {
+        sources.clear();
+        indexedHeight = -1;
+    }
+
+    public boolean isEmpty() {
+        return sources.isEmpty();
+    }
+
+    // read only, in the order the sources are applied
+    public List<ForceSource> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    // builds the index for a grid of this height if it is out of date, before the bands apply the sources
+    void prepare(int height) {
+        if (height == indexedHeight) {
+            return;
+        }
+        int count = (height + BUCKET_ROWS - 1) / BUCKET_ROWS;
+        int[] sizes = new int[count];
+        for (ForceSource source : sources) {
+            for (int b = firstBucket(source); b < lastBucket(source, height); b++) {
+                sizes[b]++;
+            }
+        }
+        ForceSource[][] index = new ForceSource[count][];
+        for (int b = 0; b < count; b++) {
+            index[b] = sizes[b] == 0 ? NONE : new ForceSource[sizes[b]];
+            sizes[b] = 0;
+        }
+        for (ForceSource source : sources) {
+            for (int b = firstBucket(source); b < lastBucket(source, height); b++) {
+                index[b][sizes[b]++] = source;
+            }
+        }
+        this.buckets = index;
+        this.indexedHeight = height;
+    }
+
+    /**
+     * Applies the sources to rows startRow to endRow of the grid, fields holds the grid from
+     * row firstRow on. Each source gets the rows it covers once per bucket, so bands that
+     * don't share rows can apply at the same time.
+     */
+    void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time) {
+        int height = indexedHeight;
+        for (int b = startRow / BUCKET_ROWS; b < buckets.length && b * BUCKET_ROWS < endRow; b++) {
+            int bucketStart = Math.max(startRow, b * BUCKET_ROWS);
+            int bucketEnd = Math.min(endRow, (b + 1) * BUCKET_ROWS);
+            for (ForceSource source : buckets[b]) {
+                int start = Math.max(bucketStart, source.getStartRow());
+                int end = Math.min(bucketEnd, source.getEndRow(height));
+                if (start < end) {
+                    source.apply(fields, firstRow, start, end, time);
+                }
+            }
+        }
+    }
+
+    private static int firstBucket(ForceSource source) {
+        return source.getStartRow() / BUCKET_ROWS;
+    }
+
+    // bucket after the last one, none for a source outside the grid
+    private static int lastBucket(ForceSource source, int height) {
+        int end = source.getEndRow(height);
+        return end <= source.getStartRow() ? 0 : (end + BUCKET_ROWS - 1) / BUCKET_ROWS;
+    }
+}
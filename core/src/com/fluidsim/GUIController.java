@@ -3,15 +3,29 @@ package com.fluidsim;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.ui.Button;
+import com.badlogic.gdx.utils.BufferUtils;
 import com.badlogic.gdx.utils.ScreenUtils;
 
+import java.nio.ByteBuffer;
+
 public class GUIController {
 
-    private Environment env;
+    private static final int WALL_COLOR = Color.rgba8888(Color.BROWN);
+
+    private SimulationRunner runner;
+
+    private SpriteBatch batch;
 
-    private ShapeRenderer shapeRenderer;
+    // the field as one texel per cell, uploaded once per frame
+    private Texture texture;
+
+    private ByteBuffer pixels;
 
     private Button buttons[];
 
@@ -22,20 +36,51 @@ public class GUIController {
     // 3 - velocity Y
     private int displayMode;
 
-    public GUIController(Environment env) {
-        this.shapeRenderer = new ShapeRenderer();
-        this.env = env;
+    private Colormap colormap;
+
+    // timings of the simulation, this controller records its render times into it
+    private StepMetrics metrics;
+
+    // M toggles the metrics overlay
+    private boolean showMetrics;
+
+    private BitmapFont font;
+
+    // the overlay text is only rebuilt a few times a second
+    private String metricsText;
+
+    private long metricsTextTime;
+
+    // shown in the overlay when the runner has one
+    private TimestepController timestep;
+
+    public GUIController(SimulationRunner runner) {
+        this(runner, new StepMetrics());
+    }
+
+    public GUIController(SimulationRunner runner, StepMetrics metrics) {
+        this.batch = new SpriteBatch();
+        this.runner = runner;
+        this.metrics = metrics;
 
         this.cellSize = 4;
-        this.displayMode = 2;
+        this.colormap = Colormap.DIVERGING;
+        setDisplayMode(2);
+    }
+
+    public void setTimestepController(TimestepController timestep) {
+        this.timestep = timestep;
     }
 
     public void render() {
+        long start = System.nanoTime();
         checkInput();
         ScreenUtils.clear(0, 0, 0, 1);
-        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
         renderCells();
-        shapeRenderer.end();
+        if (showMetrics) {
+            renderMetrics();
+        }
+        metrics.recordFrame(System.nanoTime() - start);
     }
 
     private void initButtons() {
@@ -46,114 +91,168 @@ public class GUIController {
     private void checkInput() {
         Input input = Gdx.input;
 
+        if (input.isKeyJustPressed(Input.Keys.M)) {
+            showMetrics = !showMetrics;
+        }
+
         if (input.isKeyPressed(Input.Keys.NUM_1)) {
-            displayMode = 1;
+            setDisplayMode(1);
             return;
         }
         if (input.isKeyPressed(Input.Keys.NUM_2)) {
-            displayMode = 2;
+            setDisplayMode(2);
             return;
         }
         if (input.isKeyPressed(Input.Keys.NUM_3)) {
-            displayMode = 3;
+            setDisplayMode(3);
+            return;
+        }
+        if (input.isKeyPressed(Input.Keys.NUM_4)) {
+            colormap = Colormap.DIVERGING;
+            return;
+        }
+        if (input.isKeyPressed(Input.Keys.NUM_5)) {
+            colormap = Colormap.VIRIDIS;
+            return;
+        }
+        if (input.isKeyPressed(Input.Keys.NUM_6)) {
+            colormap = Colormap.MAGMA;
+            return;
+        }
+        if (input.isKeyPressed(Input.Keys.NUM_7)) {
+            colormap = Colormap.GREYSCALE;
             return;
         }
     }
 
+    // only the displayed field needs statistics for its colour range
+    private void setDisplayMode(int displayMode) {
+        this.displayMode = displayMode;
+        runner.setStatisticsEnabled(FluidField.PRESSURE, displayMode == 1);
+        runner.setStatisticsEnabled(FluidField.VELOCITY_X, displayMode == 2);
+        runner.setStatisticsEnabled(FluidField.VELOCITY_Y, displayMode == 3);
+        runner.setStatisticsEnabled(FluidField.TEMPERATURE, false);
+    }
+
+    // colours the latest complete snapshot into the pixel buffer, row 0 of the texture is the top row
     private void renderCells() {
-        int width = env.getWidth();
-        int height = env.getHeight();
-
-        for(int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-
-                Cell c = env.getCell(i, j);
-                Color color = new Color(Color.PINK);
-
-                if (c instanceof AirCell) {
-                    AirCell ac = (AirCell) c;
-                    switch(displayMode) {
-                        case 1: {
-                            color = getPressureColor(ac);
-                            break;
-                        }
-                        case 2: {
-                            color = getVelocityXColor(ac);
-                            break;
-                        }
-                        case 3: {
-                            color = getVelocityYColor(ac);
-                            break;
-                        }
-                        default: {
-                            color = getVelocityXColor(ac);
-                            displayMode = 2;
-                            break;
-                        }
-                    }
-                } else if(c instanceof WallCell) {
-                    color = new Color(Color.BROWN);
-                }
-                shapeRenderer.setColor(color);
-                shapeRenderer.rect(i * cellSize, j * cellSize, cellSize, cellSize);
-            }
+        FieldSnapshot snapshot = runner.getSnapshot();
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        FieldStatistics stats = snapshot.getStatistics();
+        ensureTexture(width, height);
+
+        double[] values;
+        FluidField field;
+        switch (displayMode) {
+            case 1:
+                values = snapshot.getPressure();
+                field = FluidField.PRESSURE;
+                break;
+            case 3:
+                values = snapshot.getVelocityY();
+                field = FluidField.VELOCITY_Y;
+                break;
+            default:
+                values = snapshot.getVelocityX();
+                field = FluidField.VELOCITY_X;
+                break;
         }
-    }
+        // the colour range is symmetric around zero, the larger of |min| and |max| maps to the ends
+        int[] table = colormap.getTable();
+        double min = stats.getMin(field);
+        double max = stats.getMax(field);
+        double top = Math.max(Math.abs(min), Math.abs(max));
+        double scale = min > max || top == 0 ? 0 : (Colormap.SIZE - 1) / (2 * top);
+        double offset = (Colormap.SIZE - 1) / 2.0 + 0.5;
 
-    private Color getVelocityXColor(AirCell ac) {
-        double v = ac.getVelocityX();
-        double minV = env.getMinVelocityX();
-        double maxV = env.getMaxVelocityX();
-        double grad = normalizeColorGradient(v, minV, maxV);
-        Color color = normalizedColor(grad);
-        return color;
-    }
+        for (int j = 0; j < height; j++) {
+            int pixel = (height - 1 - j) * width * 4;
+            for (int i = 0; i < width; i++) {
+                int idx = snapshot.index(i, j);
+                int entry = Math.min(Colormap.SIZE - 1, Math.max(0, (int) (values[idx] * scale + offset)));
+                int rgba = snapshot.isAir(idx) ? table[entry] : WALL_COLOR;
+                pixels.put(pixel++, (byte) (rgba >>> 24));
+                pixels.put(pixel++, (byte) (rgba >>> 16));
+                pixels.put(pixel++, (byte) (rgba >>> 8));
+                pixels.put(pixel++, (byte) rgba);
+            }
+        }
 
-    private Color getVelocityYColor(AirCell ac) {
-        double v = ac.getVelocityY();
-        double minV = env.getMinVelocityY();
-        double maxV = env.getMaxVelocityY();
-        double grad = normalizeColorGradient(v, minV, maxV);
-        Color color = normalizedColor(grad);
-        return color;
+        texture.bind();
+        Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+        Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, 0, width, height, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixels);
+        batch.begin();
+        batch.draw(texture, 0, 0, width * cellSize, height * cellSize);
+        batch.end();
     }
 
-    private Color getPressureColor(AirCell ac) {
-        double v = ac.getPressure();
-        double minV = env.getMinPressure();
-        double maxV = env.getMaxPressure();
-        double grad = normalizeColorGradient(v, minV, maxV);
-        Color color = normalizedColor(grad);
-        return color;
+    // one texel per cell, reallocated only when the grid size changes
+    private void ensureTexture(int width, int height) {
+        if (texture != null && texture.getWidth() == width && texture.getHeight() == height) {
+            return;
+        }
+        if (texture != null) {
+            texture.dispose();
+        }
+        this.texture = new Texture(width, height, Pixmap.Format.RGBA8888);
+        texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+        this.pixels = BufferUtils.newByteBuffer(width * height * 4);
     }
 
-    // returns a value between -1 and 1 proportional to the inputs position in the range between the min and max values
-    private double normalizeColorGradient(double value, double min, double max) {
-        if (min > max) {
-            return 0;
+    // p50 and p99 of the recent steps, their phases and frames in the top left corner
+    private void renderMetrics() {
+        long now = System.nanoTime();
+        if (metricsText == null || now - metricsTextTime > 250000000L) {
+            metricsText = describeMetrics(metrics.summarize(256), timestep);
+            metricsTextTime = now;
         }
-        if (value > max) {
-            return 1;
+        if (font == null) {
+            this.font = new BitmapFont();
         }
-        if (value < min) {
-            return -1;
+        batch.begin();
+        font.draw(batch, metricsText, 10, Gdx.graphics.getHeight() - 10);
+        batch.end();
+    }
+
+    // plain concatenation, String.format is not available to the html backend
+    private static String describeMetrics(MetricsSummary summary, TimestepController timestep) {
+        StringBuilder text = new StringBuilder();
+        text.append("step  p50 ").append(millis(summary.getStepP50())).append("  p99 ")
+                .append(millis(summary.getStepP99())).append("  (").append(summary.getSteps()).append(" steps)\n");
+        for (int t = 0; t < StepMetrics.TIMERS; t++) {
+            text.append("  ").append(StepMetrics.timerName(t).toLowerCase()).append("  ")
+                    .append(millis(summary.getTimerP50(t))).append(" / ").append(millis(summary.getTimerP99(t)))
+                    .append('\n');
         }
-        double top;
-        if (Math.abs(min) < Math.abs(max)) {
-            top = Math.abs(max);
-        } else {
-            top = Math.abs(min);
+        text.append("pressure  ").append(Math.round(summary.getMeanIterations() * 10) / 10.0)
+                .append(" iterations, residual ").append((float) summary.getLastResidual()).append('\n');
+        long allocated = summary.getAllocatedBytesPerStep();
+        text.append(allocated < 0 ? "allocated  unknown" : "allocated  " + allocated + " B/step").append('\n');
+        text.append(Math.round(summary.getCellsPerSecond() / 1e5) / 10.0).append(" Mcells/s, ")
+                .append(Math.round(100 * summary.getActiveFraction())).append("% tiles active\n");
+        if (timestep != null) {
+            text.append("dt  ").append(Math.round(timestep.getLastTime() * 1e5) / 100.0).append(" ms x ")
+                    .append(timestep.getLastSubsteps()).append(", max velocity ")
+                    .append(Math.round(timestep.getMaxVelocity() * 10) / 10.0).append('\n');
         }
-        return value / top;
+        text.append("render  p50 ").append(millis(summary.getFrameP50())).append("  p99 ")
+                .append(millis(summary.getFrameP99()));
+        return text.toString();
     }
 
-    private Color normalizedColor(double value) {
-        Color color;
-        if (value > 0) {
-            color = new Color((float) value, 0, 0 ,1);
-        } else {
-            color = new Color(0, 0, Math.abs((float) value),1);
+    // to a hundredth of a millisecond
+    private static String millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0 + " ms";
+    }
+
+    public void dispose() {
+        batch.dispose();
+        if (font != null) {
+            font.dispose();
+        }
+        if (texture != null) {
+            texture.dispose();
         }
-        return color;
     }
 }
@@ -0,0 +1,28 @@
+package com.fluidsim;
+
+// pulls every air cell down, e.g. new GravitySource(env.getGravity())
+public class GravitySource extends ForceSource {
+
+    private final double acceleration;
+
+    public GravitySource(double acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    @Override
+    protected void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityY = fields.getVelocityY();
+        int width = fields.getWidth();
+        double pull = acceleration * getStrength() * time;
+        for (int idx = (startRow - firstRow) * width; idx < (endRow - firstRow) * width; idx++) {
+            if (types[idx] == CellType.AIR) {
+                velocityY[idx] -= pull;
+            }
+        }
+    }
+
+    public double getAcceleration() {
+        return acceleration;
+    }
+}
@@ -0,0 +1,111 @@
+package com.fluidsim;
+
+/**
+ * Layout of a field padded with one ring of ghost cells. The cell at (x, y) lives at
+ * index (y + 1) * stride + x + 1, so x and y may range from -1 to width and height.
+ * Stencils read their neighbours from the ghost cells instead of wrapping or clamping
+ * coordinates, what the ghost cells hold is up to the owner of the field.
+ */
+class HaloGrid {
+
+    final int width;
+
+    final int height;
+
+    // distance between two rows of the padded field
+    final int stride;
+
+    HaloGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 2;
+    }
+
+    double[] allocate() {
+        return new double[stride * (height + 2)];
+    }
+
+    float[] allocateFloat() {
+        return new float[stride * (height + 2)];
+    }
+
+    int index(int x, int y) {
+        return (y + 1) * stride + x + 1;
+    }
+
+    // copies the rows of an unpadded row-major field and wraps them in x
+    void copyRows(double[] source, double[] padded, int startRow, int endRow) {
+        copyRows(source, 0, padded, 1, startRow, endRow);
+    }
+
+    // the same for a source whose row 0 starts at sourceStart, into a field of this width
+    // padded with depth ghost rows
+    void copyRows(double[] source, int sourceStart, double[] padded, int depth, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + depth) * stride + 1;
+            System.arraycopy(source, sourceStart + j * width, padded, row, width);
+            padded[row - 1] = padded[row + width - 1];
+            padded[row + width] = padded[row];
+        }
+    }
+
+    // fills the ghost columns of the rows from the opposite edge
+    void wrapRows(double[] padded, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int row = index(0, j);
+            padded[row - 1] = padded[row + width - 1];
+            padded[row + width] = padded[row];
+        }
+    }
+
+    // copies a whole padded row including its ghost columns, used for the ghost rows
+    void copyRow(double[] padded, int fromRow, int toRow) {
+        System.arraycopy(padded, index(-1, fromRow), padded, index(-1, toRow), stride);
+    }
+
+    void fillRow(double[] padded, int row, double value) {
+        int start = index(-1, row);
+        for (int idx = start; idx < start + stride; idx++) {
+            padded[idx] = value;
+        }
+    }
+
+    // single precision copies of the above
+
+    void copyRows(double[] source, float[] padded, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int from = j * width;
+            int to = index(0, j);
+            for (int i = 0; i < width; i++) {
+                padded[to + i] = (float) source[from + i];
+            }
+        }
+        wrapRows(padded, startRow, endRow);
+    }
+
+    void copyRows(float[] source, float[] padded, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            System.arraycopy(source, j * width, padded, index(0, j), width);
+        }
+        wrapRows(padded, startRow, endRow);
+    }
+
+    void wrapRows(float[] padded, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int row = index(0, j);
+            padded[row - 1] = padded[row + width - 1];
+            padded[row + width] = padded[row];
+        }
+    }
+
+    void copyRow(float[] padded, int fromRow, int toRow) {
+        System.arraycopy(padded, index(-1, fromRow), padded, index(-1, toRow), stride);
+    }
+
+    void fillRow(float[] padded, int row, float value) {
+        int start = index(-1, row);
+        for (int idx = start; idx < start + stride; idx++) {
+            padded[idx] = value;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.fluidsim;
+
+/**
+ * Jacobi relaxation, every sweep reads the previous iterate and writes a new one.
+ * The residual of the previous iterate falls out of the sweep for free, so checking
+ * the tolerance costs nothing.
+ *
+ * Every sweep only moves part of the way to the plain Jacobi value. When the width is even
+ * the sub-lattices have an even number of columns, and plain Jacobi flips the sign of their
+ * checkerboard without ever shrinking it, so the residual stalls. Damping shrinks it, and
+ * speeds up odd widths as well.
+ *
+ * Several sweeps can be worked through in one pass over the grid. The stencil reaches two
+ * rows up and down, so sweep t can relax a row as soon as sweep t - 1 has done the row two
+ * above it, and writing it into the iterate of sweep t - 2 is safe by then. Every band runs
+ * the sweeps as a wavefront two rows apart, and only the rows a wavefront can't reach
+ * without the neighbouring band, a wedge around every split, are relaxed afterwards. The
+ * rows of all sweeps stream through the cache once per pass instead of once per sweep, the
+ * results are the same bit for bit. The tolerance is checked once per pass.
+ *
+ * The system of a slab gets the ghost rows of its iterate from the slabs around before
+ * every sweep, so it always sweeps once per pass.
+ */
+public class JacobiSolver extends PressureSolver {
+
+    static final double DEFAULT_WEIGHT = 0.9;
+
+    private double[] temp;
+
+    // squared residual of every row, per sweep of the pass
+    private double[] rowResidual;
+
+    private PressureSystem system;
+
+    // iterates of the pass, sweep t reads buffers[(t - 1) % 2] and writes buffers[t % 2]
+    private final double[][] buffers = new double[2][];
+
+    private int sweepsPerPass;
+
+    private double weight;
+
+    // sweeps of the current pass
+    private int sweeps;
+
+    private BandEdges edges;
+
+    private final RowBandTask sweepTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            sweep(startRow, endRow);
+        }
+    };
+
+    public JacobiSolver() {
+        this.sweepsPerPass = 1;
+        this.weight = DEFAULT_WEIGHT;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    // part of the way to the plain Jacobi value every sweep moves, 1 is plain Jacobi
+    public void setWeight(double weight) {
+        if (!(weight > 0 && weight <= 1)) {
+            throw new IllegalArgumentException("weight must be in (0, 1], got " + weight);
+        }
+        this.weight = weight;
+    }
+
+    public int getSweepsPerPass() {
+        return sweepsPerPass;
+    }
+
+    /**
+     * Sweeps done per pass over the grid. Worth it once the grid is larger than the cache,
+     * each band must be at least four rows per sweep high, fewer sweeps run where it isn't.
+     */
+    public void setSweepsPerPass(int sweepsPerPass) {
+        if (sweepsPerPass < 1) {
+            throw new IllegalArgumentException("sweeps per pass must be at least 1, got " + sweepsPerPass);
+        }
+        this.sweepsPerPass = sweepsPerPass;
+    }
+
+    @Override
+    public void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor) {
+        int height = system.getHeight();
+        if (temp == null || temp.length != system.getSize() || rowResidual.length != height * sweepsPerPass) {
+            temp = new double[system.getSize()];
+            rowResidual = new double[height * sweepsPerPass];
+            edges = new BandEdges(height);
+        }
+        double norm = system.getRhsNorm();
+        if (norm == 0) {
+            report(0, 0);
+            return;
+        }
+        this.system = system;
+        // every band must be four rows per sweep high, the executors in this tree split the
+        // rows into bands of at least height / parallelism
+        int parallelism = executor.getParallelism();
+        int reach = parallelism > 1 ? Math.max(1, height / parallelism / 4) : sweepsPerPass;
+        if (system.hasGhostRows()) {
+            reach = 1;
+        }
+        double[] current = pressure;
+        double[] next = temp;
+        double residual = Double.POSITIVE_INFINITY;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            this.sweeps = Math.min(Math.min(sweepsPerPass, reach), maxIterations - iterations);
+            buffers[0] = current;
+            buffers[1] = next;
+            system.exchangeGhostRows(current);
+            executor.runBands(sweepTask, height);
+            for (int edge = edges.next(0); edge >= 0; edge = edges.next(edge)) {
+                for (int t = 2; t <= sweeps; t++) {
+                    int end = Math.min(height, edge + 2 * (t - 1));
+                    for (int j = Math.max(0, edge - 2 * (t - 1)); j < end; j++) {
+                        relax(t, j);
+                    }
+                }
+            }
+            // the residual of the iterate the last sweep started from
+            residual = Math.sqrt(system.sumRows(rowResidual, (sweeps - 1) * height)) / norm;
+            current = buffers[sweeps % 2];
+            next = buffers[(sweeps + 1) % 2];
+            iterations += sweeps;
+            if (residual <= getTolerance()) {
+                break;
+            }
+        }
+        if (current != pressure) {
+            System.arraycopy(current, 0, pressure, 0, pressure.length);
+        }
+        this.system = null;
+        buffers[0] = null;
+        buffers[1] = null;
+        report(iterations, residual);
+    }
+
+    @Override
+    public String getName() {
+        return "jacobi";
+    }
+
+    // sweep t covers the band less 2 (t - 1) rows on every side that touches another band
+    private void sweep(int startRow, int endRow) {
+        edges.mark(startRow);
+        int height = system.getHeight();
+        int sweeps = this.sweeps;
+        for (int front = startRow; front < endRow + 2 * (sweeps - 1); front++) {
+            for (int t = 1; t <= sweeps; t++) {
+                int j = front - 2 * (t - 1);
+                int low = startRow == 0 ? 0 : startRow + 2 * (t - 1);
+                int high = endRow == height ? height : endRow - 2 * (t - 1);
+                if (j >= low && j < high) {
+                    relax(t, j);
+                }
+            }
+        }
+    }
+
+    private void relax(int t, int j) {
+        rowResidual[(t - 1) * system.getHeight() + j] =
+                system.getKernels().jacobiRow(system, buffers[(t - 1) % 2], buffers[t % 2], weight, j);
+    }
+}
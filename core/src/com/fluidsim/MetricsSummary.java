@@ -0,0 +1,210 @@
+package com.fluidsim;
+
+import java.util.Arrays;
+
+/**
+ * What StepMetrics recorded over a window of recent steps and frames. Times are in
+ * nanoseconds, percentiles are nearest rank. Timers are indexed like StepMetrics.TIMERS,
+ * the phases of the step in order and then the statistics collection.
+ */
+public final class MetricsSummary {
+
+    private final long steps;
+
+    private final int window;
+
+    private final long[] timerP50;
+
+    private final long[] timerP99;
+
+    private final double[] timerMean;
+
+    private final long stepP50;
+
+    private final long stepP99;
+
+    private final long stepMax;
+
+    private final double stepMean;
+
+    private final double meanIterations;
+
+    private final double lastResidual;
+
+    private final long allocatedBytesPerStep;
+
+    private final double cellsPerSecond;
+
+    private final double activeFraction;
+
+    private final long frames;
+
+    private final long frameP50;
+
+    private final long frameP99;
+
+    MetricsSummary(long steps, int window, long[][] timers, long[] totals, double meanIterations, double lastResidual,
+            long allocatedBytesPerStep, double cellsPerSecond, double activeFraction, long frames, long[] frameTimes) {
+        this.steps = steps;
+        this.window = window;
+        this.timerP50 = new long[timers.length];
+        this.timerP99 = new long[timers.length];
+        this.timerMean = new double[timers.length];
+        for (int t = 0; t < timers.length; t++) {
+            timerMean[t] = mean(timers[t]);
+            Arrays.sort(timers[t]);
+            timerP50[t] = percentile(timers[t], 50);
+            timerP99[t] = percentile(timers[t], 99);
+        }
+        this.stepMean = mean(totals);
+        Arrays.sort(totals);
+        this.stepP50 = percentile(totals, 50);
+        this.stepP99 = percentile(totals, 99);
+        this.stepMax = totals.length == 0 ? 0 : totals[totals.length - 1];
+        this.meanIterations = meanIterations;
+        this.lastResidual = lastResidual;
+        this.allocatedBytesPerStep = allocatedBytesPerStep;
+        this.cellsPerSecond = cellsPerSecond;
+        this.activeFraction = activeFraction;
+        this.frames = frames;
+        Arrays.sort(frameTimes);
+        this.frameP50 = percentile(frameTimes, 50);
+        this.frameP99 = percentile(frameTimes, 99);
+    }
+
+    // steps recorded in total, not only in the window
+    public long getSteps() {
+        return steps;
+    }
+
+    // steps the summary covers
+    public int getWindow() {
+        return window;
+    }
+
+    public long getTimerP50(int timer) {
+        return timerP50[timer];
+    }
+
+    public long getTimerP99(int timer) {
+        return timerP99[timer];
+    }
+
+    public double getTimerMean(int timer) {
+        return timerMean[timer];
+    }
+
+    public long getPhaseP50(StepPhase phase) {
+        return timerP50[phase.ordinal()];
+    }
+
+    public long getPhaseP99(StepPhase phase) {
+        return timerP99[phase.ordinal()];
+    }
+
+    public long getStepP50() {
+        return stepP50;
+    }
+
+    public long getStepP99() {
+        return stepP99;
+    }
+
+    public long getStepMax() {
+        return stepMax;
+    }
+
+    public double getStepMean() {
+        return stepMean;
+    }
+
+    public double getMeanIterations() {
+        return meanIterations;
+    }
+
+    // relative residual of the pressure solve of the newest step
+    public double getLastResidual() {
+        return lastResidual;
+    }
+
+    // -1 when no allocation probe was set for every step of the window
+    public long getAllocatedBytesPerStep() {
+        return allocatedBytesPerStep;
+    }
+
+    // cells stepped per second of step time, not counting the time between steps
+    public double getCellsPerSecond() {
+        return cellsPerSecond;
+    }
+
+    // mean share of tiles sparse stepping advected, 1 without sparse stepping
+    public double getActiveFraction() {
+        return activeFraction;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getFrameP50() {
+        return frameP50;
+    }
+
+    public long getFrameP99() {
+        return frameP99;
+    }
+
+    // timer with the largest mean, -1 without steps
+    public int getSlowestTimer() {
+        if (window == 0) {
+            return -1;
+        }
+        int slowest = 0;
+        for (int t = 1; t < timerMean.length; t++) {
+            if (timerMean[t] > timerMean[slowest]) {
+                slowest = t;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * The timer whose median grew the most relative to the same timer of a baseline summary,
+     * e.g. one taken before a change. -1 when no timer got slower or either has no steps.
+     */
+    public int getRegressedTimer(MetricsSummary baseline) {
+        if (window == 0 || baseline.window == 0) {
+            return -1;
+        }
+        int regressed = -1;
+        double worst = 1;
+        for (int t = 0; t < timerP50.length; t++) {
+            double ratio = timerP50[t] / (double) Math.max(1, baseline.timerP50[t]);
+            if (ratio > worst) {
+                worst = ratio;
+                regressed = t;
+            }
+        }
+        return regressed;
+    }
+
+    private static double mean(long[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    // nearest rank of sorted values, 0 when there are none
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,196 @@
+package com.fluidsim;
+
+/**
+ * One grid of a multigrid hierarchy. A five point Laplacian, periodic in x and with Neumann
+ * rows at the top and bottom, discretised on cells whose widths and heights are the sums of
+ * the finer cells they cover. The finest level of a sub-lattice has unit cells.
+ */
+class MultigridLevel {
+
+    final int nx;
+
+    final int ny;
+
+    // coarsening factors from the finer level, 1 when that direction was not coarsened
+    final int factorX;
+
+    final int factorY;
+
+    final double[] west;
+
+    final double[] east;
+
+    final double[] south;
+
+    final double[] north;
+
+    final double[] diagonal;
+
+    final double[] solution;
+
+    final double[] rhs;
+
+    final double[] residual;
+
+    // total width of every column and height of every row in finest cells
+    final double[] columnWidth;
+
+    final double[] rowHeight;
+
+    MultigridLevel(int nx, int ny) {
+        this(nx, ny, 1, 1, ones(nx), ones(ny));
+    }
+
+    private MultigridLevel(int nx, int ny, int factorX, int factorY, double[] columnWidth, double[] rowHeight) {
+        this.nx = nx;
+        this.ny = ny;
+        this.factorX = factorX;
+        this.factorY = factorY;
+        this.columnWidth = columnWidth;
+        this.rowHeight = rowHeight;
+        int size = nx * ny;
+        this.west = new double[size];
+        this.east = new double[size];
+        this.south = new double[size];
+        this.north = new double[size];
+        this.diagonal = new double[size];
+        this.solution = new double[size];
+        this.rhs = new double[size];
+        this.residual = new double[size];
+        discretise();
+    }
+
+    boolean canCoarsen() {
+        return nx > 1 || ny > 1;
+    }
+
+    // halves the direction whose cells are not already much longer than the other one
+    MultigridLevel coarsen() {
+        double meanWidth = 0;
+        for (int x = 0; x < nx; x++) {
+            meanWidth += columnWidth[x] / nx;
+        }
+        double meanHeight = 0;
+        for (int y = 0; y < ny; y++) {
+            meanHeight += rowHeight[y] / ny;
+        }
+        int fx = nx > 1 && meanWidth <= 2 * meanHeight ? 2 : 1;
+        int fy = ny > 1 && meanHeight <= 2 * meanWidth ? 2 : 1;
+        if (fx == 1 && fy == 1) {
+            if (nx > 1) {
+                fx = 2;
+            } else {
+                fy = 2;
+            }
+        }
+        int coarseX = (nx + fx - 1) / fx;
+        int coarseY = (ny + fy - 1) / fy;
+        double[] widths = new double[coarseX];
+        for (int x = 0; x < nx; x++) {
+            widths[x / fx] += columnWidth[x];
+        }
+        double[] heights = new double[coarseY];
+        for (int y = 0; y < ny; y++) {
+            heights[y / fy] += rowHeight[y];
+        }
+        return new MultigridLevel(coarseX, coarseY, fx, fy, widths, heights);
+    }
+
+    // sum of the weighted neighbours of (x, y) in the given field
+    double neighbourSum(double[] field, int x, int y) {
+        int row = y * nx;
+        int idx = row + x;
+        int left = x == 0 ? nx - 1 : x - 1;
+        int right = x == nx - 1 ? 0 : x + 1;
+        double sum = west[idx] * field[row + left] + east[idx] * field[row + right];
+        if (y > 0) {
+            sum += south[idx] * field[idx - nx];
+        }
+        if (y < ny - 1) {
+            sum += north[idx] * field[idx + nx];
+        }
+        return sum;
+    }
+
+    // one colour of a red-black Gauss-Seidel sweep over the rows [startRow, endRow)
+    void smooth(int colour, int startRow, int endRow) {
+        for (int y = startRow; y < endRow; y++) {
+            for (int x = (y + colour) & 1; x < nx; x += 2) {
+                int idx = y * nx + x;
+                if (diagonal[idx] > 0) {
+                    solution[idx] = (rhs[idx] + neighbourSum(solution, x, y)) / diagonal[idx];
+                }
+            }
+        }
+    }
+
+    // residual = rhs - A solution, returns the squared norm of the rows
+    double computeResidual(int startRow, int endRow) {
+        double norm = 0;
+        for (int y = startRow; y < endRow; y++) {
+            for (int x = 0; x < nx; x++) {
+                int idx = y * nx + x;
+                double r = rhs[idx] - (diagonal[idx] * solution[idx] - neighbourSum(solution, x, y));
+                residual[idx] = r;
+                norm += r * r;
+            }
+        }
+        return norm;
+    }
+
+    // coarse rhs = sum of the fine residuals covered by each coarse cell, on coarse rows
+    void restrictFrom(MultigridLevel fine, int startRow, int endRow) {
+        for (int y = startRow; y < endRow; y++) {
+            for (int x = 0; x < nx; x++) {
+                solution[y * nx + x] = 0;
+                rhs[y * nx + x] = 0;
+            }
+            int fineEnd = Math.min((y + 1) * factorY, fine.ny);
+            for (int fy = y * factorY; fy < fineEnd; fy++) {
+                for (int fx = 0; fx < fine.nx; fx++) {
+                    rhs[y * nx + fx / factorX] += fine.residual[fy * fine.nx + fx];
+                }
+            }
+        }
+    }
+
+    // adds the coarse correction to every fine cell it covers, on fine rows
+    void prolongTo(MultigridLevel fine, int startRow, int endRow) {
+        for (int fy = startRow; fy < endRow; fy++) {
+            int row = (fy / factorY) * nx;
+            for (int fx = 0; fx < fine.nx; fx++) {
+                fine.solution[fy * fine.nx + fx] += solution[row + fx / factorX];
+            }
+        }
+    }
+
+    // finite volume weights, face length over the distance between the cell centres
+    private void discretise() {
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                int idx = y * nx + x;
+                if (nx > 1) {
+                    int left = x == 0 ? nx - 1 : x - 1;
+                    int right = x == nx - 1 ? 0 : x + 1;
+                    west[idx] = 2 * rowHeight[y] / (columnWidth[x] + columnWidth[left]);
+                    east[idx] = 2 * rowHeight[y] / (columnWidth[x] + columnWidth[right]);
+                }
+                if (y > 0) {
+                    south[idx] = 2 * columnWidth[x] / (rowHeight[y] + rowHeight[y - 1]);
+                }
+                if (y < ny - 1) {
+                    north[idx] = 2 * columnWidth[x] / (rowHeight[y] + rowHeight[y + 1]);
+                }
+                diagonal[idx] = west[idx] + east[idx] + south[idx] + north[idx];
+            }
+        }
+    }
+
+    private static double[] ones(int n) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = 1;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,329 @@
+package com.fluidsim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geometric multigrid for large grids. The stride two stencil of the PressureSystem splits
+ * the grid into independent sub-lattices, each one an ordinary five point problem with the
+ * same periodic x and Neumann top and bottom rows. Every sub-lattice is gathered into a
+ * compact grid with its own preallocated hierarchy, coarsened until a handful of cells is
+ * left. Restriction sums the residual of the covered cells, prolongation adds the coarse
+ * correction back to them, and the coarse operators are rediscretised on the merged cells.
+ * One iteration is one V or F cycle on every sub-lattice.
+ */
+public class MultigridSolver extends PressureSolver {
+
+    public enum Cycle {
+        V,
+        F
+    }
+
+    // levels smaller than this are not worth handing to the executor
+    private static final int PARALLEL_CELLS = 4096;
+
+    private static final int COARSEST_CELLS = 16;
+
+    private Cycle cycle;
+
+    private int preSmoothing;
+
+    private int postSmoothing;
+
+    private int builtWidth;
+
+    private int builtHeight;
+
+    private SubLattice[] subLattices;
+
+    private double[] rowResidual;
+
+    // state shared with the row band phases
+    private PressureSystem system;
+
+    private double[] pressure;
+
+    private SubLattice activeLattice;
+
+    private MultigridLevel activeLevel;
+
+    private MultigridLevel activeFine;
+
+    private int activeColour;
+
+    private final RowBandTask gatherTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            activeLattice.gather(system.getRhs(), pressure, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask scatterTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            activeLattice.scatter(pressure, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask smoothTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            activeLevel.smooth(activeColour, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask residualTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            MultigridLevel level = activeLevel;
+            for (int y = startRow; y < endRow; y++) {
+                rowResidual[y] = level.computeResidual(y, y + 1);
+            }
+        }
+    };
+
+    private final RowBandTask restrictTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            activeLevel.restrictFrom(activeFine, startRow, endRow);
+        }
+    };
+
+    private final RowBandTask prolongTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            activeLevel.prolongTo(activeFine, startRow, endRow);
+        }
+    };
+
+    public MultigridSolver() {
+        this(Cycle.V);
+    }
+
+    public MultigridSolver(Cycle cycle) {
+        this.cycle = cycle;
+        this.preSmoothing = 2;
+        this.postSmoothing = 2;
+    }
+
+    public Cycle getCycle() {
+        return cycle;
+    }
+
+    public void setCycle(Cycle cycle) {
+        this.cycle = cycle;
+    }
+
+    // red-black sweeps before and after every coarse grid correction
+    public void setSmoothing(int preSmoothing, int postSmoothing) {
+        this.preSmoothing = preSmoothing;
+        this.postSmoothing = postSmoothing;
+    }
+
+    @Override
+    public void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor) {
+        if (subLattices == null || builtWidth != system.getWidth() || builtHeight != system.getHeight()) {
+            build(system.getWidth(), system.getHeight());
+        }
+        double norm = system.getRhsNorm();
+        if (norm == 0) {
+            report(0, 0);
+            return;
+        }
+        this.system = system;
+        this.pressure = pressure;
+        for (SubLattice lattice : subLattices) {
+            activeLattice = lattice;
+            activeLevel = lattice.levels[0];
+            run(gatherTask, lattice.levels[0].ny, executor);
+        }
+        double residual = residual(executor) / norm;
+        int iterations = 0;
+        while (iterations < maxIterations && residual > getTolerance()) {
+            for (SubLattice lattice : subLattices) {
+                if (cycle == Cycle.F) {
+                    fCycle(lattice.levels, 0, executor);
+                } else {
+                    vCycle(lattice.levels, 0, executor);
+                }
+            }
+            iterations++;
+            residual = residual(executor) / norm;
+        }
+        for (SubLattice lattice : subLattices) {
+            activeLattice = lattice;
+            activeLevel = lattice.levels[0];
+            run(scatterTask, lattice.levels[0].ny, executor);
+        }
+        this.system = null;
+        this.pressure = null;
+        this.activeLattice = null;
+        this.activeLevel = null;
+        this.activeFine = null;
+        report(iterations, residual);
+    }
+
+    @Override
+    public String getName() {
+        return cycle == Cycle.F ? "multigrid-f" : "multigrid-v";
+    }
+
+    // number of levels in the hierarchy of the largest sub-lattice, 0 before the first solve
+    public int getLevelCount() {
+        int count = 0;
+        if (subLattices != null) {
+            for (SubLattice lattice : subLattices) {
+                count = Math.max(count, lattice.levels.length);
+            }
+        }
+        return count;
+    }
+
+    private void build(int width, int height) {
+        int xClasses = width % 2 == 0 ? 2 : 1;
+        int yClasses = height > 1 ? 2 : 1;
+        subLattices = new SubLattice[xClasses * yClasses];
+        int maxRows = 1;
+        for (int yc = 0; yc < yClasses; yc++) {
+            for (int xc = 0; xc < xClasses; xc++) {
+                SubLattice lattice = new SubLattice(width, height, xc, yc, width / xClasses);
+                subLattices[yc * xClasses + xc] = lattice;
+                maxRows = Math.max(maxRows, lattice.levels[0].ny);
+            }
+        }
+        rowResidual = new double[maxRows];
+        builtWidth = width;
+        builtHeight = height;
+    }
+
+    // euclidean norm of the residual over all sub-lattices, fills the finest residual fields
+    private double residual(StepExecutor executor) {
+        double norm = 0;
+        for (SubLattice lattice : subLattices) {
+            MultigridLevel finest = lattice.levels[0];
+            activeLevel = finest;
+            run(residualTask, finest.ny, executor);
+            norm += sumRows(rowResidual, finest.ny);
+        }
+        return Math.sqrt(norm);
+    }
+
+    private void vCycle(MultigridLevel[] levels, int depth, StepExecutor executor) {
+        MultigridLevel level = levels[depth];
+        if (depth == levels.length - 1) {
+            solveCoarsest(level, executor);
+            return;
+        }
+        smooth(level, preSmoothing, executor);
+        correct(levels, depth, executor, false);
+        smooth(level, postSmoothing, executor);
+    }
+
+    // an F cycle recurses with an F cycle and then a V cycle on the coarse grid
+    private void fCycle(MultigridLevel[] levels, int depth, StepExecutor executor) {
+        MultigridLevel level = levels[depth];
+        if (depth == levels.length - 1) {
+            solveCoarsest(level, executor);
+            return;
+        }
+        smooth(level, preSmoothing, executor);
+        correct(levels, depth, executor, true);
+        smooth(level, postSmoothing, executor);
+    }
+
+    private void correct(MultigridLevel[] levels, int depth, StepExecutor executor, boolean fCycle) {
+        MultigridLevel fine = levels[depth];
+        MultigridLevel coarse = levels[depth + 1];
+        activeLevel = fine;
+        run(residualTask, fine.ny, executor);
+        activeLevel = coarse;
+        activeFine = fine;
+        run(restrictTask, coarse.ny, executor);
+        if (fCycle) {
+            fCycle(levels, depth + 1, executor);
+            vCycle(levels, depth + 1, executor);
+        } else {
+            vCycle(levels, depth + 1, executor);
+        }
+        activeLevel = coarse;
+        activeFine = fine;
+        run(prolongTask, fine.ny, executor);
+    }
+
+    private void smooth(MultigridLevel level, int sweeps, StepExecutor executor) {
+        activeLevel = level;
+        for (int s = 0; s < sweeps; s++) {
+            activeColour = 0;
+            run(smoothTask, level.ny, executor);
+            activeColour = 1;
+            run(smoothTask, level.ny, executor);
+        }
+    }
+
+    // gauss-seidel converges in about n squared sweeps on a line of n cells
+    private void solveCoarsest(MultigridLevel level, StepExecutor executor) {
+        int span = level.nx + level.ny;
+        smooth(level, Math.max(20, 2 * span * span), executor);
+    }
+
+    // prolongation runs over the rows of the fine level, everything else over the active level
+    private void run(RowBandTask task, int rows, StepExecutor executor) {
+        if (rows * activeLevel.nx < PARALLEL_CELLS) {
+            task.run(0, rows);
+        } else {
+            executor.runBands(task, rows);
+        }
+    }
+
+    // one sub-lattice of the stride two stencil and its hierarchy
+    private static class SubLattice {
+
+        private final int width;
+
+        private final int yClass;
+
+        // fine column of every compact column, in stencil order so neighbours are adjacent
+        private final int[] columns;
+
+        private final MultigridLevel[] levels;
+
+        private SubLattice(int width, int height, int xClass, int yClass, int nx) {
+            this.width = width;
+            this.yClass = yClass;
+            this.columns = new int[nx];
+            for (int x = 0; x < nx; x++) {
+                columns[x] = (xClass + 2 * x) % width;
+            }
+            int ny = (height - yClass + 1) / 2;
+            List<MultigridLevel> hierarchy = new ArrayList<MultigridLevel>();
+            MultigridLevel level = new MultigridLevel(nx, ny);
+            hierarchy.add(level);
+            while (level.nx * level.ny > COARSEST_CELLS && level.canCoarsen()) {
+                level = level.coarsen();
+                hierarchy.add(level);
+            }
+            this.levels = hierarchy.toArray(new MultigridLevel[hierarchy.size()]);
+        }
+
+        private void gather(double[] rhs, double[] pressure, int startRow, int endRow) {
+            MultigridLevel finest = levels[0];
+            for (int y = startRow; y < endRow; y++) {
+                int row = (yClass + 2 * y) * width;
+                for (int x = 0; x < finest.nx; x++) {
+                    finest.rhs[y * finest.nx + x] = rhs[row + columns[x]];
+                    finest.solution[y * finest.nx + x] = pressure[row + columns[x]];
+                }
+            }
+        }
+
+        private void scatter(double[] pressure, int startRow, int endRow) {
+            MultigridLevel finest = levels[0];
+            for (int y = startRow; y < endRow; y++) {
+                int row = (yClass + 2 * y) * width;
+                for (int x = 0; x < finest.nx; x++) {
+                    pressure[row + columns[x]] = finest.solution[y * finest.nx + x];
+                }
+            }
+        }
+    }
+}
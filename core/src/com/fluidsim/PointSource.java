@@ -0,0 +1,66 @@
+package com.fluidsim;
+
+/**
+ * Pushes the air away from a cell, strongest next to it and fading out at radius cells.
+ * A negative strength pulls the air in, a sink.
+ */
+public class PointSource extends ForceSource {
+
+    private final int centerX;
+
+    private final int centerY;
+
+    private final double radius;
+
+    private final double force;
+
+    public PointSource(int centerX, int centerY, double radius, double force) {
+        super(centerX - (int) Math.ceil(radius), centerY - (int) Math.ceil(radius),
+                2 * (int) Math.ceil(radius) + 1, 2 * (int) Math.ceil(radius) + 1);
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.radius = radius;
+        this.force = force;
+    }
+
+    @Override
+    protected void apply(FieldStore fields, int firstRow, int startRow, int endRow, double time) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        int width = fields.getWidth();
+        int startColumn = getStartColumn();
+        int endColumn = getEndColumn(width);
+        double push = force * getStrength() * time;
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = startColumn; i < endColumn; i++) {
+                int idx = (j - firstRow) * width + i;
+                int dx = i - centerX;
+                int dy = j - centerY;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                // the center itself has no direction to push in
+                if (types[idx] == CellType.AIR && distance > 0 && distance < radius) {
+                    double scale = push * (1 - distance / radius) / distance;
+                    velocityX[idx] += scale * dx;
+                    velocityY[idx] += scale * dy;
+                }
+            }
+        }
+    }
+
+    public int getCenterX() {
+        return centerX;
+    }
+
+    public int getCenterY() {
+        return centerY;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public double getForce() {
+        return force;
+    }
+}
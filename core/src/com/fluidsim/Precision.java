@@ -0,0 +1,10 @@
+package com.fluidsim;
+
+/**
+ * Precision of the working buffers of a step. The field store is always double.
+ */
+public enum Precision {
+    DOUBLE,
+    // half the memory traffic, for visual and real time use
+    FLOAT
+}
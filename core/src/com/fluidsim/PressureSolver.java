@@ -0,0 +1,64 @@
+package com.fluidsim;
+
+/**
+ * Iterative solver for a PressureSystem. Solvers stop once the residual relative to the
+ * right hand side drops below the tolerance, or when the iteration budget runs out.
+ * Working buffers are allocated on the first solve and whenever the grid size changes.
+ */
+public abstract class PressureSolver {
+
+    private double tolerance;
+
+    private int iterations;
+
+    private double residual;
+
+    protected PressureSolver() {
+        this.tolerance = 1e-3;
+    }
+
+    /**
+     * Solve the system, starting from the current contents of pressure
+     * @param system the problem to solve, already made compatible
+     * @param pressure initial guess, overwritten with the result
+     * @param maxIterations iteration budget for this solve
+     * @param executor runs the row band phases of the solver
+     */
+    public abstract void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor);
+
+    // name shown in logs and the metrics of the solver
+    public abstract String getName();
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    // relative residual at which a solve stops early
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    // iterations used by the last solve
+    public int getIterations() {
+        return iterations;
+    }
+
+    // residual of the last solve relative to the right hand side
+    public double getResidual() {
+        return residual;
+    }
+
+    protected void report(int iterations, double residual) {
+        this.iterations = iterations;
+        this.residual = residual;
+    }
+
+    // adds up per row partials in row order, so the result doesn't depend on the threads
+    protected static double sumRows(double[] rowSums, int rows) {
+        double sum = 0;
+        for (int j = 0; j < rows; j++) {
+            sum += rowSums[j];
+        }
+        return sum;
+    }
+}
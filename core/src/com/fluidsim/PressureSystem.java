@@ -0,0 +1,338 @@
+package com.fluidsim;
+
+/**
+ * The pressure Poisson problem of one step. The divergence is taken with central
+ * differences, so the Laplacian couples every cell with the cells two to the left, right,
+ * above and below. X wraps around, and neighbours above the top row or below the bottom
+ * row are left out, which is the Neumann (zero gradient) boundary.
+ * The stencil splits the grid into independent sub-lattices that each only know their
+ * pressure up to a constant. makeCompatible removes the part of the right hand side no
+ * pressure field can produce, so every solver converges to the same answer.
+ *
+ * The system of a SlabStep holds the rows of one slab. Its iterates have GHOST_ROWS rows
+ * above and below, filled from the slabs around by exchangeGhostRows, the sums over the
+ * grid are formed by the SlabLink, and only JacobiSolver knows how to solve it.
+ */
+public class PressureSystem {
+
+    // rows of the iterates a slab gets from the slabs around, the stencil reaches two rows
+    static final int GHOST_ROWS = 2;
+
+    private final int width;
+
+    private final int height;
+
+    // the slab the rows belong to, null for a whole grid
+    private final SlabLink link;
+
+    // grid row of the first row and height of the whole grid
+    private final int firstRow;
+
+    private final int gridHeight;
+
+    // ghost rows of the iterates above and below, 0 for a whole grid
+    private final int ghostRows;
+
+    // divergence, the right hand side of the system
+    private final double[] rhs;
+
+    // index of the cell two columns to the left and right, with wrapping
+    private final int[] left2;
+
+    private final int[] right2;
+
+    // 2 when x splits into even and odd columns, 1 when an odd width joins them
+    private final int xClasses;
+
+    // per row sums and counts of each sub-lattice
+    private final double[] rowPartials;
+
+    // per row squared norms
+    private final double[] rowNorms;
+
+    private final double[] componentMeans;
+
+    private double rhsNorm;
+
+    private StencilKernels kernels;
+
+    // field the sum and shift phases work on, and the index of its first row
+    private double[] target;
+
+    private int targetStart;
+
+    private final RowBandTask sumTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            sumComponents(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask residualTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            residualRows(startRow, endRow);
+        }
+    };
+
+    private final RowBandTask shiftTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            shiftComponents(startRow, endRow);
+        }
+    };
+
+    public PressureSystem(int width, int height, double[] rhs) {
+        this(width, height, rhs, null, 0, height);
+    }
+
+    // rows [firstRow, firstRow + height) of a grid gridHeight high, stepped as a slab over link
+    PressureSystem(int width, int height, double[] rhs, SlabLink link, int firstRow, int gridHeight) {
+        this.width = width;
+        this.height = height;
+        this.rhs = rhs;
+        this.link = link;
+        this.firstRow = firstRow;
+        this.gridHeight = gridHeight;
+        this.ghostRows = link == null ? 0 : GHOST_ROWS;
+        this.left2 = new int[width];
+        this.right2 = new int[width];
+        for (int i = 0; i < width; i++) {
+            left2[i] = (((i - 2) % width) + width) % width;
+            right2[i] = (i + 2) % width;
+        }
+        this.xClasses = width % 2 == 0 ? 2 : 1;
+        this.rowPartials = new double[height * 4];
+        this.rowNorms = new double[height];
+        this.componentMeans = new double[4];
+        this.kernels = new ScalarStencilKernels();
+    }
+
+    /**
+     * Removes the mean of the right hand side on every sub-lattice
+     * and measures the norm of what is left
+     */
+    public void makeCompatible(StepExecutor executor) {
+        this.rhsNorm = Math.sqrt(removeMeans(rhs, 0, true, executor));
+    }
+
+    /**
+     * Pressure is only known up to a constant on every sub-lattice, the solvers leave
+     * different constants behind. Fixing every sub-lattice to zero mean makes the result
+     * independent of the solver, which matters where the projection mixes sub-lattices
+     * on the top and bottom rows.
+     */
+    public void normalise(double[] pressure, StepExecutor executor) {
+        removeMeans(pressure, rowStart(0), false, executor);
+    }
+
+    // the squared norm of what is left when asked for, 0 otherwise
+    private double removeMeans(double[] field, int start, boolean norm, StepExecutor executor) {
+        this.target = field;
+        this.targetStart = start;
+        executor.runBands(sumTask, height);
+        if (link == null) {
+            componentMeans(rowPartials, width, height, componentMeans);
+        } else {
+            System.arraycopy(link.reduce(SlabStep.COMPONENT_MEANS, rowPartials, height * 4), 0, componentMeans, 0, 4);
+        }
+        executor.runBands(shiftTask, height);
+        this.target = null;
+        return norm ? sumRows(rowNorms, 0) : 0;
+    }
+
+    /**
+     * The mean of every sub-lattice from the even and odd column sums and counts of every
+     * row of the grid, four values per row, into means.
+     */
+    static void componentMeans(double[] rowPartials, int width, int height, double[] means) {
+        int xClasses = width % 2 == 0 ? 2 : 1;
+        for (int c = 0; c < xClasses * 2; c++) {
+            double sum = 0;
+            double count = 0;
+            for (int j = c / xClasses; j < height; j += 2) {
+                sum += rowPartials[j * 4 + c % xClasses];
+                count += rowPartials[j * 4 + 2 + c % xClasses];
+            }
+            means[c] = count > 0 ? sum / count : 0;
+        }
+    }
+
+    // euclidean norm of rhs - A p
+    public double residualNorm(double[] pressure, StepExecutor executor) {
+        exchangeGhostRows(pressure);
+        this.target = pressure;
+        executor.runBands(residualTask, height);
+        this.target = null;
+        return Math.sqrt(sumRows(rowNorms, 0));
+    }
+
+    /**
+     * Sum of one value per row starting at offset, over the whole grid in row order. For a
+     * slab every slab has to ask at the same time.
+     */
+    public double sumRows(double[] rowValues, int offset) {
+        if (link != null) {
+            if (offset != 0) {
+                System.arraycopy(rowValues, offset, rowNorms, 0, height);
+                rowValues = rowNorms;
+            }
+            return link.reduce(SlabStep.ROW_SUM, rowValues, height)[0];
+        }
+        double sum = 0;
+        for (int j = offset; j < offset + height; j++) {
+            sum += rowValues[j];
+        }
+        return sum;
+    }
+
+    // fills the ghost rows of an iterate from the slabs around, nothing to do for a whole grid
+    public void exchangeGhostRows(double[] p) {
+        if (link != null) {
+            link.exchange(p, width, rowStart(0), height, ghostRows);
+        }
+    }
+
+    // whether the iterates have ghost rows that have to be exchanged before every sweep
+    public boolean hasGhostRows() {
+        return ghostRows > 0;
+    }
+
+    // euclidean norm of the right hand side, valid after makeCompatible
+    public double getRhsNorm() {
+        return rhsNorm;
+    }
+
+    // kernels solvers should use for their sweeps
+    public StencilKernels getKernels() {
+        return kernels;
+    }
+
+    public void setKernels(StencilKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    public double[] getRhs() {
+        return rhs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // length of an iterate, ghost rows included
+    public int getSize() {
+        return width * (height + 2 * ghostRows);
+    }
+
+    // index of the first cell of row j in an iterate, the right hand side has no ghost rows
+    public int rowStart(int j) {
+        return (j + ghostRows) * width;
+    }
+
+    // whether the stencil of row j reaches the row two above, rows past the top of the grid are left out
+    public boolean hasRowAbove(int j) {
+        return firstRow + j + 2 < gridHeight;
+    }
+
+    public boolean hasRowBelow(int j) {
+        return firstRow + j - 2 >= 0;
+    }
+
+    // sum of the neighbours of (i, j) taking part in the stencil
+    public double neighbourSum(double[] p, int i, int j) {
+        int row = rowStart(j);
+        double sum = p[row + left2[i]] + p[row + right2[i]];
+        if (hasRowAbove(j)) {
+            sum += p[row + 2 * width + i];
+        }
+        if (hasRowBelow(j)) {
+            sum += p[row - 2 * width + i];
+        }
+        return sum;
+    }
+
+    // centre coefficient of the stencil on row j
+    public double diagonal(int j) {
+        double diagonal = 2;
+        if (hasRowAbove(j)) {
+            diagonal++;
+        }
+        if (hasRowBelow(j)) {
+            diagonal++;
+        }
+        return diagonal;
+    }
+
+    // out = A p on the given rows
+    public void apply(double[] p, double[] out, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            double diagonal = diagonal(j);
+            int row = rowStart(j);
+            for (int i = 0; i < width; i++) {
+                out[row + i] = diagonal * p[row + i] - neighbourSum(p, i, j);
+            }
+        }
+    }
+
+    private void sumComponents(int startRow, int endRow) {
+        double[] field = target;
+        for (int j = startRow; j < endRow; j++) {
+            int row = targetStart + j * width;
+            double even = 0;
+            double odd = 0;
+            for (int i = 0; i < width; i += 2) {
+                even += field[row + i];
+            }
+            for (int i = 1; i < width; i += 2) {
+                odd += field[row + i];
+            }
+            if (xClasses == 1) {
+                rowPartials[j * 4] = even + odd;
+                rowPartials[j * 4 + 1] = 0;
+                rowPartials[j * 4 + 2] = width;
+                rowPartials[j * 4 + 3] = 0;
+            } else {
+                rowPartials[j * 4] = even;
+                rowPartials[j * 4 + 1] = odd;
+                rowPartials[j * 4 + 2] = width / 2;
+                rowPartials[j * 4 + 3] = width / 2;
+            }
+        }
+    }
+
+    private void residualRows(int startRow, int endRow) {
+        double[] p = target;
+        for (int j = startRow; j < endRow; j++) {
+            double diagonal = diagonal(j);
+            int row = rowStart(j);
+            double norm = 0;
+            for (int i = 0; i < width; i++) {
+                double r = rhs[j * width + i] - (diagonal * p[row + i] - neighbourSum(p, i, j));
+                norm += r * r;
+            }
+            rowNorms[j] = norm;
+        }
+    }
+
+    // also leaves the squared norm of every row in rowNorms
+    private void shiftComponents(int startRow, int endRow) {
+        double[] field = target;
+        for (int j = startRow; j < endRow; j++) {
+            int row = targetStart + j * width;
+            // the sub-lattices follow the rows of the grid
+            int component = ((firstRow + j) & 1) * xClasses;
+            double norm = 0;
+            for (int i = 0; i < width; i++) {
+                double v = field[row + i] - componentMeans[component + (i % xClasses)];
+                field[row + i] = v;
+                norm += v * v;
+            }
+            rowNorms[j] = norm;
+        }
+    }
+}
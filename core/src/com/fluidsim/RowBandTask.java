@@ -0,0 +1,7 @@
+package com.fluidsim;
+
+// one phase of the step pipeline, applied to the rows [startRow, endRow)
+public interface RowBandTask {
+
+    void run(int startRow, int endRow);
+}
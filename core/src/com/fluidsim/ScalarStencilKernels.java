@@ -0,0 +1,73 @@
+package com.fluidsim;
+
+/**
+ * Plain loops, available everywhere. The reference the vectorised kernels are checked against.
+ */
+public class ScalarStencilKernels implements StencilKernels {
+
+    @Override
+    public void divergence(double[] inputX, double[] inputY, double[] output, double scale,
+                           int width, int stride, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            for (int i = 0; i < width; i++) {
+                int p = row + i;
+                double next = 0;
+                next += inputY[p + stride];
+                next -= inputY[p - stride];
+                next += inputX[p + 1];
+                next -= inputX[p - 1];
+                output[j * width + i] = next * scale;
+            }
+        }
+    }
+
+    @Override
+    public void curl(double[] velocityX, double[] velocityY, double[] output,
+                     int width, int stride, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            for (int p = row; p < row + width; p++) {
+                double curl = 0;
+                curl += velocityY[p + 1];
+                curl -= velocityY[p - 1];
+                curl += velocityX[p + stride];
+                curl -= velocityX[p - stride];
+                output[p] = curl;
+            }
+        }
+    }
+
+    @Override
+    public void project(byte[] types, double[] advectionX, double[] advectionY, double[] pressure, double factor,
+                        double[] velocityX, double[] velocityY, int width, int stride, int startRow, int endRow) {
+        for (int j = startRow; j < endRow; j++) {
+            for (int i = 0; i < width; i++) {
+                int idx = j * width + i;
+                int p = (j + 1) * stride + i + 1;
+                if (types[idx] == CellType.AIR) {
+                    velocityX[idx] = advectionX[p] - (factor * (pressure[p + 1] - pressure[p - 1]));
+                    velocityY[idx] = advectionY[p] - (factor * (pressure[p + stride] - pressure[p - stride]));
+                }
+            }
+        }
+    }
+
+    @Override
+    public double jacobiRow(PressureSystem system, double[] source, double[] target, double weight, int j) {
+        int width = system.getWidth();
+        double[] rhs = system.getRhs();
+        double diagonal = system.diagonal(j);
+        double step = weight / diagonal;
+        int row = system.rowStart(j);
+        double residual = 0;
+        for (int i = 0; i < width; i++) {
+            int idx = row + i;
+            double sum = rhs[j * width + i] + system.neighbourSum(source, i, j);
+            double r = sum - diagonal * source[idx];
+            residual += r * r;
+            target[idx] = source[idx] + r * step;
+        }
+        return residual;
+    }
+}
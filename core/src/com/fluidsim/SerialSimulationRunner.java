@@ -0,0 +1,99 @@
+package com.fluidsim;
+
+/**
+ * Steps on the render thread from update, as many steps as the frame time pays for.
+ * A slow step still costs frames, but it runs everywhere, the html build included.
+ */
+public class SerialSimulationRunner implements SimulationRunner {
+
+    // a long frame doesn't buy more than this many steps, so slow steps can't pile up
+    private static final int MAX_STEPS_PER_FRAME = 4;
+
+    private final double stepsPerSecond;
+
+    private Environment env;
+
+    private FieldSnapshot snapshot;
+
+    private double time;
+
+    private TimestepController controller;
+
+    private int accuracy;
+
+    private long steps;
+
+    // frame time not yet spent on steps
+    private double pending;
+
+    // simulated time not yet spent on steps, with a timestep controller
+    private double pendingTime;
+
+    // stepsPerSecond <= 0 steps once per frame
+    public SerialSimulationRunner(double stepsPerSecond) {
+        this.stepsPerSecond = stepsPerSecond;
+    }
+
+    @Override
+    public void start(Environment env, double time, int accuracy) {
+        this.env = env;
+        this.time = time;
+        this.accuracy = accuracy;
+        this.snapshot = new FieldSnapshot(env.getWidth(), env.getHeight());
+        snapshot.capture(env, steps);
+    }
+
+    @Override
+    public void setTimestepController(TimestepController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public void update(float delta) {
+        if (controller != null) {
+            updateAdaptive(delta);
+            return;
+        }
+        int count;
+        if (stepsPerSecond <= 0) {
+            count = 1;
+        } else {
+            pending = Math.min(pending + delta * stepsPerSecond, MAX_STEPS_PER_FRAME);
+            count = (int) pending;
+            pending -= count;
+        }
+        for (int s = 0; s < count; s++) {
+            env.step(time, accuracy);
+            steps++;
+        }
+        if (count > 0) {
+            snapshot.capture(env, steps);
+        }
+    }
+
+    // the frame pays for simulated time, the controller spends it on steps as long as the flow allows
+    private void updateAdaptive(float delta) {
+        double paid = stepsPerSecond <= 0 ? time : delta * stepsPerSecond * time;
+        pendingTime = Math.min(pendingTime + paid, MAX_STEPS_PER_FRAME * Math.max(time, controller.getMaxTime()));
+        double taken = controller.advanceUpTo(env, pendingTime, accuracy);
+        pendingTime -= taken;
+        if (taken > 0) {
+            steps += controller.getLastSubsteps();
+            snapshot.capture(env, steps);
+        }
+    }
+
+    @Override
+    public FieldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void setStatisticsEnabled(FluidField field, boolean enabled) {
+        env.setStatisticsEnabled(field, enabled);
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
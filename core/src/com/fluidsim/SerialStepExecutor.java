@@ -0,0 +1,15 @@
+package com.fluidsim;
+
+// runs every phase on the calling thread, the default for Environment
+public class SerialStepExecutor implements StepExecutor {
+
+    @Override
+    public void runBands(RowBandTask task, int rows) {
+        task.run(0, rows);
+    }
+
+    @Override
+    public int getParallelism() {
+        return 1;
+    }
+}
@@ -0,0 +1,30 @@
+package com.fluidsim;
+
+/**
+ * Drives an Environment at a fixed rate of steps and hands the renderer the latest
+ * complete state as a FieldSnapshot. Once started, the environment belongs to the runner,
+ * everything else goes through these methods from the render thread.
+ */
+public interface SimulationRunner {
+
+    // takes over the environment, every step advances it by time seconds with the given pressure budget
+    void start(Environment env, double time, int accuracy);
+
+    /**
+     * Set before start. With a controller the length of every step follows the flow, the
+     * runner still covers time seconds of simulation per step it would have taken, null
+     * takes steps of exactly time seconds.
+     */
+    void setTimestepController(TimestepController controller);
+
+    // called once per rendered frame with the seconds since the last one
+    void update(float delta);
+
+    // the newest complete snapshot, stays valid until the next call to update or getSnapshot
+    FieldSnapshot getSnapshot();
+
+    // applied before the next step, statistics only show up in later snapshots
+    void setStatisticsEnabled(FluidField field, boolean enabled);
+
+    void dispose();
+}
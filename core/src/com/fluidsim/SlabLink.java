@@ -0,0 +1,22 @@
+package com.fluidsim;
+
+/**
+ * How a SlabStep talks to the slabs next to it and to whoever adds up the grid. The slabs
+ * form a ring, the one above the top slab is the bottom one, like the velocities wrap.
+ */
+public interface SlabLink {
+
+    /**
+     * Sends the lowest depth owned rows to the slab below and the highest to the slab above,
+     * and receives their rows into the ghost rows. Row r of the slab starts at
+     * firstOwned + r * rowLength, r from -depth to rows + depth - 1, whole rows are sent.
+     */
+    void exchange(double[] data, int rowLength, int firstOwned, int rows, int depth);
+
+    /**
+     * Hands the values of this slab to the reduction of the given kind and returns its result
+     * once every slab has handed in theirs. The values of all slabs are joined in slab order,
+     * see SlabStep.combine. The result may be overwritten by the next reduction.
+     */
+    double[] reduce(int kind, double[] values, int length);
+}
@@ -0,0 +1,273 @@
+package com.fluidsim;
+
+import java.util.Arrays;
+
+/**
+ * One horizontal slab of a grid that is stepped by several processes, the rows
+ * [firstRow, firstRow + rows) of a width x height domain. It is an Environment over the owned
+ * rows that steps with the band kernels of the whole grid, the ghost rows above and below
+ * come from the neighbouring slabs through a SlabLink and every sum over the grid is formed
+ * by combine from the rows of all slabs in row order. A grid split into slabs steps to the
+ * same numbers as Environment's double precision step with the Jacobi solver, bit for bit.
+ * Sparse stepping, single precision, the higher order advection schemes and the other
+ * solvers have no slab version.
+ *
+ * The back trace of the advection can land any number of rows away. Before advecting the
+ * slabs agree on the deepest ghost region one of them needs and exchange that many rows of
+ * velocity, which can't be more than the smallest slab holds.
+ */
+public class SlabStep {
+
+    // kinds of reduction, see combine
+    public static final int REACH = 0;
+
+    public static final int COMPONENT_MEANS = 1;
+
+    public static final int ROW_SUM = 2;
+
+    public static final int STATISTICS = 3;
+
+    // values of a combined STATISTICS reduction: count, largest velocity, min, max, mean and rms per field,
+    // iterations, residual
+    public static final int STATISTICS_VALUES = FieldStatisticsCollector.ROW_VALUES + 2;
+
+    private final SlabLink link;
+
+    private final Environment env;
+
+    private final int firstRow;
+
+    private final int rows;
+
+    // what the slab hands to the statistics reduction
+    private final double[] rowValues;
+
+    private FieldStatistics statistics;
+
+    /**
+     * Slab number slab of slabs, the rows are split like firstRow does.
+     * Every slab must have at least as many rows as the pressure stencil reaches.
+     */
+    public SlabStep(SlabLink link, int width, int height, int slabs, int slab) {
+        if (height / slabs < PressureSystem.GHOST_ROWS) {
+            throw new IllegalArgumentException(height + " rows can't be split into " + slabs
+                    + " slabs of at least " + PressureSystem.GHOST_ROWS + " rows");
+        }
+        this.link = link;
+        this.env = new Environment(link, width, height, slabs, slab);
+        this.firstRow = firstRow(height, slabs, slab);
+        this.rows = env.getHeight();
+        this.rowValues = new double[rows * FieldStatisticsCollector.ROW_VALUES + 2];
+        this.statistics = FieldStatistics.EMPTY;
+    }
+
+    // first row of a slab, slab == slabs gives the height
+    public static int firstRow(int height, int slabs, int slab) {
+        return (int) ((long) height * slab / slabs);
+    }
+
+    /**
+     * Result of a reduction from the values every slab handed in, in slab order.
+     * REACH: one value per slab, the largest. COMPONENT_MEANS: even and odd column sums and
+     * counts per row, the mean of every sub-lattice of the pressure stencil. ROW_SUM: one
+     * value per row, their sum. STATISTICS: the exported statistics partials per row followed
+     * by the pressure iterations and residual, STATISTICS_VALUES values.
+     */
+    public static double[] combine(int kind, double[][] values, int width, int height) {
+        switch (kind) {
+            case REACH: {
+                double reach = 0;
+                for (double[] slab : values) {
+                    reach = Math.max(reach, slab[0]);
+                }
+                return new double[] {reach};
+            }
+            case COMPONENT_MEANS: {
+                double[] means = new double[4];
+                PressureSystem.componentMeans(join(values, 0), width, height, means);
+                return means;
+            }
+            case ROW_SUM: {
+                double sum = 0;
+                for (double[] slab : values) {
+                    for (double value : slab) {
+                        sum += value;
+                    }
+                }
+                return new double[] {sum};
+            }
+            case STATISTICS: {
+                FieldStatistics merged = FieldStatisticsCollector.mergeRows(join(values, 2), height);
+                FluidField[] fields = FluidField.values();
+                double[] result = new double[STATISTICS_VALUES];
+                result[0] = merged.getCellCount();
+                result[1] = merged.getMaxVelocity();
+                for (int f = 0; f < fields.length; f++) {
+                    result[2 + f * 4] = merged.getMin(fields[f]);
+                    result[3 + f * 4] = merged.getMax(fields[f]);
+                    result[4 + f * 4] = merged.getMean(fields[f]);
+                    result[5 + f * 4] = merged.getRms(fields[f]);
+                }
+                // every slab took part in the same solve
+                double[] first = values[0];
+                result[STATISTICS_VALUES - 2] = first[first.length - 2];
+                result[STATISTICS_VALUES - 1] = first[first.length - 1];
+                return result;
+            }
+            default:
+                throw new IllegalArgumentException("unknown reduction " + kind);
+        }
+    }
+
+    // the statistics of a combined STATISTICS reduction
+    public static FieldStatistics statistics(double[] combined) {
+        int count = (int) combined[0];
+        int fields = FluidField.values().length;
+        boolean[] collected = new boolean[fields];
+        Arrays.fill(collected, count > 0);
+        double[] values = new double[fields * FieldStatisticsCollector.VALUES];
+        if (count > 0) {
+            System.arraycopy(combined, 2, values, 0, values.length);
+        }
+        return new FieldStatistics(count, combined[1], collected, values);
+    }
+
+    // values of all slabs one after the other, less the last trim values of each
+    private static double[] join(double[][] values, int trim) {
+        int length = 0;
+        for (double[] slab : values) {
+            length += slab.length - trim;
+        }
+        double[] joined = new double[length];
+        int at = 0;
+        for (double[] slab : values) {
+            System.arraycopy(slab, 0, joined, at, slab.length - trim);
+            at += slab.length - trim;
+        }
+        return joined;
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // the owned rows, row r of the store is row firstRow + r of the grid
+    public FieldStore getFields() {
+        return env.getFields();
+    }
+
+    public double getCellSize() {
+        return env.getCellSize();
+    }
+
+    public void setCellSize(double cellSize) {
+        env.setCellSize(cellSize);
+    }
+
+    public double getDensity() {
+        return env.getDensity();
+    }
+
+    public void setDensity(double density) {
+        env.setDensity(density);
+    }
+
+    public double getVorticity() {
+        return env.getVorticity();
+    }
+
+    public void setVorticity(double vorticity) {
+        env.setVorticity(vorticity);
+    }
+
+    public double getFanStrength() {
+        return env.getFanStrength();
+    }
+
+    public void setFanStrength(double fanStrength) {
+        env.setFanStrength(fanStrength);
+    }
+
+    // the sources of Environment.getForceSources in grid coordinates, every slab needs the same
+    public ForceSources getForceSources() {
+        return env.getForceSources();
+    }
+
+    public boolean isFan() {
+        return env.isFan();
+    }
+
+    public void setFan(boolean fan) {
+        env.setFan(fan);
+    }
+
+    public boolean isWarmStartPressure() {
+        return env.isWarmStartPressure();
+    }
+
+    public void setWarmStartPressure(boolean warmStartPressure) {
+        env.setWarmStartPressure(warmStartPressure);
+    }
+
+    public double getTolerance() {
+        return env.getPressureSolver().getTolerance();
+    }
+
+    // relative residual the Jacobi sweeps stop at
+    public void setTolerance(double tolerance) {
+        env.getPressureSolver().setTolerance(tolerance);
+    }
+
+    public int getPressureIterations() {
+        return env.getPressureIterations();
+    }
+
+    public double getPressureResidual() {
+        return env.getPressureResidual();
+    }
+
+    // statistics of the whole grid after the last step
+    public FieldStatistics getStatistics() {
+        return statistics;
+    }
+
+    // the starting states of Environment, in grid coordinates
+
+    public void initUniform(double pressure, double velocityX, double velocityY) {
+        env.initUniform(pressure, velocityX, velocityY);
+    }
+
+    // draws the numbers of the whole grid, so every slab starts like Environment.initRandom(seed)
+    public void initRandom(long seed) {
+        env.initRandom(seed);
+    }
+
+    public void initCentralWall(int width, int height) {
+        env.initCentralWall(width, height);
+    }
+
+    public void initFloor() {
+        env.initFloor();
+    }
+
+    public void initHeater(int x, int y, int width, int height, double temperature) {
+        env.initHeater(x, y, width, height, temperature);
+    }
+
+    /**
+     * Steps the slab in lock step with the others, the phases of Environment.step in order
+     * and the statistics of the whole grid at the end.
+     */
+    public void step(double time, int accuracy) {
+        env.step(time, accuracy);
+        env.getStatisticsCollector().exportRows(rowValues, 0, 0, rows);
+        int length = rows * FieldStatisticsCollector.ROW_VALUES;
+        rowValues[length] = env.getPressureIterations();
+        rowValues[length + 1] = env.getPressureResidual();
+        this.statistics = statistics(link.reduce(STATISTICS, rowValues, length + 2));
+    }
+}
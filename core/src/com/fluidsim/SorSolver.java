@@ -0,0 +1,108 @@
+package com.fluidsim;
+
+/**
+ * Red-black successive over-relaxation. The stencil reaches two cells away, so cells are
+ * coloured by (i / 2 + j / 2) and the rows above and below a cell always have the other
+ * colour. Within a row that holds too, except at the seam where x wraps around on a grid
+ * whose width isn't a multiple of four, there the last and first columns can share a
+ * colour. A row is always swept whole and in order by one thread, so with each colour one
+ * phase the result is still independent of how the rows are split between threads.
+ * The residual is measured while sweeping, each cell against the neighbours it sees.
+ */
+public class SorSolver extends PressureSolver {
+
+    private double omega;
+
+    private double[] rowResidual;
+
+    private PressureSystem system;
+
+    private double[] pressure;
+
+    private int colour;
+
+    private final RowBandTask sweepTask = new RowBandTask() {
+        @Override
+        public void run(int startRow, int endRow) {
+            sweep(startRow, endRow);
+        }
+    };
+
+    public SorSolver() {
+        this(1.9);
+    }
+
+    public SorSolver(double omega) {
+        setOmega(omega);
+    }
+
+    public double getOmega() {
+        return omega;
+    }
+
+    // relaxation factor, 1 is plain Gauss-Seidel, must stay below 2 to converge
+    public void setOmega(double omega) {
+        if (omega <= 0 || omega >= 2) {
+            throw new IllegalArgumentException("omega must be between 0 and 2, got " + omega);
+        }
+        this.omega = omega;
+    }
+
+    @Override
+    public void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor) {
+        int height = system.getHeight();
+        if (rowResidual == null || rowResidual.length != height) {
+            rowResidual = new double[height];
+        }
+        double norm = system.getRhsNorm();
+        if (norm == 0) {
+            report(0, 0);
+            return;
+        }
+        this.system = system;
+        this.pressure = pressure;
+        double residual = Double.POSITIVE_INFINITY;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            colour = 0;
+            executor.runBands(sweepTask, height);
+            colour = 1;
+            executor.runBands(sweepTask, height);
+            residual = Math.sqrt(sumRows(rowResidual, height)) / norm;
+            iterations++;
+            if (residual <= getTolerance()) {
+                break;
+            }
+        }
+        this.system = null;
+        this.pressure = null;
+        report(iterations, residual);
+    }
+
+    @Override
+    public String getName() {
+        return "sor";
+    }
+
+    private void sweep(int startRow, int endRow) {
+        int width = system.getWidth();
+        double[] rhs = system.getRhs();
+        double[] p = pressure;
+        for (int j = startRow; j < endRow; j++) {
+            double diagonal = system.diagonal(j);
+            double residual = colour == 0 ? 0 : rowResidual[j];
+            // first cell of this colour on the row, then every other pair of cells
+            int first = (((j >> 1) + colour) & 1) * 2;
+            for (int start = first; start < width; start += 4) {
+                int end = Math.min(start + 2, width);
+                for (int i = start; i < end; i++) {
+                    int idx = j * width + i;
+                    double r = rhs[idx] + system.neighbourSum(p, i, j) - diagonal * p[idx];
+                    residual += r * r;
+                    p[idx] += omega * r / diagonal;
+                }
+            }
+            rowResidual[j] = residual;
+        }
+    }
+}
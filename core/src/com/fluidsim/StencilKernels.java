@@ -0,0 +1,27 @@
+package com.fluidsim;
+
+/**
+ * The uniform inner loops of a step, split out so the desktop can swap in vectorised
+ * versions. Padded fields use the ghost cell layout of HaloGrid, the cell (i, j) lives at
+ * (j + 1) * stride + i + 1, unpadded fields at j * width + i. Every method works on the
+ * rows [startRow, endRow) and only writes those rows.
+ */
+public interface StencilKernels {
+
+    // output = scale * (y above - y below + x right - x left), from padded into unpadded
+    void divergence(double[] inputX, double[] inputY, double[] output, double scale,
+                    int width, int stride, int startRow, int endRow);
+
+    // curl of padded velocities into a padded output
+    void curl(double[] velocityX, double[] velocityY, double[] output,
+              int width, int stride, int startRow, int endRow);
+
+    // velocity = advected velocity - factor * central pressure gradient, on air cells only
+    void project(byte[] types, double[] advectionX, double[] advectionY, double[] pressure, double factor,
+                 double[] velocityX, double[] velocityY, int width, int stride, int startRow, int endRow);
+
+    // one Jacobi sweep of row j from source into target, moving weight of the way to the plain
+    // Jacobi value, returns the squared residual of source.
+    // The iterates are laid out as the system says, row j starts at system.rowStart(j)
+    double jacobiRow(PressureSystem system, double[] source, double[] target, double weight, int j);
+}
@@ -0,0 +1,13 @@
+package com.fluidsim;
+
+/**
+ * Runs the phases of Environment.step. Every call is a barrier, all rows must be
+ * finished before runBands returns so the next phase can read them.
+ */
+public interface StepExecutor {
+
+    void runBands(RowBandTask task, int rows);
+
+    // number of bands the rows are split into, 1 for serial execution
+    int getParallelism();
+}
@@ -0,0 +1,177 @@
+package com.fluidsim;
+
+/**
+ * Timings and counters of the last steps and rendered frames, kept in fixed size rings.
+ * Recording writes a few numbers into preallocated arrays and allocates nothing, so it is
+ * always on. The step ring has a single writer, the thread that steps, the frame ring the
+ * render thread. Other threads read them through summarize, which allocates. A slot that is
+ * rewritten while a summary reads it can show up mixed, at worst one step of the summary.
+ */
+public class StepMetrics {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final StepPhase[] PHASES = StepPhase.values();
+
+    // the phases of the step, then the statistics collection
+    public static final int TIMERS = PHASES.length + 1;
+
+    private final int capacity;
+
+    private final long[] timerNanos;
+
+    private final long[] stepNanos;
+
+    private final int[] iterations;
+
+    private final double[] residuals;
+
+    private final long[] allocatedBytes;
+
+    private final int[] cells;
+
+    private final double[] activeFractions;
+
+    private final long[] frameNanos;
+
+    // both only written by their ring's writer, a slot is published by counting it
+    private volatile long steps;
+
+    private volatile long frames;
+
+    private AllocationProbe probe;
+
+    // allocation count of the stepping thread when the current step started
+    private long allocatedAtStart;
+
+    public StepMetrics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StepMetrics(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.timerNanos = new long[capacity * TIMERS];
+        this.stepNanos = new long[capacity];
+        this.iterations = new int[capacity];
+        this.residuals = new double[capacity];
+        this.allocatedBytes = new long[capacity];
+        this.cells = new int[capacity];
+        this.activeFractions = new double[capacity];
+        this.frameNanos = new long[capacity];
+    }
+
+    // name of a timer, the phase names and STATISTICS for the statistics collection
+    public static String timerName(int timer) {
+        return timer < PHASES.length ? PHASES[timer].name() : "STATISTICS";
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // steps recorded so far, the ring holds the last capacity of them
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public AllocationProbe getAllocationProbe() {
+        return probe;
+    }
+
+    // without a probe the allocated bytes of every step are recorded as unknown
+    public void setAllocationProbe(AllocationProbe probe) {
+        this.probe = probe;
+    }
+
+    // called by the stepping thread before the first phase of a step
+    public void startStep() {
+        allocatedAtStart = probe != null ? probe.allocatedBytes() : -1;
+    }
+
+    public void recordPhase(StepPhase phase, long nanos) {
+        timerNanos[(int) (steps % capacity) * TIMERS + phase.ordinal()] = nanos;
+    }
+
+    // ends the step started last, statistics is the time the statistics collection took
+    public void recordStep(long statisticsNanos, long totalNanos, int pressureIterations, double pressureResidual,
+            int cellCount, double activeFraction) {
+        long step = steps;
+        int slot = (int) (step % capacity);
+        timerNanos[slot * TIMERS + PHASES.length] = statisticsNanos;
+        stepNanos[slot] = totalNanos;
+        iterations[slot] = pressureIterations;
+        residuals[slot] = pressureResidual;
+        long allocated = probe != null && allocatedAtStart >= 0 ? probe.allocatedBytes() : -1;
+        allocatedBytes[slot] = allocated >= 0 ? allocated - allocatedAtStart : -1;
+        cells[slot] = cellCount;
+        activeFractions[slot] = activeFraction;
+        steps = step + 1;
+    }
+
+    // called by the render thread with the time one frame took to draw
+    public void recordFrame(long nanos) {
+        long frame = frames;
+        frameNanos[(int) (frame % capacity)] = nanos;
+        frames = frame + 1;
+    }
+
+    // forgets every recorded step and frame, must not run while either is being recorded
+    public void clear() {
+        steps = 0;
+        frames = 0;
+    }
+
+    /**
+     * Percentiles and means over the last steps and frames, at most window of each and never
+     * more than the rings hold.
+     */
+    public MetricsSummary summarize(int window) {
+        long stepCount = steps;
+        long frameCount = frames;
+        int n = (int) Math.min(Math.min(window, capacity), stepCount);
+        int f = (int) Math.min(Math.min(window, capacity), frameCount);
+
+        long[][] timers = new long[TIMERS][n];
+        long[] totals = new long[n];
+        long iterationSum = 0;
+        long allocatedSum = 0;
+        boolean allocatedKnown = n > 0;
+        long cellSum = 0;
+        double activeSum = 0;
+        double residual = 0;
+        for (int s = 0; s < n; s++) {
+            int slot = (int) ((stepCount - n + s) % capacity);
+            for (int t = 0; t < TIMERS; t++) {
+                timers[t][s] = timerNanos[slot * TIMERS + t];
+            }
+            totals[s] = stepNanos[slot];
+            iterationSum += iterations[slot];
+            if (allocatedBytes[slot] < 0) {
+                allocatedKnown = false;
+            }
+            allocatedSum += allocatedBytes[slot];
+            cellSum += cells[slot];
+            activeSum += activeFractions[slot];
+            residual = residuals[slot];
+        }
+        long[] frameTimes = new long[f];
+        for (int s = 0; s < f; s++) {
+            frameTimes[s] = frameNanos[(int) ((frameCount - f + s) % capacity)];
+        }
+
+        long totalSum = 0;
+        for (long nanos : totals) {
+            totalSum += nanos;
+        }
+        return new MetricsSummary(stepCount, n, timers, totals, n == 0 ? 0 : iterationSum / (double) n, residual,
+                allocatedKnown ? allocatedSum / n : -1, totalSum == 0 ? 0 : cellSum / (totalSum * 1e-9),
+                n == 0 ? 1 : activeSum / n, frameCount, frameTimes);
+    }
+}
@@ -0,0 +1,16 @@
+package com.fluidsim;
+
+/**
+ * The phases of Environment.step in the order they run. Running every phase in order
+ * and collecting the statistics is one step.
+ */
+public enum StepPhase {
+    ADVECTION,
+    DIVERGENCE,
+    // pressure solve, including making the system compatible and normalising the result
+    PRESSURE,
+    // subtracts the pressure gradient from the advected velocity
+    FINAL_CALCULATION,
+    ADD_FORCES,
+    VORTICITY_CONFINEMENT
+}
@@ -0,0 +1,212 @@
+package com.fluidsim;
+
+import java.util.Arrays;
+
+/**
+ * Which square tiles of the grid take part in the advection and vorticity confinement of a
+ * step. A tile is hot when one of its air cells is faster than the speed threshold or has a
+ * larger divergence than the divergence threshold, and a tile is active when it or one of
+ * its eight neighbours is hot, wrapping like the velocities do. Flow that moves towards a
+ * quiet tile so wakes it before it arrives, and the back trace of an active cell never
+ * samples a hot cell it couldn't see. Inactive tiles keep their velocities through both
+ * phases, their change there would be of the order of the thresholds. The pressure solve
+ * and the projection still cover the whole grid.
+ * Activity is worked out from the field store at the start of every step. Disabled, every
+ * tile is active and the step is the same as without tracking.
+ */
+public class TileActivity implements RowBandTask {
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    public static final double DEFAULT_SPEED_THRESHOLD = 0.1;
+
+    public static final double DEFAULT_DIVERGENCE_THRESHOLD = 0.1;
+
+    private final FieldStore fields;
+
+    private final int width;
+
+    private final int height;
+
+    private final int tileSize;
+
+    private final int tilesX;
+
+    private final int tilesY;
+
+    // per row and tile column, so bands never write the same entry
+    private final boolean[] rowHot;
+
+    private final boolean[] hot;
+
+    private final boolean[] active;
+
+    private int activeTiles;
+
+    private boolean enabled;
+
+    private double speedThreshold;
+
+    private double divergenceThreshold;
+
+    public TileActivity(FieldStore fields, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be at least 1, got " + tileSize);
+        }
+        this.fields = fields;
+        this.width = fields.getWidth();
+        this.height = fields.getHeight();
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.rowHot = new boolean[height * tilesX];
+        this.hot = new boolean[tilesX * tilesY];
+        this.active = new boolean[tilesX * tilesY];
+        Arrays.fill(active, true);
+        this.activeTiles = active.length;
+        this.speedThreshold = DEFAULT_SPEED_THRESHOLD;
+        this.divergenceThreshold = DEFAULT_DIVERGENCE_THRESHOLD;
+    }
+
+    // same settings as another tracker, e.g. the one of the grid before a resize
+    public TileActivity(FieldStore fields, int tileSize, TileActivity settings) {
+        this(fields, tileSize);
+        this.enabled = settings.enabled;
+        this.speedThreshold = settings.speedThreshold;
+        this.divergenceThreshold = settings.divergenceThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getSpeedThreshold() {
+        return speedThreshold;
+    }
+
+    public void setSpeedThreshold(double speedThreshold) {
+        this.speedThreshold = speedThreshold;
+    }
+
+    // divergence is the central difference vx(i+1) - vx(i-1) + vy(j+1) - vy(j-1)
+    public double getDivergenceThreshold() {
+        return divergenceThreshold;
+    }
+
+    public void setDivergenceThreshold(double divergenceThreshold) {
+        this.divergenceThreshold = divergenceThreshold;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public boolean isTileActive(int tileX, int tileY) {
+        return active[tileY * tilesX + tileX];
+    }
+
+    // whether the cell (i, j) is in an active tile
+    public boolean isActive(int i, int j) {
+        return active[(j / tileSize) * tilesX + i / tileSize];
+    }
+
+    // end of the run of cells in the tile of column i, from i to the tile's right edge
+    public int spanEnd(int i) {
+        return Math.min(width, (i / tileSize + 1) * tileSize);
+    }
+
+    public int getActiveTiles() {
+        return activeTiles;
+    }
+
+    // share of the tiles the last step advected, 1 while disabled
+    public double getActiveFraction() {
+        return activeTiles / (double) active.length;
+    }
+
+    public void update(StepExecutor executor) {
+        if (!enabled) {
+            if (activeTiles != active.length) {
+                Arrays.fill(active, true);
+                activeTiles = active.length;
+            }
+            return;
+        }
+        executor.runBands(this, height);
+        Arrays.fill(hot, false);
+        for (int j = 0; j < height; j++) {
+            int tileRow = (j / tileSize) * tilesX;
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (rowHot[j * tilesX + tx]) {
+                    hot[tileRow + tx] = true;
+                }
+            }
+        }
+        int count = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                boolean wake = false;
+                for (int dy = -1; dy <= 1 && !wake; dy++) {
+                    int y = (ty + dy + tilesY) % tilesY;
+                    for (int dx = -1; dx <= 1 && !wake; dx++) {
+                        wake = hot[y * tilesX + (tx + dx + tilesX) % tilesX];
+                    }
+                }
+                active[ty * tilesX + tx] = wake;
+                if (wake) {
+                    count++;
+                }
+            }
+        }
+        this.activeTiles = count;
+    }
+
+    // marks the tile columns of each row that hold a hot cell, a column stops at its first one
+    @Override
+    public void run(int startRow, int endRow) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        double speed = speedThreshold * speedThreshold;
+        double divergence = divergenceThreshold;
+        for (int j = startRow; j < endRow; j++) {
+            int row = j * width;
+            int below = (j == 0 ? height - 1 : j - 1) * width;
+            int above = (j == height - 1 ? 0 : j + 1) * width;
+            for (int tx = 0; tx < tilesX; tx++) {
+                int start = tx * tileSize;
+                int end = Math.min(width, start + tileSize);
+                boolean isHot = false;
+                for (int i = start; i < end; i++) {
+                    int idx = row + i;
+                    if (types[idx] != CellType.AIR) {
+                        continue;
+                    }
+                    double vx = velocityX[idx];
+                    double vy = velocityY[idx];
+                    int left = i == 0 ? width - 1 : i - 1;
+                    int right = i == width - 1 ? 0 : i + 1;
+                    double div = velocityX[row + right] - velocityX[row + left]
+                            + velocityY[above + i] - velocityY[below + i];
+                    if (vx * vx + vy * vy > speed || Math.abs(div) > divergence) {
+                        isHot = true;
+                        break;
+                    }
+                }
+                rowHot[j * tilesX + tx] = isHot;
+            }
+        }
+    }
+}
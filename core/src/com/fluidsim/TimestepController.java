@@ -0,0 +1,226 @@
+package com.fluidsim;
+
+/**
+ * Picks the time step from a CFL condition. A back trace should cross at most cfl cells,
+ * so a step lasts cfl * cellSize / the largest velocity of the step before, kept between
+ * the minimum and maximum time. Fast flow takes several short steps, calm flow few long ones.
+ *
+ * The chosen step and the number of substeps of the last advance can be read from any
+ * thread, e.g. by an overlay while a runner steps on its own thread.
+ */
+public class TimestepController {
+
+    // a back trace stays within the cells around its start, which the interpolation assumes
+    public static final double DEFAULT_CFL = 1;
+
+    public static final double DEFAULT_MIN_TIME = 0.001;
+
+    public static final double DEFAULT_MAX_TIME = 0.1;
+
+    public static final int DEFAULT_MAX_SUBSTEPS = 8;
+
+    private double cfl;
+
+    private double minTime;
+
+    private double maxTime;
+
+    private int maxSubsteps;
+
+    private volatile double lastTime;
+
+    private volatile int lastSubsteps;
+
+    private volatile double maxVelocity;
+
+    // simulated time advance had to leave out because the substeps ran out
+    private volatile double droppedTime;
+
+    public TimestepController() {
+        this(DEFAULT_CFL);
+    }
+
+    public TimestepController(double cfl) {
+        this.cfl = cfl;
+        this.minTime = DEFAULT_MIN_TIME;
+        this.maxTime = DEFAULT_MAX_TIME;
+        this.maxSubsteps = DEFAULT_MAX_SUBSTEPS;
+    }
+
+    /**
+     * The step the CFL condition allows after a step with these statistics. The statistics
+     * of a grid that hasn't been stepped yet hold no velocity, those get the maximum time.
+     */
+    public double nextTime(FieldStatistics statistics, double cellSize) {
+        return limit(statistics.getMaxVelocity(), cellSize);
+    }
+
+    // the velocities of a grid that hasn't been stepped yet are looked up in its fields
+    public double nextTime(Environment env) {
+        FieldStatistics statistics = env.getStatistics();
+        double velocity = statistics == FieldStatistics.EMPTY ? maxVelocity(env.getFields())
+                : statistics.getMaxVelocity();
+        return limit(velocity, env.getCellSize());
+    }
+
+    /**
+     * Steps env through interval seconds in equal substeps no longer than the CFL condition
+     * allows, checked again after every substep. When even maxSubsteps of them can't cover
+     * the interval, the rest is dropped and the simulation falls behind rather than taking
+     * steps too long for the flow.
+     * @return the number of substeps taken
+     */
+    public int advance(Environment env, double interval, int accuracy) {
+        double remaining = interval;
+        int substeps = 0;
+        while (isCovering(interval, remaining, substeps)) {
+            double time = substep(remaining, substeps, nextTime(env));
+            env.step(time, accuracy);
+            remaining -= time;
+            substeps++;
+        }
+        finish(interval, remaining, substeps);
+        return substeps;
+    }
+
+    /**
+     * Length of the next substep of advance when remaining seconds are left after substeps
+     * and the CFL condition allows limit, for callers that step something else than an
+     * Environment the same way.
+     */
+    public double substep(double remaining, int substeps, double limit) {
+        int left = (int) Math.min(maxSubsteps - substeps, Math.ceil(remaining / limit));
+        double time = Math.min(remaining, Math.max(minTime, Math.min(limit, remaining / left)));
+        this.lastTime = time;
+        return time;
+    }
+
+    // after the substeps of an interval, whatever is still remaining is dropped
+    public void finish(double interval, double remaining, int substeps) {
+        if (remaining > interval * 1e-9) {
+            droppedTime += remaining;
+        }
+        this.lastSubsteps = substeps;
+    }
+
+    // whether advance would take another substep
+    public boolean isCovering(double interval, double remaining, int substeps) {
+        return remaining > interval * 1e-9 && substeps < maxSubsteps;
+    }
+
+    // one step as long as the CFL condition allows, returns its length
+    public double step(Environment env, int accuracy) {
+        double time = nextTime(env);
+        env.step(time, accuracy);
+        this.lastSubsteps = 1;
+        return time;
+    }
+
+    /**
+     * Spends available seconds, e.g. the simulated time a frame pays for, in equal substeps
+     * no longer than the CFL condition allows, like advance. Calm flow takes one shorter
+     * step every call instead of waiting for a full CFL step. What maxSubsteps can't cover,
+     * or less than the minimum time, is left for the next call.
+     * @return the simulated time the steps took
+     */
+    public double advanceUpTo(Environment env, double available, int accuracy) {
+        double remaining = available;
+        int substeps = 0;
+        while (remaining >= minTime && substeps < maxSubsteps) {
+            double time = substep(remaining, substeps, nextTime(env));
+            env.step(time, accuracy);
+            remaining -= time;
+            substeps++;
+        }
+        if (substeps > 0) {
+            this.lastSubsteps = substeps;
+        }
+        return available - remaining;
+    }
+
+    private double limit(double velocity, double cellSize) {
+        this.maxVelocity = velocity;
+        double time = velocity > 0 ? cfl * cellSize / velocity : maxTime;
+        time = Math.max(minTime, Math.min(maxTime, time));
+        this.lastTime = time;
+        return time;
+    }
+
+    // largest velocity component of the air cells, NaN is skipped like the statistics do
+    private static double maxVelocity(FieldStore fields) {
+        byte[] types = fields.getCellTypes();
+        double[] velocityX = fields.getVelocityX();
+        double[] velocityY = fields.getVelocityY();
+        double max = 0;
+        for (int idx = 0; idx < fields.getSize(); idx++) {
+            if (types[idx] == CellType.AIR) {
+                double x = Math.abs(velocityX[idx]);
+                double y = Math.abs(velocityY[idx]);
+                if (x > max) {
+                    max = x;
+                }
+                if (y > max) {
+                    max = y;
+                }
+            }
+        }
+        return max;
+    }
+
+    public double getCfl() {
+        return cfl;
+    }
+
+    // cells a back trace may cross per step
+    public void setCfl(double cfl) {
+        this.cfl = cfl;
+    }
+
+    public double getMinTime() {
+        return minTime;
+    }
+
+    // the shortest step, even when the flow is faster than the CFL condition allows for it
+    public void setMinTime(double minTime) {
+        this.minTime = minTime;
+    }
+
+    public double getMaxTime() {
+        return maxTime;
+    }
+
+    public void setMaxTime(double maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    public int getMaxSubsteps() {
+        return maxSubsteps;
+    }
+
+    // substeps advance takes at most
+    public void setMaxSubsteps(int maxSubsteps) {
+        if (maxSubsteps < 1) {
+            throw new IllegalArgumentException("max substeps must be at least 1, got " + maxSubsteps);
+        }
+        this.maxSubsteps = maxSubsteps;
+    }
+
+    // length of the last step chosen
+    public double getLastTime() {
+        return lastTime;
+    }
+
+    // steps of the last advance, advanceUpTo or step
+    public int getLastSubsteps() {
+        return lastSubsteps;
+    }
+
+    // largest velocity component the last step was chosen for
+    public double getMaxVelocity() {
+        return maxVelocity;
+    }
+
+    public double getDroppedTime() {
+        return droppedTime;
+    }
+}
@@ -0,0 +1,96 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.AllocationProbe;
+import com.fluidsim.Environment;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts heap bytes allocated by the current thread or by all threads, using the
+ * HotSpot extension of ThreadMXBean. Used to check that a warmed up Environment.step allocates nothing.
+ */
+public final class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean THREADS = lookup();
+
+    private AllocationCounter() {
+    }
+
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    // bytes allocated by the calling thread so far, -1 when the JVM can't tell
+    public static long allocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // for StepMetrics, null when the JVM can't count allocations
+    public static AllocationProbe probe() {
+        if (THREADS == null) {
+            return null;
+        }
+        return new AllocationProbe() {
+            @Override
+            public long allocatedBytes() {
+                return AllocationCounter.allocatedBytes();
+            }
+        };
+    }
+
+    // bytes allocated by every live thread so far, the workers of a ParallelStepExecutor included
+    public static long allThreadsAllocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Runs warmup steps, then measures the bytes allocated by the given number of steps on
+     * every thread, so a parallel step counts its workers too. Anything else allocating at
+     * the same time counts as well, measure where nothing else runs, e.g. in a test.
+     * @return allocated bytes per step, -1 if allocation counting is not supported
+     */
+    public static long bytesPerStep(Environment env, double time, int accuracy, int warmup, int steps) {
+        for (int i = 0; i < warmup; i++) {
+            env.step(time, accuracy);
+        }
+        // asking allocates the arrays of thread ids and counts, that much is taken off again
+        long start = allThreadsAllocatedBytes();
+        long before = allThreadsAllocatedBytes();
+        for (int i = 0; i < steps; i++) {
+            env.step(time, accuracy);
+        }
+        long after = allThreadsAllocatedBytes();
+        if (before < 0 || after < 0) {
+            return -1;
+        }
+        return Math.max(0, after - before - (before - start)) / Math.max(1, steps);
+    }
+
+    private static com.sun.management.ThreadMXBean lookup() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        return threads;
+    }
+}
@@ -0,0 +1,263 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary checkpoint of an Environment, written through a file channel and read through memory
+ * mapped files. Layout, little endian:
+ *
+ * int magic "FSCP", int version, int width, int height, long step,
+ * double cellSize, density, vorticity, gravity, airmass, long checksum,
+ * then width * height doubles each of velocity x, velocity y, pressure, temperature and the
+ * pressure guess of the next warm started solve, then width * height cell type bytes, all
+ * row-major like the field store. With the guess a restored run continues exactly.
+ *
+ * The checksum takes the header values and the raw bits of every field in file order, a
+ * whole word at a time like FNV-1a takes a byte, with the FNV constants. Every product is
+ * folded down onto its low bits, so each bit of the data reaches every bit of the checksum.
+ *
+ * Saving writes the sections in chunks through one direct buffer into a temporary file next
+ * to the target and renames it, a crash while saving leaves the previous checkpoint intact.
+ * Nothing of the temporary file is mapped, Windows can't replace a file that still is.
+ * Restoring maps each section on its own and copies it with one bulk transfer, so a field
+ * can be as large as a single mapping allows (2 GB).
+ */
+public final class Checkpoint {
+
+    public static final int MAGIC = 0x50435346;
+
+    // 1 had a checksum that didn't fold its products down
+    public static final int VERSION = 2;
+
+    // everything up to the first field
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 5 * 8 + 8;
+
+    private static final int CHECKSUM_OFFSET = HEADER_BYTES - 8;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int DOUBLE_FIELDS = 5;
+
+    // values per bulk read of a mapped field and per write of a section
+    private static final int CHUNK = 8192;
+
+    private Checkpoint() {
+    }
+
+    // step is whatever the caller counts, it comes back from restore
+    public static void save(Environment env, long step, File file) throws IOException {
+        FieldStore fields = env.getFields();
+        double[][] arrays = {fields.getVelocityX(), fields.getVelocityY(), fields.getPressure(),
+                fields.getTemperature(), env.getPressureGuess()};
+        long checksum = header(FNV_OFFSET, fields.getWidth(), fields.getHeight(), step, env);
+        for (double[] array : arrays) {
+            checksum = hash(checksum, array);
+        }
+        checksum = hash(checksum, fields.getCellTypes());
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK * 8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(fields.getWidth()).putInt(fields.getHeight()).putLong(step);
+            buffer.putDouble(env.getCellSize()).putDouble(env.getDensity()).putDouble(env.getVorticity())
+                    .putDouble(env.getGravity()).putDouble(env.getAirmass()).putLong(checksum);
+            buffer.flip();
+            write(channel, buffer);
+            for (double[] array : arrays) {
+                write(channel, buffer, array);
+            }
+            write(channel, buffer, fields.getCellTypes());
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the checkpoint into the environment, resizing it if the grid differs, and its
+     * pressure guess. The environment is only touched once the checksum matched.
+     * Returns the step the checkpoint was saved at.
+     */
+    public static long restore(Environment env, File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is too short to be a checkpoint");
+            }
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has checkpoint version " + version + ", expected " + VERSION);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            long step = header.getLong();
+            double cellSize = header.getDouble();
+            double density = header.getDouble();
+            double vorticity = header.getDouble();
+            double gravity = header.getDouble();
+            double airmass = header.getDouble();
+            long expected = header.getLong(CHECKSUM_OFFSET);
+            long size = (long) width * height;
+            if (width <= 0 || height <= 0 || channel.size() != HEADER_BYTES + size * (DOUBLE_FIELDS * 8 + 1)) {
+                throw new IOException(file + " is truncated or has a bad header, " + width + "x" + height
+                        + " in " + channel.size() + " bytes");
+            }
+
+            MappedByteBuffer[] sections = new MappedByteBuffer[DOUBLE_FIELDS + 1];
+            long offset = HEADER_BYTES;
+            for (int a = 0; a < DOUBLE_FIELDS; a++) {
+                sections[a] = map(channel, FileChannel.MapMode.READ_ONLY, offset, size * 8);
+                offset += size * 8;
+            }
+            sections[DOUBLE_FIELDS] = map(channel, FileChannel.MapMode.READ_ONLY, offset, size);
+
+            long checksum = FNV_OFFSET;
+            checksum = hashInts(checksum, width, height);
+            checksum = hashLongs(checksum, step, Double.doubleToRawLongBits(cellSize),
+                    Double.doubleToRawLongBits(density), Double.doubleToRawLongBits(vorticity),
+                    Double.doubleToRawLongBits(gravity), Double.doubleToRawLongBits(airmass));
+            double[] chunk = new double[CHUNK];
+            for (int a = 0; a < DOUBLE_FIELDS; a++) {
+                checksum = hash(checksum, sections[a].asDoubleBuffer(), chunk);
+            }
+            byte[] types = new byte[(int) size];
+            sections[DOUBLE_FIELDS].get(types);
+            checksum = hash(checksum, types);
+            if (checksum != expected) {
+                throw new IOException(file + " is corrupt, checksum mismatch");
+            }
+
+            if (env.getWidth() != width || env.getHeight() != height) {
+                env.resize(width, height);
+            }
+            env.setCellSize(cellSize);
+            env.setDensity(density);
+            env.setVorticity(vorticity);
+            env.setGravity(gravity);
+            env.setAirmass(airmass);
+            FieldStore fields = env.getFields();
+            sections[0].asDoubleBuffer().get(fields.getVelocityX());
+            sections[1].asDoubleBuffer().get(fields.getVelocityY());
+            sections[2].asDoubleBuffer().get(fields.getPressure());
+            sections[3].asDoubleBuffer().get(fields.getTemperature());
+            System.arraycopy(types, 0, fields.getCellTypes(), 0, types.length);
+            // read through the mapping straight into the guess, it is only copied on to the float step
+            double[] guess = env.getPressureGuess();
+            sections[4].asDoubleBuffer().get(guess);
+            env.setPressureGuess(guess);
+            return step;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        for (int start = 0; start < values.length; start += CHUNK) {
+            int count = Math.min(CHUNK, values.length - start);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, start, count);
+            buffer.limit(count * 8);
+            write(channel, buffer);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, byte[] values) throws IOException {
+        for (int start = 0; start < values.length; start += buffer.capacity()) {
+            int count = Math.min(buffer.capacity(), values.length - start);
+            buffer.clear();
+            buffer.put(values, start, count);
+            buffer.flip();
+            write(channel, buffer);
+        }
+    }
+
+    // a channel may take fewer bytes than it was given
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // mappings are released by the garbage collector, closing the channel doesn't unmap them
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long length)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long header(long checksum, int width, int height, long step, Environment env) {
+        checksum = hashInts(checksum, width, height);
+        return hashLongs(checksum, step, Double.doubleToRawLongBits(env.getCellSize()),
+                Double.doubleToRawLongBits(env.getDensity()), Double.doubleToRawLongBits(env.getVorticity()),
+                Double.doubleToRawLongBits(env.getGravity()), Double.doubleToRawLongBits(env.getAirmass()));
+    }
+
+    private static long hashInts(long checksum, int... values) {
+        for (int value : values) {
+            checksum = mix(checksum, value);
+        }
+        return checksum;
+    }
+
+    private static long hashLongs(long checksum, long... values) {
+        for (long value : values) {
+            checksum = mix(checksum, value);
+        }
+        return checksum;
+    }
+
+    private static long hash(long checksum, double[] values) {
+        for (double value : values) {
+            checksum = mix(checksum, Double.doubleToRawLongBits(value));
+        }
+        return checksum;
+    }
+
+    private static long hash(long checksum, DoubleBuffer values, double[] chunk) {
+        while (values.hasRemaining()) {
+            int count = Math.min(chunk.length, values.remaining());
+            values.get(chunk, 0, count);
+            for (int k = 0; k < count; k++) {
+                checksum = mix(checksum, Double.doubleToRawLongBits(chunk[k]));
+            }
+        }
+        return checksum;
+    }
+
+    private static long hash(long checksum, byte[] values) {
+        for (byte value : values) {
+            checksum = mix(checksum, value);
+        }
+        return checksum;
+    }
+
+    // a multiply only carries bits upwards, the shift brings the high ones back down
+    private static long mix(long checksum, long value) {
+        checksum = (checksum ^ value) * FNV_PRIME;
+        return checksum ^ (checksum >>> 29);
+    }
+}
@@ -0,0 +1,129 @@
+package com.fluidsim.jvm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a whole ensemble output written by EnsembleWriter into memory, ensembles are small
+ * enough for that. A record cut off by a crash is ignored.
+ */
+public class EnsembleReader {
+
+    private final int columns;
+
+    private final int[] widths;
+
+    private final int[] heights;
+
+    private final String[] labels;
+
+    private final long[] firstSteps;
+
+    private final int[] stepCounts;
+
+    private final float[][] values;
+
+    public EnsembleReader(File file) throws IOException {
+        ByteBuffer data;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to read at once");
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            in.close();
+        }
+        if (data.remaining() < 16 || data.getInt() != EnsembleWriter.MAGIC) {
+            throw new IOException(file + " is not an ensemble output");
+        }
+        int version = data.getInt();
+        if (version != EnsembleWriter.VERSION) {
+            throw new IOException(file + " has ensemble version " + version + ", expected " + EnsembleWriter.VERSION);
+        }
+        int count = data.getInt();
+        this.columns = data.getInt();
+        this.widths = new int[count];
+        this.heights = new int[count];
+        this.labels = new String[count];
+        for (int m = 0; m < count; m++) {
+            widths[m] = data.getInt();
+            heights[m] = data.getInt();
+            byte[] label = new byte[data.getShort()];
+            data.get(label);
+            labels[m] = new String(label, StandardCharsets.UTF_8);
+        }
+
+        this.firstSteps = new long[count];
+        this.stepCounts = new int[count];
+        this.values = new float[count][64 * columns];
+        while (data.remaining() >= EnsembleWriter.RECORD_HEADER_BYTES) {
+            int member = data.getInt();
+            long first = data.getLong();
+            int steps = data.getInt();
+            int floats = steps * columns;
+            if (member < 0 || member >= count || steps < 0 || data.remaining() < floats * 4L) {
+                break;
+            }
+            if (stepCounts[member] == 0) {
+                firstSteps[member] = first;
+            } else if (first != firstSteps[member] + stepCounts[member]) {
+                throw new IOException("member " + member + " skips from step "
+                        + (firstSteps[member] + stepCounts[member] - 1) + " to " + first);
+            }
+            int offset = stepCounts[member] * columns;
+            if (offset + floats > values[member].length) {
+                float[] grown = new float[Math.max(values[member].length * 2, offset + floats)];
+                System.arraycopy(values[member], 0, grown, 0, offset);
+                values[member] = grown;
+            }
+            data.asFloatBuffer().get(values[member], offset, floats);
+            data.position(data.position() + floats * 4);
+            stepCounts[member] += steps;
+        }
+    }
+
+    public int getMemberCount() {
+        return labels.length;
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    public String getLabel(int member) {
+        return labels[member];
+    }
+
+    public int getWidth(int member) {
+        return widths[member];
+    }
+
+    public int getHeight(int member) {
+        return heights[member];
+    }
+
+    // step number of the first recorded row of the member
+    public long getFirstStep(int member) {
+        return firstSteps[member];
+    }
+
+    public int getStepCount(int member) {
+        return stepCounts[member];
+    }
+
+    // column of the row'th recorded step of the member, see EnsembleWriter.columnName
+    public float getValue(int member, int row, int column) {
+        if (row < 0 || row >= stepCounts[member]) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + stepCounts[member]);
+        }
+        return values[member][row * columns + column];
+    }
+}
@@ -0,0 +1,303 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FluidField;
+import com.fluidsim.SerialStepExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps many independent Environments at once, e.g. the members of a parameter study.
+ * Grids that are too small to split into row bands still fill every core this way, each
+ * member is stepped serially and the pool works on different members in parallel.
+ *
+ * Every worker has a home block of members and steps them one after the other, a chunk of
+ * steps at a time, so a member keeps coming back to the same thread and its fields stay in
+ * that core's cache. A worker whose own members are all finished or taken steals chunks
+ * from the other blocks, from the end their owners get to last. The statistics of every
+ * step are gathered per member and handed to an EnsembleWriter after each chunk.
+ */
+public class EnsembleRunner {
+
+    public static final int DEFAULT_CHUNK_STEPS = 16;
+
+    private final int parallelism;
+
+    private final int chunkSteps;
+
+    private final List<Environment> members;
+
+    private final List<String> labels;
+
+    private final Worker[] workers;
+
+    // steps each member has taken, only written by the worker holding the member
+    private long[] stepCounts;
+
+    // step count each member reaches in the current run
+    private long[] targets;
+
+    // 1 while a worker steps the member
+    private AtomicIntegerArray taken;
+
+    // rows of the chunk a member is in
+    private float[][] chunkValues;
+
+    private final AtomicInteger finished;
+
+    private final AtomicInteger pending;
+
+    private volatile double time;
+
+    private volatile int accuracy;
+
+    private volatile EnsembleWriter writer;
+
+    // bumped once per run, workers wake up when it changes
+    private volatile int generation;
+
+    private volatile boolean running;
+
+    private volatile Thread caller;
+
+    private volatile Throwable failure;
+
+    public EnsembleRunner(int threads) {
+        this(threads, DEFAULT_CHUNK_STEPS);
+    }
+
+    public EnsembleRunner(int threads, int chunkSteps) {
+        if (threads < 1 || chunkSteps < 1) {
+            throw new IllegalArgumentException("threads and chunk steps must be at least 1, got " + threads + " and "
+                    + chunkSteps);
+        }
+        this.parallelism = threads;
+        this.chunkSteps = chunkSteps;
+        this.members = new ArrayList<Environment>();
+        this.labels = new ArrayList<String>();
+        this.finished = new AtomicInteger();
+        this.pending = new AtomicInteger();
+        this.stepCounts = new long[0];
+        this.running = true;
+        this.workers = new Worker[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i + 1);
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Adds a member, the runner owns it from here on. Its phases run serially and the
+     * statistics of the velocities and the pressure are switched on for the summaries.
+     * @return index of the member in the output
+     */
+    public int add(String label, Environment env) {
+        if (pending.get() != 0) {
+            throw new IllegalStateException("members can't be added while running");
+        }
+        env.setStepExecutor(new SerialStepExecutor());
+        for (FluidField field : EnsembleWriter.FIELDS) {
+            env.setStatisticsEnabled(field, true);
+        }
+        members.add(env);
+        labels.add(label);
+        long[] grown = new long[members.size()];
+        System.arraycopy(stepCounts, 0, grown, 0, stepCounts.length);
+        this.stepCounts = grown;
+        return members.size() - 1;
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    public Environment getMember(int member) {
+        return members.get(member);
+    }
+
+    public String getLabel(int member) {
+        return labels.get(member);
+    }
+
+    // steps the member has taken so far
+    public long getStepCount(int member) {
+        return stepCounts[member];
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getChunkSteps() {
+        return chunkSteps;
+    }
+
+    /**
+     * Steps every member the given number of times and returns once all are done. The
+     * statistics of each step go to the writer, which may be null.
+     */
+    public void run(int steps, double time, int accuracy, EnsembleWriter writer) throws IOException {
+        if (!running) {
+            throw new IllegalStateException("runner has been shut down");
+        }
+        int count = members.size();
+        if (count == 0 || steps <= 0) {
+            return;
+        }
+        if (taken == null || taken.length() != count) {
+            this.taken = new AtomicIntegerArray(count);
+            this.targets = new long[count];
+            this.chunkValues = new float[count][chunkSteps * EnsembleWriter.COLUMNS];
+        }
+        for (int m = 0; m < count; m++) {
+            targets[m] = stepCounts[m] + steps;
+        }
+        this.time = time;
+        this.accuracy = accuracy;
+        this.writer = writer;
+        this.caller = Thread.currentThread();
+        this.failure = null;
+        finished.set(0);
+        pending.set(workers.length);
+        generation++;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        try {
+            work(0);
+        } finally {
+            while (pending.get() != 0) {
+                LockSupport.park(this);
+            }
+            this.writer = null;
+        }
+        Throwable t = failure;
+        if (t != null) {
+            failure = null;
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new RuntimeException("ensemble member failed on a worker thread", t);
+        }
+    }
+
+    // stops the worker threads, the runner can't be used afterwards
+    public void shutdown() {
+        running = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private void work(int worker) {
+        int count = members.size();
+        while (finished.get() < count && failure == null) {
+            int member = claim(worker, count);
+            if (member < 0) {
+                // every unfinished member is being stepped by another worker
+                LockSupport.parkNanos(this, 50000L);
+                continue;
+            }
+            try {
+                runChunk(member);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                taken.set(member, 0);
+            }
+        }
+    }
+
+    // the home block front to back, then the other blocks back to front
+    private int claim(int worker, int count) {
+        int start = blockStart(worker, count);
+        int end = blockStart(worker + 1, count);
+        for (int m = start; m < end; m++) {
+            if (tryClaim(m)) {
+                return m;
+            }
+        }
+        for (int other = 1; other < parallelism; other++) {
+            int victim = (worker + other) % parallelism;
+            int victimStart = blockStart(victim, count);
+            for (int m = blockStart(victim + 1, count) - 1; m >= victimStart; m--) {
+                if (tryClaim(m)) {
+                    return m;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean tryClaim(int member) {
+        if (stepCounts[member] >= targets[member] || !taken.compareAndSet(member, 0, 1)) {
+            return false;
+        }
+        // the step count read before the claim may have been stale
+        if (stepCounts[member] >= targets[member]) {
+            taken.set(member, 0);
+            return false;
+        }
+        return true;
+    }
+
+    private int blockStart(int worker, int count) {
+        return (int) ((long) count * worker / parallelism);
+    }
+
+    private void runChunk(int member) throws IOException {
+        Environment env = members.get(member);
+        long first = stepCounts[member];
+        int steps = (int) Math.min(chunkSteps, targets[member] - first);
+        float[] values = chunkValues[member];
+        for (int s = 0; s < steps; s++) {
+            env.step(time, accuracy);
+            EnsembleWriter.summarize(env, values, s * EnsembleWriter.COLUMNS);
+        }
+        EnsembleWriter out = writer;
+        if (out != null) {
+            out.write(member, first + 1, steps, values);
+        }
+        stepCounts[member] = first + steps;
+        if (first + steps == targets[member]) {
+            finished.incrementAndGet();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final int index;
+
+        private final Thread thread;
+
+        private Worker(int index) {
+            this.index = index;
+            this.thread = new Thread(this, "fluidsim-ensemble-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int seen = 0;
+            while (true) {
+                int current;
+                while ((current = generation) == seen && running) {
+                    LockSupport.park(this);
+                }
+                if (!running) {
+                    return;
+                }
+                seen = current;
+                work(index);
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStatistics;
+import com.fluidsim.FluidField;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the per step statistics of the members of an EnsembleRunner to one file, read
+ * back by EnsembleReader.
+ *
+ * File, little endian: int magic "FSEN", int version, int member count, int column count,
+ * then per member int width, int height and its label as a short byte length and UTF-8
+ * bytes. After that come the records the workers hand over, one per chunk: int member,
+ * long first step, int step count and count rows of float columns. Records of different
+ * members are interleaved, the records of one member are in step order.
+ */
+public class EnsembleWriter implements Closeable {
+
+    static final int MAGIC = 0x4e455346;
+
+    static final int VERSION = 1;
+
+    static final int RECORD_HEADER_BYTES = 4 + 8 + 4;
+
+    // fields summarised per step, each as min, max, mean and rms
+    static final FluidField[] FIELDS = {FluidField.VELOCITY_X, FluidField.VELOCITY_Y, FluidField.PRESSURE};
+
+    // the field columns, then pressure iterations and residual
+    public static final int COLUMNS = FIELDS.length * 4 + 2;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private boolean closed;
+
+    public EnsembleWriter(File file, EnsembleRunner runner) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int count = runner.getMemberCount();
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(COLUMNS);
+            for (int m = 0; m < count; m++) {
+                Environment env = runner.getMember(m);
+                byte[] label = runner.getLabel(m).getBytes(StandardCharsets.UTF_8);
+                if (label.length > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("label of member " + m + " is too long");
+                }
+                ensureRoom(4 + 4 + 2 + label.length);
+                buffer.putInt(env.getWidth()).putInt(env.getHeight()).putShort((short) label.length).put(label);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    // name of a column, e.g. VELOCITY_X.rms or iterations
+    public static String columnName(int column) {
+        int fieldColumns = FIELDS.length * 4;
+        if (column < fieldColumns) {
+            String[] kinds = {"min", "max", "mean", "rms"};
+            return FIELDS[column / 4].name() + "." + kinds[column % 4];
+        }
+        return column == fieldColumns ? "iterations" : "residual";
+    }
+
+    // the columns of the last step of env, from offset on
+    static void summarize(Environment env, float[] values, int offset) {
+        FieldStatistics statistics = env.getStatistics();
+        int c = offset;
+        for (FluidField field : FIELDS) {
+            values[c++] = (float) statistics.getMin(field);
+            values[c++] = (float) statistics.getMax(field);
+            values[c++] = (float) statistics.getMean(field);
+            values[c++] = (float) statistics.getRms(field);
+        }
+        values[c++] = env.getPressureIterations();
+        values[c] = (float) env.getPressureResidual();
+    }
+
+    // called by the workers after each chunk, the rows of steps count steps from values
+    synchronized void write(int member, long firstStep, int steps, float[] values) throws IOException {
+        if (closed) {
+            throw new IOException("ensemble output is closed");
+        }
+        ensureRoom(RECORD_HEADER_BYTES);
+        buffer.putInt(member).putLong(firstStep).putInt(steps);
+        int end = steps * COLUMNS;
+        for (int v = 0; v < end; v++) {
+            ensureRoom(4);
+            buffer.putFloat(values[v]);
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.fluidsim.jvm;
+
+/**
+ * Container layout and frame encoding shared by FrameRecorder and FrameReader.
+ *
+ * File, little endian: int magic "FSFR", int version, int width, int height,
+ * int keyframe interval, int mantissa bits, width * height cell type bytes, then one chunk per frame and
+ * finally the index. A chunk is int chunk magic, long step, int flags, int compressed
+ * length and the deflated frame. The index is a long offset and a long step per frame,
+ * followed by long index offset, int frame count and int index magic as the last
+ * 16 bytes of the file. A file without an index, e.g. after a crash, can still be read
+ * by scanning the chunks.
+ *
+ * A frame holds velocity x, velocity y and pressure. Every value is XORed with the same
+ * value of the previous frame, keyframes are stored as they are, and the bytes of the
+ * 64 bit words are split into eight planes, so the high bytes that rarely change between
+ * frames end up next to each other as long runs of zeros for the deflater.
+ * Before that every value can be rounded to fewer mantissa bits. The low bytes of a
+ * turbulent field are noise that doesn't compress, dropping them is what makes frames
+ * small and cheap to write. 52 bits keep every value exactly.
+ */
+final class FrameCodec {
+
+    static final int MAGIC = 0x52465346;
+
+    static final int VERSION = 1;
+
+    static final int CHUNK_MAGIC = 0x4d415246;
+
+    static final int INDEX_MAGIC = 0x58444e49;
+
+    static final int FIELDS = 3;
+
+    static final int HEADER_BYTES = 6 * 4;
+
+    // all of a double's mantissa, lossless
+    static final int FULL_MANTISSA = 52;
+
+    static final int CHUNK_HEADER_BYTES = 4 + 8 + 4 + 4;
+
+    static final int INDEX_ENTRY_BYTES = 8 + 8;
+
+    static final int INDEX_TAIL_BYTES = 8 + 4 + 4;
+
+    static final int KEYFRAME = 1;
+
+    private FrameCodec() {
+    }
+
+    // planes below the first one holding a kept mantissa bit are always zero and not stored
+    static int firstPlane(int mantissaBits) {
+        return (FULL_MANTISSA - mantissaBits) / 8;
+    }
+
+    static int planeBytes(int size, int mantissaBits) {
+        return FIELDS * size * (8 - firstPlane(mantissaBits));
+    }
+
+    // previous holds the bits of the last frame and is updated to this one
+    static void encode(double[][] fields, long[] previous, boolean keyframe, int mantissaBits, byte[] planes) {
+        int size = fields[0].length;
+        int dropped = FULL_MANTISSA - mantissaBits;
+        long mask = -1L << dropped;
+        // rounds to nearest, a carry into the exponent is still the nearest value
+        long half = dropped == 0 ? 0 : 1L << (dropped - 1);
+        int first = firstPlane(mantissaBits);
+        int stored = 8 - first;
+        for (int f = 0; f < FIELDS; f++) {
+            double[] field = fields[f];
+            int base = f * size;
+            int plane = f * stored * size;
+            for (int i = 0; i < size; i++) {
+                long bits = (Double.doubleToRawLongBits(field[i]) + half) & mask;
+                long delta = keyframe ? bits : bits ^ previous[base + i];
+                previous[base + i] = bits;
+                for (int b = first; b < 8; b++) {
+                    planes[plane + (b - first) * size + i] = (byte) (delta >>> (8 * b));
+                }
+            }
+        }
+    }
+
+    static void decode(byte[] planes, long[] previous, boolean keyframe, int mantissaBits, double[][] fields) {
+        int size = fields[0].length;
+        int first = firstPlane(mantissaBits);
+        int stored = 8 - first;
+        for (int f = 0; f < FIELDS; f++) {
+            double[] field = fields[f];
+            int base = f * size;
+            int plane = f * stored * size;
+            for (int i = 0; i < size; i++) {
+                long delta = 0;
+                for (int b = first; b < 8; b++) {
+                    delta |= (planes[plane + (b - first) * size + i] & 0xffL) << (8 * b);
+                }
+                long bits = keyframe ? delta : delta ^ previous[base + i];
+                previous[base + i] = bits;
+                field[i] = Double.longBitsToDouble(bits);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.FieldStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames of a recording made by FrameRecorder, in any order. Reading the next
+ * frame only decodes that one, any other frame decodes forward from the keyframe before it.
+ * Recordings that were not closed have no index, their chunks are scanned instead and a
+ * truncated last chunk is ignored.
+ */
+public class FrameReader implements Closeable {
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final int width;
+
+    private final int height;
+
+    private final int keyframeInterval;
+
+    private final int mantissaBits;
+
+    private final byte[] cellTypes;
+
+    private long[] offsets;
+
+    private long[] steps;
+
+    private int frameCount;
+
+    private final long[] previous;
+
+    private final byte[] planes;
+
+    private final Inflater inflater;
+
+    private byte[] compressed;
+
+    private final ByteBuffer chunkHeader;
+
+    // frame the previous values belong to, -1 before the first read
+    private int decoded;
+
+    public FrameReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            ByteBuffer header = read(0, FrameCodec.HEADER_BYTES);
+            if (header.getInt() != FrameCodec.MAGIC) {
+                throw new IOException(file + " is not a frame recording");
+            }
+            int version = header.getInt();
+            if (version != FrameCodec.VERSION) {
+                throw new IOException(file + " has recording version " + version + ", expected " + FrameCodec.VERSION);
+            }
+            this.width = header.getInt();
+            this.height = header.getInt();
+            this.keyframeInterval = header.getInt();
+            this.mantissaBits = header.getInt();
+            int size = width * height;
+            this.cellTypes = new byte[size];
+            read(FrameCodec.HEADER_BYTES, size).get(cellTypes);
+            if (!readIndex()) {
+                scanChunks();
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        int size = width * height;
+        this.previous = new long[FrameCodec.FIELDS * size];
+        this.planes = new byte[FrameCodec.planeBytes(size, mantissaBits)];
+        this.inflater = new Inflater();
+        this.compressed = new byte[planes.length / 2 + 1024];
+        this.chunkHeader = ByteBuffer.allocate(FrameCodec.CHUNK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.decoded = -1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // 52 when the values were recorded exactly
+    public int getMantissaBits() {
+        return mantissaBits;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public long getStep(int frame) {
+        return steps[frame];
+    }
+
+    /**
+     * Decodes a frame into the velocities and pressure of the target, which must have the
+     * size of the recording, and copies the recorded cell types.
+     */
+    public void read(int frame, FieldStore target) throws IOException {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + frame + " of " + frameCount);
+        }
+        if (target.getWidth() != width || target.getHeight() != height) {
+            throw new IllegalArgumentException("field store is " + target.getWidth() + "x" + target.getHeight()
+                    + ", recording is " + width + "x" + height);
+        }
+        double[][] fields = {target.getVelocityX(), target.getVelocityY(), target.getPressure()};
+        int first = frame == decoded + 1 ? frame : frame - frame % keyframeInterval;
+        for (int f = first; f <= frame; f++) {
+            decode(f, fields);
+        }
+        System.arraycopy(cellTypes, 0, target.getCellTypes(), 0, cellTypes.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    private void decode(int frame, double[][] fields) throws IOException {
+        chunkHeader.clear();
+        readFully(chunkHeader, offsets[frame]);
+        chunkHeader.flip();
+        if (chunkHeader.getInt() != FrameCodec.CHUNK_MAGIC) {
+            throw new IOException("frame " + frame + " has no chunk header");
+        }
+        chunkHeader.getLong();
+        boolean keyframe = (chunkHeader.getInt() & FrameCodec.KEYFRAME) != 0;
+        int length = chunkHeader.getInt();
+        if (length > compressed.length) {
+            compressed = new byte[length];
+        }
+        readFully(ByteBuffer.wrap(compressed, 0, length), offsets[frame] + FrameCodec.CHUNK_HEADER_BYTES);
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            int total = 0;
+            while (total < planes.length && !inflater.finished()) {
+                int count = inflater.inflate(planes, total, planes.length - total);
+                if (count == 0 && inflater.needsInput()) {
+                    break;
+                }
+                total += count;
+            }
+            if (total != planes.length) {
+                throw new IOException("frame " + frame + " is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("frame " + frame + " is corrupt", e);
+        }
+        if (!keyframe && decoded != frame - 1) {
+            throw new IOException("frame " + frame + " needs frame " + (frame - 1) + " decoded first");
+        }
+        // a failed decode leaves nothing to continue from
+        decoded = -1;
+        FrameCodec.decode(planes, previous, keyframe, mantissaBits, fields);
+        decoded = frame;
+    }
+
+    private boolean readIndex() throws IOException {
+        long length = channel.size();
+        long dataStart = FrameCodec.HEADER_BYTES + (long) width * height;
+        if (length < dataStart + FrameCodec.INDEX_TAIL_BYTES) {
+            return false;
+        }
+        ByteBuffer tail = read(length - FrameCodec.INDEX_TAIL_BYTES, FrameCodec.INDEX_TAIL_BYTES);
+        long indexOffset = tail.getLong();
+        int count = tail.getInt();
+        if (tail.getInt() != FrameCodec.INDEX_MAGIC || count < 0
+                || indexOffset + (long) count * FrameCodec.INDEX_ENTRY_BYTES + FrameCodec.INDEX_TAIL_BYTES != length) {
+            return false;
+        }
+        ByteBuffer index = read(indexOffset, count * FrameCodec.INDEX_ENTRY_BYTES);
+        this.offsets = new long[count];
+        this.steps = new long[count];
+        for (int f = 0; f < count; f++) {
+            offsets[f] = index.getLong();
+            steps[f] = index.getLong();
+        }
+        this.frameCount = count;
+        return true;
+    }
+
+    private void scanChunks() throws IOException {
+        long length = channel.size();
+        long position = FrameCodec.HEADER_BYTES + (long) width * height;
+        this.offsets = new long[64];
+        this.steps = new long[64];
+        int count = 0;
+        while (position + FrameCodec.CHUNK_HEADER_BYTES <= length) {
+            ByteBuffer header = read(position, FrameCodec.CHUNK_HEADER_BYTES);
+            if (header.getInt() != FrameCodec.CHUNK_MAGIC) {
+                break;
+            }
+            long step = header.getLong();
+            header.getInt();
+            long end = position + FrameCodec.CHUNK_HEADER_BYTES + header.getInt();
+            if (end > length) {
+                break;
+            }
+            if (count == offsets.length) {
+                long[] grownOffsets = new long[count * 2];
+                long[] grownSteps = new long[count * 2];
+                System.arraycopy(offsets, 0, grownOffsets, 0, count);
+                System.arraycopy(steps, 0, grownSteps, 0, count);
+                offsets = grownOffsets;
+                steps = grownSteps;
+            }
+            offsets[count] = position;
+            steps[count] = step;
+            count++;
+            position = end;
+        }
+        this.frameCount = count;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("unexpected end of recording");
+            }
+            position += count;
+        }
+    }
+}
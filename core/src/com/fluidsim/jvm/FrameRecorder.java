@@ -0,0 +1,276 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Records frames of an Environment to a file, see FrameCodec for the format. The stepping
+ * thread only copies the fields into a free frame buffer, encoding, compressing and writing
+ * happen on a thread of their own. When every buffer is still queued the frame is dropped
+ * instead of waiting, so recording never stalls the step. Offering allocates nothing.
+ */
+public class FrameRecorder implements Closeable {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    // as precise as a float, plenty for looking at a flow
+    public static final int DEFAULT_MANTISSA_BITS = 23;
+
+    // handed to the writer by close, ends its loop
+    private static final Frame END = new Frame(0);
+
+    private final int width;
+
+    private final int height;
+
+    private final int keyframeInterval;
+
+    private final int mantissaBits;
+
+    private final ArrayBlockingQueue<Frame> free;
+
+    private final ArrayBlockingQueue<Frame> queued;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final Thread thread;
+
+    // owned by the writer thread
+    private final long[] previous;
+
+    private final byte[] planes;
+
+    private final Deflater deflater;
+
+    private byte[] compressed;
+
+    private final ByteBuffer chunkHeader;
+
+    private long[] offsets;
+
+    private long[] steps;
+
+    private volatile int written;
+
+    private volatile long dropped;
+
+    private volatile IOException failure;
+
+    private boolean closed;
+
+    public FrameRecorder(File file, Environment env, int queueSize) throws IOException {
+        this(file, env, queueSize, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_MANTISSA_BITS);
+    }
+
+    /**
+     * Values are rounded to mantissaBits bits of mantissa, 52 records them exactly.
+     * The cell types are recorded once, walls are not expected to change during a recording.
+     */
+    public FrameRecorder(File file, Environment env, int queueSize, int keyframeInterval, int mantissaBits)
+            throws IOException {
+        if (queueSize < 1 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("queue size and keyframe interval must be at least 1, got "
+                    + queueSize + " and " + keyframeInterval);
+        }
+        if (mantissaBits < 0 || mantissaBits > FrameCodec.FULL_MANTISSA) {
+            throw new IllegalArgumentException("mantissa bits must be between 0 and 52, got " + mantissaBits);
+        }
+        this.mantissaBits = mantissaBits;
+        FieldStore fields = env.getFields();
+        this.width = fields.getWidth();
+        this.height = fields.getHeight();
+        this.keyframeInterval = keyframeInterval;
+        int size = fields.getSize();
+        this.free = new ArrayBlockingQueue<Frame>(queueSize);
+        this.queued = new ArrayBlockingQueue<Frame>(queueSize + 1);
+        for (int q = 0; q < queueSize; q++) {
+            free.add(new Frame(size));
+        }
+        this.previous = new long[FrameCodec.FIELDS * size];
+        this.planes = new byte[FrameCodec.planeBytes(size, mantissaBits)];
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        this.compressed = new byte[planes.length / 2 + 1024];
+        this.chunkHeader = ByteBuffer.allocate(FrameCodec.CHUNK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.offsets = new long[256];
+        this.steps = new long[256];
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_BYTES + size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FrameCodec.MAGIC).putInt(FrameCodec.VERSION).putInt(width).putInt(height).putInt(keyframeInterval)
+                .putInt(mantissaBits);
+        header.put(fields.getCellTypes());
+        header.flip();
+        writeFully(header);
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "fluidsim-frame-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the current fields as the frame of the given step. Returns false when the frame
+     * was dropped because the writer is behind, or has failed.
+     */
+    public boolean offer(Environment env, long step) {
+        FieldStore fields = env.getFields();
+        if (fields.getWidth() != width || fields.getHeight() != height) {
+            throw new IllegalArgumentException("environment is " + fields.getWidth() + "x" + fields.getHeight()
+                    + ", recording is " + width + "x" + height);
+        }
+        Frame frame = failure == null ? free.poll() : null;
+        if (frame == null) {
+            dropped++;
+            return false;
+        }
+        System.arraycopy(fields.getVelocityX(), 0, frame.fields[0], 0, frame.fields[0].length);
+        System.arraycopy(fields.getVelocityY(), 0, frame.fields[1], 0, frame.fields[1].length);
+        System.arraycopy(fields.getPressure(), 0, frame.fields[2], 0, frame.fields[2].length);
+        frame.step = step;
+        queued.add(frame);
+        return true;
+    }
+
+    public int getWrittenFrames() {
+        return written;
+    }
+
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    // writes the queued frames and the index, then closes the file
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queued.add(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null) {
+                writeIndex();
+            }
+        } finally {
+            deflater.end();
+            file.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Frame frame;
+            try {
+                frame = queued.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == END) {
+                return;
+            }
+            if (failure == null) {
+                try {
+                    write(frame);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            free.add(frame);
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        int index = written;
+        boolean keyframe = index % keyframeInterval == 0;
+        FrameCodec.encode(frame.fields, previous, keyframe, mantissaBits, planes);
+        deflater.reset();
+        deflater.setInput(planes);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, length);
+                compressed = grown;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        if (index == offsets.length) {
+            offsets = grow(offsets);
+            steps = grow(steps);
+        }
+        offsets[index] = channel.position();
+        steps[index] = frame.step;
+        chunkHeader.clear();
+        chunkHeader.putInt(FrameCodec.CHUNK_MAGIC).putLong(frame.step).putInt(keyframe ? FrameCodec.KEYFRAME : 0)
+                .putInt(length);
+        chunkHeader.flip();
+        writeFully(chunkHeader);
+        writeFully(ByteBuffer.wrap(compressed, 0, length));
+        written = index + 1;
+    }
+
+    private void writeIndex() throws IOException {
+        int count = written;
+        long indexOffset = channel.position();
+        ByteBuffer index = ByteBuffer.allocate(count * FrameCodec.INDEX_ENTRY_BYTES + FrameCodec.INDEX_TAIL_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f < count; f++) {
+            index.putLong(offsets[f]).putLong(steps[f]);
+        }
+        index.putLong(indexOffset).putInt(count).putInt(FrameCodec.INDEX_MAGIC);
+        index.flip();
+        writeFully(index);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static final class Frame {
+
+        private final double[][] fields;
+
+        private long step;
+
+        private Frame(int size) {
+            this.fields = new double[FrameCodec.FIELDS][size];
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.MetricsSummary;
+import com.fluidsim.StepMetrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Appends a summary of StepMetrics to a file at a fixed interval, on a thread of its own.
+ * Files ending in .csv get a header and one comma separated row per summary, anything else
+ * one JSON object per line. Each summary covers the steps since the previous one, as far as
+ * the ring holds them, times are in milliseconds.
+ */
+public class MetricsDump implements Closeable {
+
+    private final StepMetrics metrics;
+
+    private final Writer out;
+
+    private final boolean csv;
+
+    private final long intervalMillis;
+
+    private final Thread thread;
+
+    private final long startMillis;
+
+    private long lastSteps;
+
+    private volatile boolean closed;
+
+    private volatile IOException failure;
+
+    public MetricsDump(File file, StepMetrics metrics, double intervalSeconds) throws IOException {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("interval must be positive, got " + intervalSeconds);
+        }
+        this.metrics = metrics;
+        this.csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        this.intervalMillis = Math.max(1, (long) (intervalSeconds * 1000));
+        this.startMillis = System.currentTimeMillis();
+        this.lastSteps = metrics.getSteps();
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        if (csv) {
+            writeHeader();
+        }
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "fluidsim-metrics-dump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // writes a last summary and closes the file
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null) {
+                dump();
+            }
+        } finally {
+            out.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void loop() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                dump();
+            } catch (IOException e) {
+                failure = e;
+                return;
+            }
+        }
+    }
+
+    private synchronized void dump() throws IOException {
+        long steps = metrics.getSteps();
+        int window = (int) Math.min(metrics.getCapacity(), steps - lastSteps);
+        lastSteps = steps;
+        if (window <= 0) {
+            return;
+        }
+        MetricsSummary summary = metrics.summarize(window);
+        long elapsed = System.currentTimeMillis() - startMillis;
+        if (csv) {
+            writeRow(summary, elapsed);
+        } else {
+            writeJson(summary, elapsed);
+        }
+        out.flush();
+    }
+
+    private void writeHeader() throws IOException {
+        StringBuilder line = new StringBuilder("elapsed_ms,steps,window,step_p50,step_p99,step_max");
+        for (int t = 0; t < StepMetrics.TIMERS; t++) {
+            String name = StepMetrics.timerName(t).toLowerCase(Locale.ROOT);
+            line.append(',').append(name).append("_p50,").append(name).append("_p99");
+        }
+        line.append(",iterations,residual,allocated_bytes,cells_per_s,active_fraction,frame_p50,frame_p99\n");
+        out.write(line.toString());
+    }
+
+    private void writeRow(MetricsSummary summary, long elapsed) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append(elapsed).append(',').append(summary.getSteps()).append(',').append(summary.getWindow());
+        line.append(',').append(millis(summary.getStepP50())).append(',').append(millis(summary.getStepP99()));
+        line.append(',').append(millis(summary.getStepMax()));
+        for (int t = 0; t < StepMetrics.TIMERS; t++) {
+            line.append(',').append(millis(summary.getTimerP50(t))).append(',').append(millis(summary.getTimerP99(t)));
+        }
+        line.append(',').append(format("%.2f", summary.getMeanIterations()));
+        line.append(',').append(format("%.3e", summary.getLastResidual()));
+        line.append(',').append(summary.getAllocatedBytesPerStep());
+        line.append(',').append(format("%.0f", summary.getCellsPerSecond()));
+        line.append(',').append(format("%.3f", summary.getActiveFraction()));
+        line.append(',').append(millis(summary.getFrameP50())).append(',').append(millis(summary.getFrameP99()));
+        out.write(line.append('\n').toString());
+    }
+
+    private void writeJson(MetricsSummary summary, long elapsed) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"elapsed_ms\":").append(elapsed).append(",\"steps\":").append(summary.getSteps());
+        line.append(",\"window\":").append(summary.getWindow());
+        line.append(",\"step_ms\":{\"p50\":").append(millis(summary.getStepP50()));
+        line.append(",\"p99\":").append(millis(summary.getStepP99()));
+        line.append(",\"max\":").append(millis(summary.getStepMax())).append('}');
+        line.append(",\"phases_ms\":{");
+        for (int t = 0; t < StepMetrics.TIMERS; t++) {
+            line.append(t == 0 ? "" : ",").append('"').append(StepMetrics.timerName(t)).append("\":{\"p50\":");
+            line.append(millis(summary.getTimerP50(t))).append(",\"p99\":").append(millis(summary.getTimerP99(t)));
+            line.append('}');
+        }
+        line.append("},\"slowest\":\"").append(StepMetrics.timerName(summary.getSlowestTimer())).append('"');
+        line.append(",\"iterations\":").append(format("%.2f", summary.getMeanIterations()));
+        double residual = summary.getLastResidual();
+        // JSON has no NaN or infinities
+        line.append(",\"residual\":").append(Double.isNaN(residual) || Double.isInfinite(residual) ? "null"
+                : format("%.3e", residual));
+        line.append(",\"allocated_bytes\":").append(summary.getAllocatedBytesPerStep());
+        line.append(",\"cells_per_s\":").append(format("%.0f", summary.getCellsPerSecond()));
+        line.append(",\"active_fraction\":").append(format("%.3f", summary.getActiveFraction()));
+        line.append(",\"frame_ms\":{\"p50\":").append(millis(summary.getFrameP50()));
+        line.append(",\"p99\":").append(millis(summary.getFrameP99())).append("}}\n");
+        out.write(line.toString());
+    }
+
+    private static String millis(long nanos) {
+        return format("%.4f", nanos / 1e6);
+    }
+
+    // the locale decides the decimal separator, CSV and JSON need a point
+    private static String format(String pattern, double value) {
+        return String.format(Locale.ROOT, pattern, value);
+    }
+}
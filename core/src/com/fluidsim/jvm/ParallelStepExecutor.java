@@ -0,0 +1,143 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.RowBandTask;
+import com.fluidsim.StepExecutor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed pool of worker threads that splits every phase into one row band per thread.
+ * The calling thread works on the first band and then waits for the others, which is
+ * the barrier between phases. Handing out a phase allocates nothing, so stepping stays
+ * garbage free. Only one thread may call runBands at a time.
+ */
+public class ParallelStepExecutor implements StepExecutor {
+
+    private final int parallelism;
+
+    private final Worker[] workers;
+
+    private final AtomicInteger pending;
+
+    private volatile RowBandTask task;
+
+    private volatile int rows;
+
+    // bumped once per phase, workers wake up when it changes
+    private volatile int generation;
+
+    private volatile boolean running;
+
+    private volatile Thread caller;
+
+    private volatile Throwable failure;
+
+    public ParallelStepExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelStepExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.parallelism = threads;
+        this.pending = new AtomicInteger();
+        this.running = true;
+        this.workers = new Worker[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i + 1);
+            workers[i].thread.start();
+        }
+    }
+
+    @Override
+    public void runBands(RowBandTask task, int rows) {
+        if (!running) {
+            throw new IllegalStateException("executor has been shut down");
+        }
+        if (workers.length == 0) {
+            task.run(0, rows);
+            return;
+        }
+        this.task = task;
+        this.rows = rows;
+        this.caller = Thread.currentThread();
+        this.failure = null;
+        pending.set(workers.length);
+        generation++;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        try {
+            runBand(task, rows, 0);
+        } finally {
+            while (pending.get() != 0) {
+                LockSupport.park(this);
+            }
+            this.task = null;
+        }
+        Throwable t = failure;
+        if (t != null) {
+            failure = null;
+            throw new RuntimeException("step phase failed on a worker thread", t);
+        }
+    }
+
+    @Override
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // stops the worker threads, the executor can't be used afterwards
+    public void shutdown() {
+        running = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private void runBand(RowBandTask task, int rows, int band) {
+        int startRow = (int) ((long) rows * band / parallelism);
+        int endRow = (int) ((long) rows * (band + 1) / parallelism);
+        if (startRow < endRow) {
+            task.run(startRow, endRow);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final int band;
+
+        private final Thread thread;
+
+        private Worker(int band) {
+            this.band = band;
+            this.thread = new Thread(this, "fluidsim-step-" + band);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int seen = 0;
+            while (true) {
+                int current;
+                while ((current = generation) == seen && running) {
+                    LockSupport.park(this);
+                }
+                if (!running) {
+                    return;
+                }
+                seen = current;
+                try {
+                    runBand(task, rows, band);
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+import com.fluidsim.Precision;
+
+/**
+ * Validation harness for the float step. Runs a FLOAT Environment next to a DOUBLE
+ * reference from the same state and reports how far the velocities drift apart.
+ * Usage: PrecisionDrift [width] [height] [steps] [accuracy]
+ */
+public final class PrecisionDrift {
+
+    private PrecisionDrift() {
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int accuracy = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        double time = 0.03;
+
+        Environment reference = new Environment(width, height);
+        reference.initRandom();
+        reference.initFloor();
+        reference.setWarmStartPressure(true);
+        Environment candidate = new Environment(width, height);
+        candidate.setPrecision(Precision.FLOAT);
+        candidate.setWarmStartPressure(true);
+        candidate.getFields().copyFrom(reference.getFields());
+
+        int interval = Math.max(1, steps / 20);
+        long referenceNanos = 0;
+        long candidateNanos = 0;
+        System.out.println("step  relative rms drift  max abs drift  rms velocity");
+        for (int s = 1; s <= steps; s++) {
+            long start = System.nanoTime();
+            reference.step(time, accuracy);
+            long middle = System.nanoTime();
+            candidate.step(time, accuracy);
+            long end = System.nanoTime();
+            referenceNanos += middle - start;
+            candidateNanos += end - middle;
+            if (s % interval == 0 || s == steps) {
+                FieldStore a = reference.getFields();
+                FieldStore b = candidate.getFields();
+                System.out.printf("%5d  %18.3e  %13.3e  %12.4f%n", s, relativeDrift(a, b), maxDrift(a, b), rms(a));
+            }
+        }
+        System.out.printf("double %.2f ms/step, float %.2f ms/step%n",
+                referenceNanos / 1e6 / steps, candidateNanos / 1e6 / steps);
+    }
+
+    // rms of the velocity difference over the rms velocity of the reference
+    public static double relativeDrift(FieldStore reference, FieldStore candidate) {
+        double difference = 0;
+        double magnitude = 0;
+        for (int idx = 0; idx < reference.getSize(); idx++) {
+            double dx = reference.getVelocityX()[idx] - candidate.getVelocityX()[idx];
+            double dy = reference.getVelocityY()[idx] - candidate.getVelocityY()[idx];
+            difference += dx * dx + dy * dy;
+            magnitude += reference.getVelocityX()[idx] * reference.getVelocityX()[idx]
+                    + reference.getVelocityY()[idx] * reference.getVelocityY()[idx];
+        }
+        return magnitude > 0 ? Math.sqrt(difference / magnitude) : Math.sqrt(difference);
+    }
+
+    public static double maxDrift(FieldStore reference, FieldStore candidate) {
+        double max = 0;
+        for (int idx = 0; idx < reference.getSize(); idx++) {
+            max = Math.max(max, Math.abs(reference.getVelocityX()[idx] - candidate.getVelocityX()[idx]));
+            max = Math.max(max, Math.abs(reference.getVelocityY()[idx] - candidate.getVelocityY()[idx]));
+        }
+        return max;
+    }
+
+    private static double rms(FieldStore fields) {
+        double sum = 0;
+        for (int idx = 0; idx < fields.getSize(); idx++) {
+            sum += fields.getVelocityX()[idx] * fields.getVelocityX()[idx]
+                    + fields.getVelocityY()[idx] * fields.getVelocityY()[idx];
+        }
+        return Math.sqrt(sum / fields.getSize());
+    }
+}
@@ -0,0 +1,105 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldSnapshot;
+import com.fluidsim.FieldStatisticsCollector;
+import com.fluidsim.FieldStore;
+import com.fluidsim.FluidField;
+import com.fluidsim.SerialStepExecutor;
+import com.fluidsim.SimulationRunner;
+import com.fluidsim.TimestepController;
+
+import java.io.IOException;
+
+/**
+ * Plays a recording back instead of simulating, looping at the end. Frames are decoded on
+ * the render thread in update, the environment handed to start is not used.
+ */
+public class ReplaySimulationRunner implements SimulationRunner {
+
+    private final FrameReader reader;
+
+    private final double framesPerSecond;
+
+    private final FieldStore fields;
+
+    private final FieldStatisticsCollector statisticsCollector;
+
+    private final SerialStepExecutor executor;
+
+    private FieldSnapshot snapshot;
+
+    private int frame;
+
+    // frame time not yet spent on frames
+    private double pending;
+
+    // framesPerSecond <= 0 shows the next frame on every rendered frame, as fast as the display goes
+    public ReplaySimulationRunner(FrameReader reader, double framesPerSecond) {
+        this.reader = reader;
+        this.framesPerSecond = framesPerSecond;
+        this.fields = new FieldStore(reader.getWidth(), reader.getHeight());
+        this.statisticsCollector = new FieldStatisticsCollector(fields);
+        this.executor = new SerialStepExecutor();
+    }
+
+    @Override
+    public void start(Environment env, double time, int accuracy) {
+        if (reader.getFrameCount() == 0) {
+            throw new IllegalStateException("recording has no frames");
+        }
+        this.snapshot = new FieldSnapshot(reader.getWidth(), reader.getHeight());
+        // nothing beyond velocity and pressure was recorded
+        statisticsCollector.setEnabled(FluidField.TEMPERATURE, false);
+        show(0);
+    }
+
+    // the recording has its steps already
+    @Override
+    public void setTimestepController(TimestepController controller) {
+    }
+
+    @Override
+    public void update(float delta) {
+        int count;
+        if (framesPerSecond <= 0) {
+            count = 1;
+        } else {
+            pending += delta * framesPerSecond;
+            count = (int) pending;
+            pending -= count;
+        }
+        if (count > 0) {
+            show((int) ((frame + (long) count) % reader.getFrameCount()));
+        }
+    }
+
+    @Override
+    public FieldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void setStatisticsEnabled(FluidField field, boolean enabled) {
+        statisticsCollector.setEnabled(field, enabled && field != FluidField.TEMPERATURE);
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new RuntimeException("could not close the recording", e);
+        }
+    }
+
+    private void show(int next) {
+        try {
+            reader.read(next, fields);
+        } catch (IOException e) {
+            throw new RuntimeException("could not read frame " + next + " of the recording", e);
+        }
+        this.frame = next;
+        snapshot.capture(fields, statisticsCollector.collect(executor), reader.getStep(next));
+    }
+}
@@ -0,0 +1,108 @@
+package com.fluidsim.jvm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Messages between the SlabCoordinator and one SlabWorker over a blocking socket channel.
+ * Every message starts with its int id, the rest depends on the id:
+ *
+ * HELLO     worker: int rank, int port the slab below connects to
+ * SETUP     coordinator: SlabSettings, int slabs, int port of the slab above
+ * READY     worker: connected to both neighbours
+ * STEP      coordinator: double time, int accuracy
+ * REDUCE    worker: int kind, int length, length doubles
+ * RESULT    coordinator: int length, length doubles
+ * GATHER    coordinator: send the owned rows
+ * ROWS      worker: int first row, int rows, the cell type bytes, then velocity x, velocity y and pressure
+ * STOP      coordinator: the worker exits
+ * ERROR     worker: a UTF message, the worker exits
+ */
+final class SlabConnection implements Closeable {
+
+    static final int HELLO = 1;
+
+    static final int SETUP = 2;
+
+    static final int READY = 3;
+
+    static final int STEP = 4;
+
+    static final int REDUCE = 5;
+
+    static final int RESULT = 6;
+
+    static final int GATHER = 7;
+
+    static final int ROWS = 8;
+
+    static final int STOP = 9;
+
+    static final int ERROR = 10;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+
+    final DataInputStream in;
+
+    final DataOutputStream out;
+
+    // doubles go through this in bulk instead of one writeDouble each
+    private final byte[] scratch;
+
+    private final DoubleBuffer scratchDoubles;
+
+    SlabConnection(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.socket().setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_BYTES));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES));
+        this.scratch = new byte[BUFFER_BYTES];
+        this.scratchDoubles = ByteBuffer.wrap(scratch).asDoubleBuffer();
+    }
+
+    void writeDoubles(double[] values, int offset, int length) throws IOException {
+        int chunk = scratch.length / 8;
+        for (int at = offset; at < offset + length; at += chunk) {
+            int count = Math.min(chunk, offset + length - at);
+            scratchDoubles.clear();
+            scratchDoubles.put(values, at, count);
+            out.write(scratch, 0, count * 8);
+        }
+    }
+
+    void readDoubles(double[] values, int offset, int length) throws IOException {
+        int chunk = scratch.length / 8;
+        for (int at = offset; at < offset + length; at += chunk) {
+            int count = Math.min(chunk, offset + length - at);
+            in.readFully(scratch, 0, count * 8);
+            scratchDoubles.clear();
+            scratchDoubles.get(values, at, count);
+        }
+    }
+
+    // reads the id of the next message, an ERROR is thrown with the worker's message
+    void expect(int message) throws IOException {
+        int id = in.readInt();
+        if (id == ERROR) {
+            throw new IOException("slab worker failed: " + in.readUTF());
+        }
+        if (id != message) {
+            throw new IOException("expected message " + message + " but got " + id);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,286 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.FieldStatistics;
+import com.fluidsim.FieldStore;
+import com.fluidsim.SlabStep;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps a grid too large for one process as horizontal slabs, one SlabWorker process per
+ * slab on this machine. The workers swap ghost rows among themselves, the coordinator
+ * only starts them, adds up the reductions every step needs and hands the results back.
+ * The slabs step to the same numbers as one Environment in double precision with the
+ * Jacobi solver, see SlabStep.
+ */
+public class SlabCoordinator implements Closeable {
+
+    // how long the workers have to start and say hello
+    private static final long CONNECT_TIMEOUT_MILLIS = 60000;
+
+    private final SlabSettings settings;
+
+    private final Process[] processes;
+
+    private final SlabConnection[] connections;
+
+    // values handed in per kind of reduction and slab, the lengths stay the same between steps
+    private final double[][][] values;
+
+    private FieldStatistics statistics;
+
+    private int pressureIterations;
+
+    private double pressureResidual;
+
+    private boolean closed;
+
+    /**
+     * Starts the workers with the class path of this process and waits until all of them
+     * are connected to each other. jvmArgs, e.g. -Xmx8g, go to every worker.
+     */
+    public SlabCoordinator(SlabSettings settings, int workers, List<String> jvmArgs) throws IOException {
+        if (settings.getHeight() / workers < 2) {
+            throw new IllegalArgumentException(settings.getHeight() + " rows can't be split into " + workers
+                    + " slabs of at least 2 rows");
+        }
+        this.settings = settings;
+        this.processes = new Process[workers];
+        this.connections = new SlabConnection[workers];
+        this.values = new double[SlabStep.STATISTICS + 1][workers][];
+        this.statistics = FieldStatistics.EMPTY;
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            for (int rank = 0; rank < workers; rank++) {
+                processes[rank] = launch(jvmArgs, server.socket().getLocalPort(), rank);
+            }
+            int[] ports = accept(server);
+            for (int rank = 0; rank < workers; rank++) {
+                SlabConnection connection = connections[rank];
+                connection.out.writeInt(SlabConnection.SETUP);
+                settings.write(connection.out);
+                connection.out.writeInt(workers);
+                connection.out.writeInt(ports[(rank + 1) % workers]);
+                connection.out.flush();
+            }
+            for (SlabConnection connection : connections) {
+                connection.expect(SlabConnection.READY);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        } finally {
+            server.close();
+        }
+    }
+
+    private Process launch(List<String> jvmArgs, int port, int rank) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SlabWorker.class.getName());
+        command.add(InetAddress.getLoopbackAddress().getHostAddress());
+        command.add(Integer.toString(port));
+        command.add(Integer.toString(rank));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    // the hello of every worker, returns the port each listens on for the slab below
+    private int[] accept(ServerSocketChannel server) throws IOException {
+        int[] ports = new int[connections.length];
+        int connected = 0;
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        server.configureBlocking(false);
+        Selector selector = Selector.open();
+        try {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (connected < connections.length) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new IOException("only " + connected + " of " + connections.length + " slab workers connected");
+                }
+                checkAlive();
+                selector.select(Math.min(left, 1000));
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    channel.configureBlocking(true);
+                    SlabConnection connection = new SlabConnection(channel);
+                    connection.expect(SlabConnection.HELLO);
+                    int rank = connection.in.readInt();
+                    if (rank < 0 || rank >= connections.length || connections[rank] != null) {
+                        connection.close();
+                        throw new IOException("unexpected hello from slab worker " + rank);
+                    }
+                    ports[rank] = connection.in.readInt();
+                    connections[rank] = connection;
+                    connected++;
+                }
+            }
+        } finally {
+            selector.close();
+        }
+        return ports;
+    }
+
+    private void checkAlive() throws IOException {
+        for (int rank = 0; rank < processes.length; rank++) {
+            try {
+                int exit = processes[rank].exitValue();
+                throw new IOException("slab worker " + rank + " exited with " + exit + " before connecting");
+            } catch (IllegalThreadStateException running) {
+                // still starting
+            }
+        }
+    }
+
+    /**
+     * Steps all slabs once. Returns when the statistics of the step are in, the workers
+     * are then waiting for the next command.
+     */
+    public void step(double time, int accuracy) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("coordinator has been closed");
+        }
+        for (SlabConnection connection : connections) {
+            connection.out.writeInt(SlabConnection.STEP);
+            connection.out.writeDouble(time);
+            connection.out.writeInt(accuracy);
+            connection.out.flush();
+        }
+        while (true) {
+            int kind = -1;
+            for (int rank = 0; rank < connections.length; rank++) {
+                SlabConnection connection = connections[rank];
+                connection.expect(SlabConnection.REDUCE);
+                int slabKind = connection.in.readInt();
+                int length = connection.in.readInt();
+                if (slabKind < 0 || slabKind >= values.length || (kind >= 0 && slabKind != kind)) {
+                    throw new IOException("slab " + rank + " asked for reduction " + slabKind + " instead of " + kind);
+                }
+                kind = slabKind;
+                if (values[kind][rank] == null || values[kind][rank].length != length) {
+                    values[kind][rank] = new double[length];
+                }
+                connection.readDoubles(values[kind][rank], 0, length);
+            }
+            double[] result = SlabStep.combine(kind, values[kind], settings.getWidth(), settings.getHeight());
+            for (SlabConnection connection : connections) {
+                connection.out.writeInt(SlabConnection.RESULT);
+                connection.out.writeInt(result.length);
+                connection.writeDoubles(result, 0, result.length);
+                connection.out.flush();
+            }
+            if (kind == SlabStep.STATISTICS) {
+                this.statistics = SlabStep.statistics(result);
+                this.pressureIterations = (int) result[SlabStep.STATISTICS_VALUES - 2];
+                this.pressureResidual = result[SlabStep.STATISTICS_VALUES - 1];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies the cell types, velocities and pressure of every slab into target, which must
+     * be as large as the grid. Holds the whole grid at once, meant for checks and small runs.
+     */
+    public void gather(FieldStore target) throws IOException {
+        int width = settings.getWidth();
+        if (target.getWidth() != width || target.getHeight() != settings.getHeight()) {
+            throw new IllegalArgumentException("target is " + target.getWidth() + " x " + target.getHeight()
+                    + ", the grid " + width + " x " + settings.getHeight());
+        }
+        for (SlabConnection connection : connections) {
+            connection.out.writeInt(SlabConnection.GATHER);
+            connection.out.flush();
+        }
+        for (SlabConnection connection : connections) {
+            connection.expect(SlabConnection.ROWS);
+            int offset = connection.in.readInt() * width;
+            int size = connection.in.readInt() * width;
+            connection.in.readFully(target.getCellTypes(), offset, size);
+            connection.readDoubles(target.getVelocityX(), offset, size);
+            connection.readDoubles(target.getVelocityY(), offset, size);
+            connection.readDoubles(target.getPressure(), offset, size);
+        }
+    }
+
+    public SlabSettings getSettings() {
+        return settings;
+    }
+
+    public int getWorkers() {
+        return processes.length;
+    }
+
+    // statistics of the whole grid after the last step
+    public FieldStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int getPressureIterations() {
+        return pressureIterations;
+    }
+
+    public double getPressureResidual() {
+        return pressureResidual;
+    }
+
+    // stops the workers, those that don't exit on their own are killed
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (SlabConnection connection : connections) {
+            if (connection != null) {
+                try {
+                    connection.out.writeInt(SlabConnection.STOP);
+                    connection.out.flush();
+                } catch (IOException ignored) {
+                    // the worker is gone already
+                }
+                connection.close();
+            }
+        }
+        for (Process process : processes) {
+            if (process == null) {
+                continue;
+            }
+            try {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!exited(process) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!exited(process)) {
+                process.destroy();
+            }
+        }
+    }
+
+    private static boolean exited(Process process) {
+        try {
+            process.exitValue();
+            return true;
+        } catch (IllegalThreadStateException running) {
+            return false;
+        }
+    }
+}
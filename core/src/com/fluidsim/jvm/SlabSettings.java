@@ -0,0 +1,346 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.BuoyancySource;
+import com.fluidsim.FanSource;
+import com.fluidsim.ForceSource;
+import com.fluidsim.ForceSources;
+import com.fluidsim.GravitySource;
+import com.fluidsim.PointSource;
+import com.fluidsim.SlabLink;
+import com.fluidsim.SlabStep;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What every slab of a distributed run has to agree on, the grid, the constants and the
+ * starting state. The coordinator sends it to each worker, which builds its slab from it.
+ * The defaults are those of a new Environment with a still uniform start.
+ */
+public class SlabSettings {
+
+    // kinds of force source that can be sent to the workers
+    private static final int FAN = 0;
+
+    private static final int POINT = 1;
+
+    private static final int GRAVITY = 2;
+
+    private static final int BUOYANCY = 3;
+
+    private int width;
+
+    private int height;
+
+    private double cellSize;
+
+    private double density;
+
+    private double vorticity;
+
+    private double fanStrength;
+
+    private boolean fan;
+
+    private final ForceSources forceSources;
+
+    private boolean warmStartPressure;
+
+    private double tolerance;
+
+    private boolean randomStart;
+
+    private long seed;
+
+    private double uniformPressure;
+
+    private double uniformVelocityX;
+
+    private double uniformVelocityY;
+
+    private boolean floor;
+
+    private int wallWidth;
+
+    private int wallHeight;
+
+    private final List<Heater> heaters;
+
+    public SlabSettings(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.cellSize = 1;
+        this.density = 1;
+        this.vorticity = 0.0001;
+        this.fanStrength = 1;
+        this.fan = true;
+        this.forceSources = new ForceSources();
+        this.tolerance = 1e-3;
+        this.heaters = new ArrayList<Heater>();
+    }
+
+    // slab number slab of slabs in its starting state
+    public SlabStep createStep(SlabLink link, int slabs, int slab) {
+        SlabStep step = new SlabStep(link, width, height, slabs, slab);
+        step.setCellSize(cellSize);
+        step.setDensity(density);
+        step.setVorticity(vorticity);
+        step.setFanStrength(fanStrength);
+        step.setFan(fan);
+        for (ForceSource source : forceSources.getSources()) {
+            step.getForceSources().add(source);
+        }
+        step.setWarmStartPressure(warmStartPressure);
+        step.setTolerance(tolerance);
+        if (randomStart) {
+            step.initRandom(seed);
+        } else {
+            step.initUniform(uniformPressure, uniformVelocityX, uniformVelocityY);
+        }
+        if (floor) {
+            step.initFloor();
+        }
+        if (wallWidth > 0 && wallHeight > 0) {
+            step.initCentralWall(wallWidth, wallHeight);
+        }
+        for (Heater heater : heaters) {
+            step.initHeater(heater.x, heater.y, heater.width, heater.height, heater.temperature);
+        }
+        return step;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeDouble(cellSize);
+        out.writeDouble(density);
+        out.writeDouble(vorticity);
+        out.writeDouble(fanStrength);
+        out.writeBoolean(fan);
+        out.writeInt(forceSources.getSources().size());
+        for (ForceSource source : forceSources.getSources()) {
+            writeSource(source, out);
+        }
+        out.writeBoolean(warmStartPressure);
+        out.writeDouble(tolerance);
+        out.writeBoolean(randomStart);
+        out.writeLong(seed);
+        out.writeDouble(uniformPressure);
+        out.writeDouble(uniformVelocityX);
+        out.writeDouble(uniformVelocityY);
+        out.writeBoolean(floor);
+        out.writeInt(wallWidth);
+        out.writeInt(wallHeight);
+        out.writeInt(heaters.size());
+        for (Heater heater : heaters) {
+            out.writeInt(heater.x);
+            out.writeInt(heater.y);
+            out.writeInt(heater.width);
+            out.writeInt(heater.height);
+            out.writeDouble(heater.temperature);
+        }
+    }
+
+    public static SlabSettings read(DataInput in) throws IOException {
+        SlabSettings settings = new SlabSettings(in.readInt(), in.readInt());
+        settings.cellSize = in.readDouble();
+        settings.density = in.readDouble();
+        settings.vorticity = in.readDouble();
+        settings.fanStrength = in.readDouble();
+        settings.fan = in.readBoolean();
+        for (int sources = in.readInt(); sources > 0; sources--) {
+            settings.forceSources.add(readSource(in));
+        }
+        settings.warmStartPressure = in.readBoolean();
+        settings.tolerance = in.readDouble();
+        settings.randomStart = in.readBoolean();
+        settings.seed = in.readLong();
+        settings.uniformPressure = in.readDouble();
+        settings.uniformVelocityX = in.readDouble();
+        settings.uniformVelocityY = in.readDouble();
+        settings.floor = in.readBoolean();
+        settings.wallWidth = in.readInt();
+        settings.wallHeight = in.readInt();
+        for (int heaters = in.readInt(); heaters > 0; heaters--) {
+            settings.addHeater(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readDouble());
+        }
+        return settings;
+    }
+
+    private static void writeSource(ForceSource source, DataOutput out) throws IOException {
+        if (source instanceof FanSource) {
+            FanSource fan = (FanSource) source;
+            out.writeByte(FAN);
+            out.writeInt(fan.getX());
+            out.writeInt(fan.getY());
+            out.writeInt(fan.getWidth());
+            out.writeInt(fan.getHeight());
+            out.writeDouble(fan.getForceX());
+            out.writeDouble(fan.getForceY());
+        } else if (source instanceof PointSource) {
+            PointSource point = (PointSource) source;
+            out.writeByte(POINT);
+            out.writeInt(point.getCenterX());
+            out.writeInt(point.getCenterY());
+            out.writeDouble(point.getRadius());
+            out.writeDouble(point.getForce());
+        } else if (source instanceof GravitySource) {
+            out.writeByte(GRAVITY);
+            out.writeDouble(((GravitySource) source).getAcceleration());
+        } else if (source instanceof BuoyancySource) {
+            BuoyancySource buoyancy = (BuoyancySource) source;
+            out.writeByte(BUOYANCY);
+            out.writeDouble(buoyancy.getCoefficient());
+            out.writeDouble(buoyancy.getAmbientTemperature());
+        } else {
+            throw new IllegalArgumentException("only fans, point sources, gravity and buoyancy can be sent to the workers, got "
+                    + source.getClass().getName());
+        }
+        out.writeDouble(source.getStrength());
+    }
+
+    private static ForceSource readSource(DataInput in) throws IOException {
+        int kind = in.readByte();
+        ForceSource source;
+        if (kind == FAN) {
+            source = new FanSource(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readDouble(),
+                    in.readDouble());
+        } else if (kind == POINT) {
+            source = new PointSource(in.readInt(), in.readInt(), in.readDouble(), in.readDouble());
+        } else if (kind == GRAVITY) {
+            source = new GravitySource(in.readDouble());
+        } else if (kind == BUOYANCY) {
+            source = new BuoyancySource(in.readDouble(), in.readDouble());
+        } else {
+            throw new IOException("unknown force source " + kind);
+        }
+        source.setStrength(in.readDouble());
+        return source;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    public void setDensity(double density) {
+        this.density = density;
+    }
+
+    public double getVorticity() {
+        return vorticity;
+    }
+
+    public void setVorticity(double vorticity) {
+        this.vorticity = vorticity;
+    }
+
+    public double getFanStrength() {
+        return fanStrength;
+    }
+
+    public void setFanStrength(double fanStrength) {
+        this.fanStrength = fanStrength;
+    }
+
+    // the fan on the left the simulation always had, true
+    public boolean isFan() {
+        return fan;
+    }
+
+    public void setFan(boolean fan) {
+        this.fan = fan;
+    }
+
+    // sources besides the fan, in grid coordinates. Fans, jets, point sources, gravity and buoyancy
+    public ForceSources getForceSources() {
+        return forceSources;
+    }
+
+    public boolean isWarmStartPressure() {
+        return warmStartPressure;
+    }
+
+    public void setWarmStartPressure(boolean warmStartPressure) {
+        this.warmStartPressure = warmStartPressure;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    // the start of Environment.initRandom(seed)
+    public void setRandomStart(long seed) {
+        this.randomStart = true;
+        this.seed = seed;
+    }
+
+    public void setUniformStart(double pressure, double velocityX, double velocityY) {
+        this.randomStart = false;
+        this.uniformPressure = pressure;
+        this.uniformVelocityX = velocityX;
+        this.uniformVelocityY = velocityY;
+    }
+
+    public boolean isFloor() {
+        return floor;
+    }
+
+    public void setFloor(boolean floor) {
+        this.floor = floor;
+    }
+
+    // a central block of wall, 0 for none
+    public void setCentralWall(int width, int height) {
+        this.wallWidth = width;
+        this.wallHeight = height;
+    }
+
+    // the start of Environment.initHeater, after the walls
+    public void addHeater(int x, int y, int width, int height, double temperature) {
+        heaters.add(new Heater(x, y, width, height, temperature));
+    }
+
+    private static final class Heater {
+
+        private final int x;
+
+        private final int y;
+
+        private final int width;
+
+        private final int height;
+
+        private final double temperature;
+
+        private Heater(int x, int y, int width, int height, double temperature) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.temperature = temperature;
+        }
+    }
+}
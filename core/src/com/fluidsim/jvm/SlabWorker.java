@@ -0,0 +1,254 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.FieldStore;
+import com.fluidsim.SlabLink;
+import com.fluidsim.SlabStep;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Process that steps one slab of a distributed run, started by SlabCoordinator.
+ * Usage: SlabWorker host port rank, the coordinator's address and the slab's number.
+ *
+ * Ghost rows go straight to the neighbouring workers over one socket channel each way,
+ * both are written and read at once through a selector so two workers sending to each
+ * other never wait on one another. Reductions go to the coordinator.
+ */
+public class SlabWorker {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: SlabWorker host port rank");
+            System.exit(2);
+        }
+        int rank = Integer.parseInt(args[2]);
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(args[0], Integer.parseInt(args[1])));
+        SlabConnection coordinator = new SlabConnection(channel);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        SocketSlabLink link = null;
+        try {
+            server.bind(new InetSocketAddress(channel.socket().getLocalAddress(), 0));
+            coordinator.out.writeInt(SlabConnection.HELLO);
+            coordinator.out.writeInt(rank);
+            coordinator.out.writeInt(server.socket().getLocalPort());
+            coordinator.out.flush();
+
+            coordinator.expect(SlabConnection.SETUP);
+            SlabSettings settings = SlabSettings.read(coordinator.in);
+            int slabs = coordinator.in.readInt();
+            int abovePort = coordinator.in.readInt();
+            link = new SocketSlabLink(coordinator);
+            if (slabs > 1) {
+                // connecting first can't wait on the other side, its listener already accepts
+                link.connect(SocketChannel.open(new InetSocketAddress(channel.socket().getInetAddress(), abovePort)),
+                        server.accept());
+            }
+            server.close();
+            SlabStep step = settings.createStep(link, slabs, rank);
+            coordinator.out.writeInt(SlabConnection.READY);
+            coordinator.out.flush();
+            serve(coordinator, step);
+        } catch (Exception e) {
+            fail(coordinator, e);
+            System.exit(1);
+        } finally {
+            server.close();
+            if (link != null) {
+                link.close();
+            }
+            coordinator.close();
+        }
+    }
+
+    private static void serve(SlabConnection coordinator, SlabStep step) throws IOException {
+        while (true) {
+            int message = coordinator.in.readInt();
+            if (message == SlabConnection.STEP) {
+                double time = coordinator.in.readDouble();
+                int accuracy = coordinator.in.readInt();
+                step.step(time, accuracy);
+            } else if (message == SlabConnection.GATHER) {
+                sendRows(coordinator, step);
+            } else if (message == SlabConnection.STOP) {
+                return;
+            } else {
+                throw new IOException("unexpected message " + message);
+            }
+        }
+    }
+
+    private static void sendRows(SlabConnection coordinator, SlabStep step) throws IOException {
+        FieldStore fields = step.getFields();
+        coordinator.out.writeInt(SlabConnection.ROWS);
+        coordinator.out.writeInt(step.getFirstRow());
+        coordinator.out.writeInt(step.getRows());
+        coordinator.out.write(fields.getCellTypes());
+        coordinator.writeDoubles(fields.getVelocityX(), 0, fields.getSize());
+        coordinator.writeDoubles(fields.getVelocityY(), 0, fields.getSize());
+        coordinator.writeDoubles(fields.getPressure(), 0, fields.getSize());
+        coordinator.out.flush();
+    }
+
+    // the coordinator learns why the run stopped, the neighbours see the sockets close
+    private static void fail(SlabConnection coordinator, Exception e) {
+        StringWriter trace = new StringWriter();
+        e.printStackTrace(new PrintWriter(trace));
+        String message = trace.toString();
+        try {
+            coordinator.out.writeInt(SlabConnection.ERROR);
+            coordinator.out.writeUTF(message.length() > 16000 ? message.substring(0, 16000) : message);
+            coordinator.out.flush();
+        } catch (IOException ignored) {
+            System.err.println(message);
+        }
+    }
+
+    private static class SocketSlabLink implements SlabLink {
+
+        private final SlabConnection coordinator;
+
+        private Selector selector;
+
+        // to the slab above, whose lowest rows are our upper ghost rows, and to the slab below
+        private Neighbour above;
+
+        private Neighbour below;
+
+        private double[] result;
+
+        private SocketSlabLink(SlabConnection coordinator) {
+            this.coordinator = coordinator;
+            this.result = new double[64];
+        }
+
+        private void connect(SocketChannel above, SocketChannel below) throws IOException {
+            this.selector = Selector.open();
+            this.above = new Neighbour(above, selector);
+            this.below = new Neighbour(below, selector);
+        }
+
+        @Override
+        public void exchange(double[] data, int rowLength, int firstOwned, int rows, int depth) {
+            int count = rowLength * depth;
+            int top = firstOwned + (rows - depth) * rowLength;
+            if (above == null) {
+                // a single slab is its own neighbour on both sides
+                System.arraycopy(data, firstOwned, data, firstOwned + rows * rowLength, count);
+                System.arraycopy(data, top, data, firstOwned - count, count);
+                return;
+            }
+            try {
+                above.prepare(data, top, count);
+                below.prepare(data, firstOwned, count);
+                while (above.pending() || below.pending()) {
+                    above.updateInterest();
+                    below.updateInterest();
+                    selector.select();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        ((Neighbour) key.attachment()).transfer(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+                above.finish(data, firstOwned + rows * rowLength, count);
+                below.finish(data, firstOwned - count, count);
+            } catch (IOException e) {
+                throw new IllegalStateException("ghost row exchange failed", e);
+            }
+        }
+
+        // the result stays valid until the next reduction
+        @Override
+        public double[] reduce(int kind, double[] values, int length) {
+            try {
+                coordinator.out.writeInt(SlabConnection.REDUCE);
+                coordinator.out.writeInt(kind);
+                coordinator.out.writeInt(length);
+                coordinator.writeDoubles(values, 0, length);
+                coordinator.out.flush();
+                coordinator.expect(SlabConnection.RESULT);
+                int count = coordinator.in.readInt();
+                if (count > result.length) {
+                    result = new double[count];
+                }
+                coordinator.readDoubles(result, 0, count);
+                return result;
+            } catch (IOException e) {
+                throw new IllegalStateException("reduction failed", e);
+            }
+        }
+
+        private void close() throws IOException {
+            if (selector != null) {
+                selector.close();
+                above.channel.close();
+                below.channel.close();
+            }
+        }
+    }
+
+    // one neighbour channel with the rows going out and the rows coming in
+    private static class Neighbour {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private ByteBuffer send;
+
+        private ByteBuffer receive;
+
+        private Neighbour(SocketChannel channel, Selector selector) throws IOException {
+            this.channel = channel;
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            this.key = channel.register(selector, 0, this);
+            this.send = ByteBuffer.allocateDirect(0);
+            this.receive = ByteBuffer.allocateDirect(0);
+        }
+
+        private void prepare(double[] data, int offset, int count) {
+            if (send.capacity() < count * 8) {
+                send = ByteBuffer.allocateDirect(count * 8).order(ByteOrder.nativeOrder());
+                receive = ByteBuffer.allocateDirect(count * 8).order(ByteOrder.nativeOrder());
+            }
+            send.clear();
+            send.asDoubleBuffer().put(data, offset, count);
+            send.limit(count * 8);
+            receive.clear();
+            receive.limit(count * 8);
+        }
+
+        private boolean pending() {
+            return send.hasRemaining() || receive.hasRemaining();
+        }
+
+        private void updateInterest() {
+            key.interestOps((send.hasRemaining() ? SelectionKey.OP_WRITE : 0)
+                    | (receive.hasRemaining() ? SelectionKey.OP_READ : 0));
+        }
+
+        private void transfer(SelectionKey key) throws IOException {
+            if (key.isWritable()) {
+                channel.write(send);
+            }
+            if (key.isReadable() && channel.read(receive) < 0) {
+                throw new EOFException("neighbouring slab closed the connection");
+            }
+        }
+
+        private void finish(double[] data, int offset, int count) {
+            receive.flip();
+            receive.asDoubleBuffer().get(data, offset, count);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.ScalarStencilKernels;
+import com.fluidsim.StencilKernels;
+
+/**
+ * Picks the vectorised kernels of the simd module when they are on the class path and the
+ * JVM provides jdk.incubator.vector, the scalar kernels otherwise.
+ * -Dfluidsim.simd=false forces the scalar kernels.
+ */
+public final class StencilKernelsLoader {
+
+    private static final String VECTOR_KERNELS = "com.fluidsim.simd.VectorStencilKernels";
+
+    private StencilKernelsLoader() {
+    }
+
+    public static StencilKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("fluidsim.simd", "true"))) {
+            return new ScalarStencilKernels();
+        }
+        try {
+            return (StencilKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            // not on the class path, or the constructor failed, InvocationTargetException holds why
+            return new ScalarStencilKernels();
+        } catch (LinkageError e) {
+            // class files too new for this JVM, or the incubator module was not added
+            return new ScalarStencilKernels();
+        }
+    }
+}
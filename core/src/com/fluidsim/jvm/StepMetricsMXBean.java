@@ -0,0 +1,45 @@
+package com.fluidsim.jvm;
+
+/**
+ * Management view of the StepMetrics of a simulation, registered by StepMetricsMonitor.
+ * Times are in milliseconds over the monitor's window of recent steps, timers are the
+ * phases of the step in order and then the statistics collection.
+ */
+public interface StepMetricsMXBean {
+
+    long getSteps();
+
+    double getStepP50Millis();
+
+    double getStepP99Millis();
+
+    double getStepMaxMillis();
+
+    String[] getTimerNames();
+
+    double[] getTimerP50Millis();
+
+    double[] getTimerP99Millis();
+
+    double getPressureIterations();
+
+    double getPressureResidual();
+
+    long getAllocatedBytesPerStep();
+
+    double getCellsPerSecond();
+
+    double getActiveTileFraction();
+
+    double getFrameP50Millis();
+
+    double getFrameP99Millis();
+
+    String getSlowestTimer();
+
+    // timer whose median grew most since markBaseline, none before a baseline or when none grew
+    String getRegressedTimer();
+
+    // the current window becomes what getRegressedTimer compares against
+    void markBaseline();
+}
@@ -0,0 +1,173 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.MetricsSummary;
+import com.fluidsim.StepMetrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes StepMetrics as a platform MXBean, com.fluidsim:type=StepMetrics unless named
+ * otherwise, for jconsole and other JMX clients. A summary is taken at most every
+ * quarter second, a client reading every attribute at once sorts the rings once.
+ */
+public class StepMetricsMonitor implements StepMetricsMXBean {
+
+    public static final String DEFAULT_NAME = "com.fluidsim:type=StepMetrics";
+
+    private static final long REFRESH_NANOS = 250000000L;
+
+    private final StepMetrics metrics;
+
+    private final int window;
+
+    private MetricsSummary summary;
+
+    private long summaryTime;
+
+    private MetricsSummary baseline;
+
+    public StepMetricsMonitor(StepMetrics metrics, int window) {
+        this.metrics = metrics;
+        this.window = window;
+    }
+
+    // registers a monitor over the whole ring under the default name, replacing an earlier one
+    public static StepMetricsMonitor register(StepMetrics metrics) {
+        StepMetricsMonitor monitor = new StepMetricsMonitor(metrics, metrics.getCapacity());
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DEFAULT_NAME);
+            try {
+                server.registerMBean(monitor, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(monitor, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register " + DEFAULT_NAME, e);
+        }
+        return monitor;
+    }
+
+    private synchronized MetricsSummary summary() {
+        long now = System.nanoTime();
+        if (summary == null || now - summaryTime > REFRESH_NANOS) {
+            summary = metrics.summarize(window);
+            summaryTime = now;
+        }
+        return summary;
+    }
+
+    @Override
+    public long getSteps() {
+        return summary().getSteps();
+    }
+
+    @Override
+    public double getStepP50Millis() {
+        return summary().getStepP50() / 1e6;
+    }
+
+    @Override
+    public double getStepP99Millis() {
+        return summary().getStepP99() / 1e6;
+    }
+
+    @Override
+    public double getStepMaxMillis() {
+        return summary().getStepMax() / 1e6;
+    }
+
+    @Override
+    public String[] getTimerNames() {
+        String[] names = new String[StepMetrics.TIMERS];
+        for (int t = 0; t < names.length; t++) {
+            names[t] = StepMetrics.timerName(t);
+        }
+        return names;
+    }
+
+    @Override
+    public double[] getTimerP50Millis() {
+        MetricsSummary current = summary();
+        double[] millis = new double[StepMetrics.TIMERS];
+        for (int t = 0; t < millis.length; t++) {
+            millis[t] = current.getTimerP50(t) / 1e6;
+        }
+        return millis;
+    }
+
+    @Override
+    public double[] getTimerP99Millis() {
+        MetricsSummary current = summary();
+        double[] millis = new double[StepMetrics.TIMERS];
+        for (int t = 0; t < millis.length; t++) {
+            millis[t] = current.getTimerP99(t) / 1e6;
+        }
+        return millis;
+    }
+
+    @Override
+    public double getPressureIterations() {
+        return summary().getMeanIterations();
+    }
+
+    @Override
+    public double getPressureResidual() {
+        return summary().getLastResidual();
+    }
+
+    @Override
+    public long getAllocatedBytesPerStep() {
+        return summary().getAllocatedBytesPerStep();
+    }
+
+    @Override
+    public double getCellsPerSecond() {
+        return summary().getCellsPerSecond();
+    }
+
+    @Override
+    public double getActiveTileFraction() {
+        return summary().getActiveFraction();
+    }
+
+    @Override
+    public double getFrameP50Millis() {
+        return summary().getFrameP50() / 1e6;
+    }
+
+    @Override
+    public double getFrameP99Millis() {
+        return summary().getFrameP99() / 1e6;
+    }
+
+    @Override
+    public String getSlowestTimer() {
+        int timer = summary().getSlowestTimer();
+        return timer < 0 ? "none" : StepMetrics.timerName(timer);
+    }
+
+    @Override
+    public synchronized String getRegressedTimer() {
+        if (baseline == null) {
+            return "none";
+        }
+        MetricsSummary current = summary();
+        int timer = current.getRegressedTimer(baseline);
+        if (timer < 0) {
+            return "none";
+        }
+        double growth = current.getTimerP50(timer) / (double) Math.max(1, baseline.getTimerP50(timer)) - 1;
+        return String.format("%s +%.0f%%", StepMetrics.timerName(timer), 100 * growth);
+    }
+
+    @Override
+    public synchronized void markBaseline() {
+        baseline = metrics.summarize(window);
+    }
+}
@@ -0,0 +1,174 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldSnapshot;
+import com.fluidsim.FluidField;
+import com.fluidsim.SimulationRunner;
+import com.fluidsim.TimestepController;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps the environment on its own thread at a fixed rate, independent of the frame rate.
+ * Snapshots rotate between three buffers: the simulation fills its back buffer and swaps
+ * it with the ready one, the renderer swaps its front buffer with the ready one when that
+ * is newer. Neither side blocks or allocates, and a snapshot is never written while the
+ * renderer holds it.
+ */
+public class ThreadedSimulationRunner implements SimulationRunner {
+
+    private static final FluidField[] FIELDS = FluidField.values();
+
+    private final double stepsPerSecond;
+
+    private final AtomicReference<FieldSnapshot> ready = new AtomicReference<FieldSnapshot>();
+
+    // bit per FluidField ordinal, applied by the simulation thread before every step
+    private final AtomicInteger statisticsMask = new AtomicInteger();
+
+    private Environment env;
+
+    private double time;
+
+    private int accuracy;
+
+    private TimestepController controller;
+
+    // owned by the simulation thread
+    private FieldSnapshot back;
+
+    // owned by the render thread
+    private FieldSnapshot front;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    private volatile Throwable failure;
+
+    // stepsPerSecond <= 0 steps as fast as the grid allows
+    public ThreadedSimulationRunner(double stepsPerSecond) {
+        this.stepsPerSecond = stepsPerSecond;
+    }
+
+    @Override
+    public void start(Environment env, double time, int accuracy) {
+        if (thread != null) {
+            throw new IllegalStateException("runner has already been started");
+        }
+        this.env = env;
+        this.time = time;
+        this.accuracy = accuracy;
+        int mask = 0;
+        for (FluidField field : FIELDS) {
+            if (env.isStatisticsEnabled(field)) {
+                mask |= 1 << field.ordinal();
+            }
+        }
+        statisticsMask.set(mask);
+        this.front = new FieldSnapshot(env.getWidth(), env.getHeight());
+        this.back = new FieldSnapshot(env.getWidth(), env.getHeight());
+        FieldSnapshot initial = new FieldSnapshot(env.getWidth(), env.getHeight());
+        front.capture(env, 0);
+        initial.capture(env, 0);
+        ready.set(initial);
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "fluidsim-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void setTimestepController(TimestepController controller) {
+        if (thread != null) {
+            throw new IllegalStateException("runner has already been started");
+        }
+        this.controller = controller;
+    }
+
+    // stepping happens on the simulation thread, the frame only picks up its results
+    @Override
+    public void update(float delta) {
+        Throwable t = failure;
+        if (t != null) {
+            throw new RuntimeException("simulation thread failed", t);
+        }
+    }
+
+    @Override
+    public FieldSnapshot getSnapshot() {
+        // only the simulation swaps in newer snapshots, so one checked as newer stays newer
+        if (ready.get().getStep() > front.getStep()) {
+            front = ready.getAndSet(front);
+        }
+        return front;
+    }
+
+    @Override
+    public void setStatisticsEnabled(FluidField field, boolean enabled) {
+        int bit = 1 << field.ordinal();
+        int mask;
+        do {
+            mask = statisticsMask.get();
+        } while (!statisticsMask.compareAndSet(mask, enabled ? mask | bit : mask & ~bit));
+    }
+
+    // stops the simulation thread and waits for the step in progress
+    @Override
+    public void dispose() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void loop() {
+        long interval = stepsPerSecond > 0 ? (long) (1e9 / stepsPerSecond) : 0;
+        long deadline = System.nanoTime();
+        long steps = 0;
+        try {
+            while (running) {
+                int mask = statisticsMask.get();
+                for (FluidField field : FIELDS) {
+                    env.setStatisticsEnabled(field, (mask & (1 << field.ordinal())) != 0);
+                }
+                double stepTime = time;
+                if (controller != null) {
+                    stepTime = controller.step(env, accuracy);
+                } else {
+                    env.step(time, accuracy);
+                }
+                steps++;
+                back.capture(env, steps);
+                back = ready.getAndSet(back);
+                if (interval > 0) {
+                    // a longer step waits longer, the simulated time per second stays the same
+                    long wait = (long) (interval * (stepTime / time));
+                    deadline += wait;
+                    long now = System.nanoTime();
+                    if (now - deadline > wait) {
+                        // too slow for the rate, don't try to catch up on missed steps
+                        deadline = now;
+                    }
+                    while (running && (now = System.nanoTime()) < deadline) {
+                        LockSupport.parkNanos(this, deadline - now);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.fluidsim;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * V and F cycles converge in a handful of cycles whatever the grid size, and end up where
+ * conjugate gradients do. Odd sizes and widths that aren't a multiple of four leave sub-lattices
+ * and coarse levels of uneven sizes, where the hierarchy is easiest to get wrong.
+ */
+public class MultigridSolverTest {
+
+    // odd by odd, a width of 2 mod 4 and both at once on a grid deep enough for several levels
+    private static final int[][] SIZES = {{61, 45}, {66, 40}, {130, 97}};
+
+    private static final double TOLERANCE = 1e-8;
+
+    // cycles a solve to TOLERANCE may take, a working hierarchy needs about seven
+    private static final int MAX_CYCLES = 10;
+
+    // relative difference allowed from the conjugate gradient solution
+    private static final double MATCH = 1e-6;
+
+    private static final int BUDGET = 5000;
+
+    private static final SerialStepExecutor SERIAL = new SerialStepExecutor();
+
+    @Test
+    public void cyclesConvergeInBoundedCycles() {
+        for (int[] size : SIZES) {
+            for (MultigridSolver.Cycle cycle : MultigridSolver.Cycle.values()) {
+                MultigridSolver solver = new MultigridSolver(cycle);
+                solve(solver, size);
+                String name = solver.getName() + " at " + size[0] + "x" + size[1];
+                assertTrue(name + " took " + solver.getIterations() + " cycles", solver.getIterations() <= MAX_CYCLES);
+                assertTrue(name + " residual " + solver.getResidual(), solver.getResidual() <= TOLERANCE);
+                assertTrue(name + " built no hierarchy", solver.getLevelCount() > 1);
+            }
+        }
+    }
+
+    @Test
+    public void cyclesMatchConjugateGradients() {
+        for (int[] size : SIZES) {
+            double[] expected = solve(new ConjugateGradientSolver(), size);
+            for (MultigridSolver.Cycle cycle : MultigridSolver.Cycle.values()) {
+                MultigridSolver solver = new MultigridSolver(cycle);
+                double[] actual = solve(solver, size);
+                double difference = 0;
+                double norm = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    double d = actual[i] - expected[i];
+                    difference += d * d;
+                    norm += expected[i] * expected[i];
+                }
+                double relative = Math.sqrt(difference / norm);
+                assertTrue(solver.getName() + " at " + size[0] + "x" + size[1] + " differs by " + relative,
+                        relative <= MATCH);
+            }
+        }
+    }
+
+    // the same random right hand side for every solver of a size, normalised like a step does
+    private static double[] solve(PressureSolver solver, int[] size) {
+        double[] rhs = new double[size[0] * size[1]];
+        Random random = new Random(5);
+        for (int i = 0; i < rhs.length; i++) {
+            rhs[i] = random.nextGaussian();
+        }
+        PressureSystem system = new PressureSystem(size[0], size[1], rhs);
+        system.makeCompatible(SERIAL);
+        double[] pressure = new double[system.getSize()];
+        solver.setTolerance(TOLERANCE);
+        solver.solve(system, pressure, BUDGET, SERIAL);
+        system.normalise(pressure, SERIAL);
+        return pressure;
+    }
+}
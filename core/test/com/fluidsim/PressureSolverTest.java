@@ -0,0 +1,158 @@
+package com.fluidsim;
+
+import com.fluidsim.jvm.ParallelStepExecutor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Jacobi, SOR and conjugate gradients solve the pressure of a step around a wall and above
+ * the floor. Every solver gets under the tolerance, the answers agree, and the row bands of
+ * a parallel executor don't change a single bit.
+ */
+public class PressureSolverTest {
+
+    // an even width gives every sub-lattice an even number of columns, an odd one joins them
+    private static final int[] WIDTHS = {48, 47};
+
+    private static final int HEIGHT = 36;
+
+    private static final double TIME = 0.05;
+
+    private static final int BUDGET = 20000;
+
+    private static final double TOLERANCE = 1e-3;
+
+    private static final SerialStepExecutor SERIAL = new SerialStepExecutor();
+
+    @Test
+    public void everySolverReachesTheTolerance() {
+        for (int width : WIDTHS) {
+            double[] rhs = recordRhs(width);
+            for (PressureSolver solver : solvers()) {
+                PressureSystem system = new PressureSystem(width, HEIGHT, rhs.clone());
+                double[] pressure = solve(solver, system);
+                String name = solver.getName() + " at width " + width;
+                assertTrue(name + " took the whole budget", solver.getIterations() < BUDGET);
+                assertTrue(name + " reports " + solver.getResidual(), solver.getResidual() <= TOLERANCE);
+                double residual = system.residualNorm(pressure, SERIAL) / system.getRhsNorm();
+                assertTrue(name + " left " + residual, residual <= TOLERANCE);
+            }
+        }
+    }
+
+    // the tolerance bounds the residual, so two answers can be at most twice that apart through
+    // the operator, the pressures themselves can differ by more where the grid conditions badly
+    @Test
+    public void solversAgree() {
+        for (int width : WIDTHS) {
+            double[] rhs = recordRhs(width);
+            PressureSolver[] solvers = solvers();
+            double[][] pressures = new double[solvers.length][];
+            PressureSystem system = null;
+            for (int s = 0; s < solvers.length; s++) {
+                system = new PressureSystem(width, HEIGHT, rhs.clone());
+                pressures[s] = solve(solvers[s], system);
+            }
+            double[] difference = new double[width * HEIGHT];
+            double[] applied = new double[width * HEIGHT];
+            for (int a = 0; a < solvers.length; a++) {
+                for (int b = a + 1; b < solvers.length; b++) {
+                    for (int i = 0; i < difference.length; i++) {
+                        difference[i] = pressures[a][i] - pressures[b][i];
+                    }
+                    system.apply(difference, applied, 0, HEIGHT);
+                    double apart = norm(applied) / system.getRhsNorm();
+                    assertTrue(solvers[a].getName() + " and " + solvers[b].getName() + " at width " + width
+                            + " are " + apart + " apart", apart <= 2 * TOLERANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelStepsMatchSerialSteps() {
+        ParallelStepExecutor executor = new ParallelStepExecutor(4);
+        try {
+            PressureSolver[] serialSolvers = solvers();
+            PressureSolver[] parallelSolvers = solvers();
+            for (int s = 0; s < serialSolvers.length; s++) {
+                Environment serial = createEnvironment(WIDTHS[0], serialSolvers[s]);
+                Environment parallel = createEnvironment(WIDTHS[0], parallelSolvers[s]);
+                parallel.setStepExecutor(executor);
+                for (int n = 0; n < 3; n++) {
+                    serial.step(TIME, BUDGET);
+                    parallel.step(TIME, BUDGET);
+                }
+                String name = serialSolvers[s].getName();
+                assertEquals(name + " iterations", serial.getPressureIterations(), parallel.getPressureIterations());
+                assertSameBits(name + " pressure", serial.getPressureGuess(), parallel.getPressureGuess());
+                assertSameBits(name + " velocity x",
+                        serial.getFields().getVelocityX(), parallel.getFields().getVelocityX());
+                assertSameBits(name + " velocity y",
+                        serial.getFields().getVelocityY(), parallel.getFields().getVelocityY());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static PressureSolver[] solvers() {
+        PressureSolver[] solvers = {new JacobiSolver(), new SorSolver(), new ConjugateGradientSolver()};
+        for (PressureSolver solver : solvers) {
+            solver.setTolerance(TOLERANCE);
+        }
+        return solvers;
+    }
+
+    private static Environment createEnvironment(int width, PressureSolver solver) {
+        Environment env = new Environment(width, HEIGHT);
+        env.initRandom(11);
+        env.initFloor();
+        env.initCentralWall(8, 12);
+        env.setPressureSolver(solver);
+        return env;
+    }
+
+    // the right hand side the first step hands its solver, the divergence around the wall and floor
+    private static double[] recordRhs(int width) {
+        final double[][] rhs = new double[1][];
+        Environment env = createEnvironment(width, new PressureSolver() {
+            @Override
+            public void solve(PressureSystem system, double[] pressure, int maxIterations, StepExecutor executor) {
+                rhs[0] = system.getRhs().clone();
+            }
+
+            @Override
+            public String getName() {
+                return "recording";
+            }
+        });
+        env.step(TIME, BUDGET);
+        return rhs[0];
+    }
+
+    private static double[] solve(PressureSolver solver, PressureSystem system) {
+        double[] pressure = new double[system.getSize()];
+        system.makeCompatible(SERIAL);
+        solver.solve(system, pressure, BUDGET, SERIAL);
+        system.normalise(pressure, SERIAL);
+        return pressure;
+    }
+
+    private static double norm(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v * v;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static void assertSameBits(String what, double[] expected, double[] actual) {
+        assertEquals(what + " length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(what + " at " + i, Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.fluidsim;
+
+import org.junit.Test;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A grid split into slabs steps to the same numbers as the whole grid, bit for bit. The
+ * slabs run on threads of their own and talk through a link that swaps rows in memory.
+ */
+public class SlabStepTest {
+
+    private static final int WIDTH = 203;
+
+    private static final int HEIGHT = 150;
+
+    private static final int SLABS = 3;
+
+    private static final int STEPS = 30;
+
+    private static final double TIME = 0.03;
+
+    private static final int ACCURACY = 10;
+
+    @Test
+    public void slabsStepLikeTheWholeGrid() throws Exception {
+        Environment env = new Environment(WIDTH, HEIGHT);
+        env.initRandom(7);
+        env.initFloor();
+        env.initCentralWall(20, 30);
+        env.setWarmStartPressure(true);
+        env.getForceSources().add(new PointSource(150, 100, 12, 40));
+        for (int n = 0; n < STEPS; n++) {
+            env.step(TIME, ACCURACY);
+        }
+
+        final SlabStep[] slabs = new SlabStep[SLABS];
+        final LocalLinks links = new LocalLinks(SLABS);
+        for (int slab = 0; slab < SLABS; slab++) {
+            SlabStep step = new SlabStep(links.link(slab), WIDTH, HEIGHT, SLABS, slab);
+            step.initRandom(7);
+            step.initFloor();
+            step.initCentralWall(20, 30);
+            step.setWarmStartPressure(true);
+            step.getForceSources().add(new PointSource(150, 100, 12, 40));
+            slabs[slab] = step;
+        }
+        final Throwable[] failure = new Throwable[SLABS];
+        Thread[] threads = new Thread[SLABS];
+        for (int slab = 0; slab < SLABS; slab++) {
+            final int index = slab;
+            threads[slab] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < STEPS; n++) {
+                            slabs[index].step(TIME, ACCURACY);
+                        }
+                    } catch (Throwable t) {
+                        failure[index] = t;
+                        links.abort();
+                    }
+                }
+            };
+            threads[slab].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable t : failure) {
+            if (t != null) {
+                throw new AssertionError(t);
+            }
+        }
+
+        FieldStore whole = env.getFields();
+        for (SlabStep slab : slabs) {
+            FieldStore rows = slab.getFields();
+            for (int r = 0; r < slab.getRows(); r++) {
+                for (int i = 0; i < WIDTH; i++) {
+                    int expected = whole.index(i, slab.getFirstRow() + r);
+                    int actual = rows.index(i, r);
+                    String cell = "(" + i + ", " + (slab.getFirstRow() + r) + ")";
+                    assertSame("velocity x at " + cell, whole.getVelocityX()[expected], rows.getVelocityX()[actual]);
+                    assertSame("velocity y at " + cell, whole.getVelocityY()[expected], rows.getVelocityY()[actual]);
+                    assertSame("pressure at " + cell, whole.getPressure()[expected], rows.getPressure()[actual]);
+                }
+            }
+            assertEquals(env.getPressureIterations(), slab.getPressureIterations());
+            assertSame("velocity x rms", env.getStatistics().getRms(FluidField.VELOCITY_X),
+                    slab.getStatistics().getRms(FluidField.VELOCITY_X));
+        }
+    }
+
+    private static void assertSame(String what, double expected, double actual) {
+        assertEquals(what, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    // the slabs of one process, every call waits for all of them at a barrier
+    private static class LocalLinks {
+
+        private final int slabs;
+
+        private final CyclicBarrier barrier;
+
+        // the rows each slab sends down and up, and the values it hands to a reduction
+        private final double[][] down;
+
+        private final double[][] up;
+
+        private final double[][] values;
+
+        private double[] result;
+
+        LocalLinks(int slabs) {
+            this.slabs = slabs;
+            this.barrier = new CyclicBarrier(slabs);
+            this.down = new double[slabs][];
+            this.up = new double[slabs][];
+            this.values = new double[slabs][];
+        }
+
+        SlabLink link(final int slab) {
+            return new SlabLink() {
+                @Override
+                public void exchange(double[] data, int rowLength, int firstOwned, int rows, int depth) {
+                    int length = rowLength * depth;
+                    down[slab] = new double[length];
+                    up[slab] = new double[length];
+                    System.arraycopy(data, firstOwned, down[slab], 0, length);
+                    System.arraycopy(data, firstOwned + (rows - depth) * rowLength, up[slab], 0, length);
+                    await();
+                    System.arraycopy(down[(slab + 1) % slabs], 0, data, firstOwned + rows * rowLength, length);
+                    System.arraycopy(up[(slab + slabs - 1) % slabs], 0, data, firstOwned - length, length);
+                    await();
+                }
+
+                @Override
+                public double[] reduce(int kind, double[] slabValues, int length) {
+                    double[] copy = new double[length];
+                    System.arraycopy(slabValues, 0, copy, 0, length);
+                    values[slab] = copy;
+                    await();
+                    if (slab == 0) {
+                        result = SlabStep.combine(kind, values, WIDTH, HEIGHT);
+                    }
+                    await();
+                    double[] combined = result;
+                    await();
+                    return combined;
+                }
+            };
+        }
+
+        // a slab that failed lets the others out of the barrier instead of leaving them waiting
+        void abort() {
+            barrier.reset();
+        }
+
+        private void await() {
+            try {
+                barrier.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
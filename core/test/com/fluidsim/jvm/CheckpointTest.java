@@ -0,0 +1,138 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A saved checkpoint restores to the same bits, and a file that changed on disk is refused
+ * before the environment is touched.
+ */
+public class CheckpointTest {
+
+    // magic, version, width, height, step, five constants and the checksum
+    private static final int HEADER_BYTES = 72;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresTheSavedBits() throws IOException {
+        Environment env = createEnvironment();
+        File file = folder.newFile("run.checkpoint");
+        Checkpoint.save(env, 17, file);
+
+        Environment restored = new Environment(10, 10);
+        assertEquals(17, Checkpoint.restore(restored, file));
+        assertEquals(env.getWidth(), restored.getWidth());
+        assertEquals(env.getHeight(), restored.getHeight());
+        assertSameBits(env.getCellSize(), restored.getCellSize());
+        assertSameBits(env.getDensity(), restored.getDensity());
+        assertSameBits(env.getVorticity(), restored.getVorticity());
+        assertSameBits(env.getGravity(), restored.getGravity());
+        FieldStore saved = env.getFields();
+        FieldStore loaded = restored.getFields();
+        assertSameBits(saved.getVelocityX(), loaded.getVelocityX());
+        assertSameBits(saved.getVelocityY(), loaded.getVelocityY());
+        assertSameBits(saved.getPressure(), loaded.getPressure());
+        assertSameBits(saved.getTemperature(), loaded.getTemperature());
+        assertSameBits(env.getPressureGuess(), restored.getPressureGuess());
+        assertArrayEquals(saved.getCellTypes(), loaded.getCellTypes());
+    }
+
+    @Test
+    public void savingAgainReplacesTheCheckpoint() throws IOException {
+        Environment env = createEnvironment();
+        File file = folder.newFile("run.checkpoint");
+        Checkpoint.save(env, 1, file);
+        env.step(0.03, 10);
+        Checkpoint.save(env, 2, file);
+        assertEquals(2, Checkpoint.restore(new Environment(10, 10), file));
+        assertEquals(false, new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void rejectsAFlippedByte() throws IOException {
+        File file = saveCheckpoint();
+        flip(file, HEADER_BYTES + 1000 * 8 + 3, 0x10);
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsFlippedSignBits() throws IOException {
+        // two sign bits cancel out in a checksum that never moves high bits down
+        File file = saveCheckpoint();
+        flip(file, HEADER_BYTES + 7, 0x80);
+        flip(file, HEADER_BYTES + 5 * 8 + 7, 0x80);
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsAFlippedCellType() throws IOException {
+        File file = saveCheckpoint();
+        flip(file, file.length() - 1, 0x01);
+        assertRejected(file);
+    }
+
+    private File saveCheckpoint() throws IOException {
+        File file = folder.newFile("run.checkpoint");
+        Checkpoint.save(createEnvironment(), 5, file);
+        return file;
+    }
+
+    private static void assertRejected(File file) {
+        Environment env = new Environment(10, 10);
+        try {
+            Checkpoint.restore(env, file);
+            fail("restored a corrupt checkpoint");
+        } catch (IOException expected) {
+            // the environment is only touched once the checksum matched
+            assertEquals(10, env.getWidth());
+        }
+    }
+
+    private static void flip(File file, long position, int mask) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(position);
+            int value = out.read();
+            out.seek(position);
+            out.write(value ^ mask);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Environment createEnvironment() {
+        Environment env = new Environment(61, 47);
+        env.initRandom(3);
+        env.initFloor();
+        env.initCentralWall(8, 6);
+        env.setVorticity(0.0002);
+        for (int n = 0; n < 5; n++) {
+            env.step(0.03, 10);
+        }
+        return env;
+    }
+
+    private static void assertSameBits(double expected, double actual) {
+        assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+    }
+
+    private static void assertSameBits(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int idx = 0; idx < expected.length; idx++) {
+            assertSameBits(expected[idx], actual[idx]);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A lossless recording reads back bit for bit, frame by frame, by seeking anywhere in it
+ * and after it lost its index. More frames than one keyframe interval are recorded, so
+ * reads cross from one keyframe to the next.
+ */
+public class FrameRecorderTest {
+
+    private static final int FRAMES = 2 * FrameRecorder.DEFAULT_KEYFRAME_INTERVAL + 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Environment env;
+
+    private File file;
+
+    // velocity x, velocity y and pressure of every recorded frame
+    private double[][][] recorded;
+
+    @Before
+    public void record() throws IOException {
+        this.env = new Environment(33, 21);
+        env.initRandom(11);
+        env.initFloor();
+        this.file = folder.newFile("run.frames");
+        this.recorded = new double[FRAMES][][];
+        // a buffer per frame, so none is dropped however far the writer falls behind
+        FrameRecorder recorder = new FrameRecorder(file, env, FRAMES, FrameRecorder.DEFAULT_KEYFRAME_INTERVAL,
+                FrameCodec.FULL_MANTISSA);
+        try {
+            for (int f = 0; f < FRAMES; f++) {
+                env.step(0.03, 10);
+                FieldStore fields = env.getFields();
+                recorded[f] = new double[][] {fields.getVelocityX().clone(), fields.getVelocityY().clone(),
+                        fields.getPressure().clone()};
+                assertEquals(true, recorder.offer(env, 100 + f));
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test
+    public void readsEveryFrameInOrder() throws IOException {
+        FrameReader reader = new FrameReader(file);
+        try {
+            assertEquals(33, reader.getWidth());
+            assertEquals(21, reader.getHeight());
+            assertEquals(FRAMES, reader.getFrameCount());
+            FieldStore target = new FieldStore(33, 21);
+            for (int f = 0; f < FRAMES; f++) {
+                assertEquals(100 + f, reader.getStep(f));
+                reader.read(f, target);
+                assertFrame(f, target);
+            }
+            assertArrayEquals(env.getFields().getCellTypes(), target.getCellTypes());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void seeksToAnyFrame() throws IOException {
+        FrameReader reader = new FrameReader(file);
+        try {
+            FieldStore target = new FieldStore(33, 21);
+            int interval = FrameRecorder.DEFAULT_KEYFRAME_INTERVAL;
+            int[] frames = {FRAMES - 1, 3, interval, interval - 1, 0, interval + 5, interval + 6, 2 * interval,
+                    interval + 1, FRAMES - 2};
+            for (int f : frames) {
+                reader.read(f, target);
+                assertFrame(f, target);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void readsARecordingWithoutIndex() throws IOException {
+        truncate(FRAMES * FrameCodec.INDEX_ENTRY_BYTES + FrameCodec.INDEX_TAIL_BYTES);
+        FrameReader reader = new FrameReader(file);
+        try {
+            assertEquals(FRAMES, reader.getFrameCount());
+            FieldStore target = new FieldStore(33, 21);
+            for (int f = 0; f < FRAMES; f++) {
+                assertEquals(100 + f, reader.getStep(f));
+                reader.read(f, target);
+                assertFrame(f, target);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void dropsATruncatedLastFrame() throws IOException {
+        // the index and a few bytes of the last chunk, as if the run crashed while writing it
+        truncate(FRAMES * FrameCodec.INDEX_ENTRY_BYTES + FrameCodec.INDEX_TAIL_BYTES + 5);
+        FrameReader reader = new FrameReader(file);
+        try {
+            assertEquals(FRAMES - 1, reader.getFrameCount());
+            FieldStore target = new FieldStore(33, 21);
+            reader.read(FRAMES - 2, target);
+            assertFrame(FRAMES - 2, target);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void truncate(long bytes) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(out.length() - bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertFrame(int frame, FieldStore target) {
+        assertSameBits(frame, recorded[frame][0], target.getVelocityX());
+        assertSameBits(frame, recorded[frame][1], target.getVelocityY());
+        assertSameBits(frame, recorded[frame][2], target.getPressure());
+    }
+
+    private static void assertSameBits(int frame, double[] expected, double[] actual) {
+        for (int idx = 0; idx < expected.length; idx++) {
+            assertEquals("frame " + frame + " at " + idx, Double.doubleToRawLongBits(expected[idx]),
+                    Double.doubleToRawLongBits(actual[idx]));
+        }
+    }
+}
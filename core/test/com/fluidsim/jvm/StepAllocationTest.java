@@ -0,0 +1,68 @@
+package com.fluidsim.jvm;
+
+import com.fluidsim.Environment;
+import com.fluidsim.Precision;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * A warmed up step allocates nothing, on the calling thread or on the workers of a
+ * parallel executor. Anything a step allocates shows up here before it shows up as GC pauses.
+ */
+public class StepAllocationTest {
+
+    private static final int WARMUP = 300;
+
+    private static final int STEPS = 100;
+
+    // the JIT recompiling now and then allocates a little on whatever thread it stops, a
+    // step that allocates shows up in every round
+    private static final int ROUNDS = 3;
+
+    @Before
+    public void checkSupported() {
+        assumeTrue("the JVM can't count allocated bytes", AllocationCounter.isSupported());
+    }
+
+    @Test
+    public void serialStepAllocatesNothing() {
+        assertEquals(0, fewestBytesPerStep(createEnvironment()));
+    }
+
+    @Test
+    public void parallelStepAllocatesNothing() {
+        ParallelStepExecutor executor = new ParallelStepExecutor(4);
+        try {
+            Environment env = createEnvironment();
+            env.setStepExecutor(executor);
+            assertEquals(0, fewestBytesPerStep(env));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void floatStepAllocatesNothing() {
+        Environment env = createEnvironment();
+        env.setPrecision(Precision.FLOAT);
+        assertEquals(0, fewestBytesPerStep(env));
+    }
+
+    private static long fewestBytesPerStep(Environment env) {
+        long fewest = AllocationCounter.bytesPerStep(env, 0.03, 10, WARMUP, STEPS);
+        for (int round = 1; round < ROUNDS && fewest > 0; round++) {
+            fewest = Math.min(fewest, AllocationCounter.bytesPerStep(env, 0.03, 10, 0, STEPS));
+        }
+        return fewest;
+    }
+
+    private static Environment createEnvironment() {
+        Environment env = new Environment(203, 150);
+        env.initRandom(1);
+        env.initFloor();
+        return env;
+    }
+}
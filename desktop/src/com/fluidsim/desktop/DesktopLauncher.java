@@ -3,13 +3,52 @@ package com.fluidsim.desktop;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.fluidsim.FluidSimuation;
+import com.fluidsim.Precision;
+import com.fluidsim.SimulationRunner;
+import com.fluidsim.StepMetrics;
+import com.fluidsim.jvm.AllocationCounter;
+import com.fluidsim.jvm.FrameReader;
+import com.fluidsim.jvm.MetricsDump;
+import com.fluidsim.jvm.ParallelStepExecutor;
+import com.fluidsim.jvm.ReplaySimulationRunner;
+import com.fluidsim.jvm.StencilKernelsLoader;
+import com.fluidsim.jvm.StepMetricsMonitor;
+import com.fluidsim.jvm.ThreadedSimulationRunner;
+
+import java.io.File;
+import java.io.IOException;
 
 public class DesktopLauncher {
-	public static void main (String[] arg) {
+	public static void main (String[] arg) throws IOException {
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
-		config.foregroundFPS = 30;
+		// frame rate of the display, -Dfluidsim.fps=N
+		config.foregroundFPS = Integer.getInteger("fluidsim.fps", 60);
 		config.height = 800;
 		config.width = 800;
-		new LwjglApplication(new FluidSimuation(), config);
+		// number of simulation threads, -Dfluidsim.threads=N, defaults to all cores
+		int threads = Integer.getInteger("fluidsim.threads", Runtime.getRuntime().availableProcessors());
+		// -Dfluidsim.precision=FLOAT runs the step in single precision
+		Precision precision = Precision.valueOf(System.getProperty("fluidsim.precision", "DOUBLE"));
+		// steps per second on the simulation thread, -Dfluidsim.stepRate=0 steps as fast as it can
+		double stepRate = Double.parseDouble(System.getProperty("fluidsim.stepRate", "30"));
+		// -Dfluidsim.replay=file plays a recording back instead of simulating, one frame per rendered
+		// frame unless -Dfluidsim.replayRate sets frames per second
+		String replay = System.getProperty("fluidsim.replay");
+		SimulationRunner runner = replay == null ? new ThreadedSimulationRunner(stepRate)
+				: new ReplaySimulationRunner(new FrameReader(new File(replay)),
+						Double.parseDouble(System.getProperty("fluidsim.replayRate", "0")));
+		// step timings go to jconsole as com.fluidsim:type=StepMetrics, and to -Dfluidsim.metrics=file
+		// every -Dfluidsim.metricsInterval seconds, CSV for a .csv file and JSON lines otherwise
+		StepMetrics metrics = new StepMetrics();
+		metrics.setAllocationProbe(AllocationCounter.probe());
+		StepMetricsMonitor.register(metrics);
+		String metricsFile = System.getProperty("fluidsim.metrics");
+		if (metricsFile != null) {
+			new MetricsDump(new File(metricsFile), metrics,
+					Double.parseDouble(System.getProperty("fluidsim.metricsInterval", "10")));
+		}
+		// vector kernels when the simd module and jdk.incubator.vector are available
+		new LwjglApplication(new FluidSimuation(new ParallelStepExecutor(threads), StencilKernelsLoader.load(), precision,
+				runner, metrics), config);
 	}
 }
@@ -0,0 +1,425 @@
+package com.fluidsim.headless;
+
+import com.fluidsim.AdvectionScheme;
+import com.fluidsim.BuoyancySource;
+import com.fluidsim.ConjugateGradientSolver;
+import com.fluidsim.Environment;
+import com.fluidsim.FanSource;
+import com.fluidsim.ForceSources;
+import com.fluidsim.GravitySource;
+import com.fluidsim.JacobiSolver;
+import com.fluidsim.MultigridSolver;
+import com.fluidsim.PointSource;
+import com.fluidsim.Precision;
+import com.fluidsim.PressureSolver;
+import com.fluidsim.SorSolver;
+import com.fluidsim.TileActivity;
+import com.fluidsim.TimestepController;
+import com.fluidsim.jvm.EnsembleRunner;
+import com.fluidsim.jvm.FrameRecorder;
+import com.fluidsim.jvm.SlabSettings;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Settings of a headless run, read from a properties file. Every key is optional, the
+ * defaults are the settings of the desktop app. Keys given as key=value on the command
+ * line override the file, which is what a parameter sweep changes between runs.
+ *
+ * width, height        grid size, 200 x 200
+ * steps                number of steps, 1000
+ * time                 seconds per step, 0.03
+ * accuracy             pressure iteration budget, 10
+ * cellSize             edge of a cell, 1
+ * density              density of the air, 1
+ * vorticity            strength of the vorticity confinement, 0.0001
+ * fanStrength          scales the push of the fan, 1
+ * init                 random or uniform, random
+ * seed                 seed of the random start, a new one every run if missing
+ * uniform.pressure, uniform.velocityX, uniform.velocityY   the uniform start, all 0
+ * floor                two rows of wall at the bottom, true
+ * wall.width, wall.height   size of a central block of wall, 0 for none
+ * fan                  the fan on the left the simulation always had, true
+ * gravity              acceleration pulling every air cell down, none if missing
+ * buoyancy             lift per second of air one degree warmer than buoyancy.ambient, none if missing
+ * buoyancy.ambient     temperature that neither rises nor sinks, 0
+ * heaters              semicolon separated patches of air held at a temperature for buoyancy to lift,
+ *                      "x y width height temperature", none if missing
+ * sources              semicolon separated emitters, "fan x y width height forceX forceY" for fans and jets,
+ *                      "point x y radius force" for point sources, none if missing
+ * solver               jacobi, sor, cg or multigrid, jacobi
+ * tolerance            relative residual the solver stops at, its default if missing
+ * sweepsPerPass        Jacobi sweeps per pass over the grid, 1, e.g. 8 for grids larger than the cache
+ * warmStart            start the pressure solve from the last step, true
+ * cfl                  cells a back trace may cross, when set every step covers time seconds in as many
+ *                      substeps as the flow needs, none if missing
+ * cfl.minTime, cfl.maxTime, cfl.maxSubsteps   shortest and longest substep and substeps per step, 0.001, 0.1, 8
+ * precision            DOUBLE or FLOAT, DOUBLE
+ * advection            semi_lagrangian, maccormack or bfecc, semi_lagrangian, FLOAT precision ignores it
+ * threads              simulation threads, all cores
+ * sparse               skip advection and vorticity in quiet tiles, false
+ * sparse.tileSize      edge of a tile in cells, 32
+ * sparse.speed, sparse.divergence   below both a tile is quiet, 0.1 each
+ * snapshot.interval    steps between snapshots, 0 writes the last step only
+ * snapshot.dir         directory the snapshots go to, snapshots
+ * report.interval      steps between progress lines, 100
+ * checkpoint.file      checkpoint to resume from when it exists and to save to, none if missing
+ * checkpoint.interval  steps between checkpoints, 0 saves the last step only
+ * record.file          recording of velocity and pressure frames, none if missing
+ * record.interval      steps between recorded frames, 1
+ * record.queue         frames waiting for the writer before new ones are dropped, 8
+ * record.mantissaBits  mantissa bits kept per value, 23, 52 records exactly
+ * metrics.file         step timings every metrics.interval seconds, CSV for a .csv file, JSON lines otherwise, none if missing
+ * metrics.interval     seconds between step timing summaries, 10
+ * metrics.jmx          publish the step timings as com.fluidsim:type=StepMetrics, true
+ * ensemble.vorticity, ensemble.density, ensemble.fanStrength   comma separated values, any of them runs
+ *                      an ensemble of one environment per combination, all from the same start
+ * ensemble.file        per step statistics of every member, ensemble.bin
+ * ensemble.chunk       steps a worker runs of a member before it picks again, 16
+ * distributed.workers  worker processes that step the grid as horizontal slabs, 0 steps it in this process.
+ *                      Needs DOUBLE precision, semi_lagrangian advection and the jacobi solver without
+ *                      sparse stepping, writes no snapshots, checkpoints, recordings or metrics.
+ *                      Back traces start at position * cellSize, with more than one slab keep cellSize at 1
+ * distributed.jvmArgs  space separated options of the worker JVMs, e.g. -Xmx8g
+ */
+public class HeadlessConfig {
+
+    private final Properties properties;
+
+    public HeadlessConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static HeadlessConfig load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new HeadlessConfig(properties);
+    }
+
+    // applies a key=value override
+    public void set(String assignment) {
+        int split = assignment.indexOf('=');
+        if (split <= 0) {
+            throw new IllegalArgumentException("expected key=value but got " + assignment);
+        }
+        properties.setProperty(assignment.substring(0, split).trim(), assignment.substring(split + 1).trim());
+    }
+
+    // builds the environment in its starting state
+    public Environment createEnvironment() {
+        Environment env = new Environment(getInt("width", 200), getInt("height", 200));
+        env.setCellSize(getDouble("cellSize", env.getCellSize()));
+        env.setDensity(getDouble("density", env.getDensity()));
+        env.setVorticity(getDouble("vorticity", env.getVorticity()));
+        env.setFanStrength(getDouble("fanStrength", env.getFanStrength()));
+        env.setPrecision(Precision.valueOf(getString("precision", "DOUBLE").toUpperCase()));
+        env.setAdvectionScheme(AdvectionScheme.valueOf(getString("advection", "semi_lagrangian").toUpperCase()));
+        env.setWarmStartPressure(getBoolean("warmStart", true));
+        env.setPressureSolver(createSolver());
+        env.setSparseStepping(getBoolean("sparse", false));
+        env.setActivityTileSize(getInt("sparse.tileSize", TileActivity.DEFAULT_TILE_SIZE));
+        env.getTileActivity().setSpeedThreshold(getDouble("sparse.speed", TileActivity.DEFAULT_SPEED_THRESHOLD));
+        env.getTileActivity().setDivergenceThreshold(getDouble("sparse.divergence",
+                TileActivity.DEFAULT_DIVERGENCE_THRESHOLD));
+        String init = getString("init", "random");
+        if (init.equals("random")) {
+            if (properties.containsKey("seed")) {
+                env.initRandom(getLong("seed"));
+            } else {
+                env.initRandom();
+            }
+        } else if (init.equals("uniform")) {
+            env.initUniform(getDouble("uniform.pressure", 0), getDouble("uniform.velocityX", 0),
+                    getDouble("uniform.velocityY", 0));
+        } else {
+            throw new IllegalArgumentException("init must be random or uniform, got " + init);
+        }
+        if (getBoolean("floor", true)) {
+            env.initFloor();
+        }
+        int wallWidth = getInt("wall.width", 0);
+        int wallHeight = getInt("wall.height", 0);
+        if (wallWidth > 0 && wallHeight > 0) {
+            env.initCentralWall(wallWidth, wallHeight);
+        }
+        for (String[] heater : getHeaters()) {
+            env.initHeater(Integer.parseInt(heater[0]), Integer.parseInt(heater[1]), Integer.parseInt(heater[2]),
+                    Integer.parseInt(heater[3]), Double.parseDouble(heater[4]));
+        }
+        env.setFan(getBoolean("fan", true));
+        addForceSources(env.getForceSources());
+        return env;
+    }
+
+    private void addForceSources(ForceSources sources) {
+        if (properties.containsKey("gravity")) {
+            sources.add(new GravitySource(getDouble("gravity", 0)));
+        }
+        if (properties.containsKey("buoyancy")) {
+            sources.add(new BuoyancySource(getDouble("buoyancy", 0), getDouble("buoyancy.ambient", 0)));
+        }
+        for (String source : getString("sources", "").split(";")) {
+            String[] parts = source.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            if (parts[0].equals("fan") && parts.length == 7) {
+                sources.add(new FanSource(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                        Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Double.parseDouble(parts[5]),
+                        Double.parseDouble(parts[6])));
+            } else if (parts[0].equals("point") && parts.length == 5) {
+                sources.add(new PointSource(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                        Double.parseDouble(parts[3]), Double.parseDouble(parts[4])));
+            } else {
+                throw new IllegalArgumentException("sources must be \"fan x y width height forceX forceY\" or"
+                        + " \"point x y radius force\", got " + source.trim());
+            }
+        }
+    }
+
+    // x, y, width, height and temperature of every heater
+    private List<String[]> getHeaters() {
+        List<String[]> heaters = new ArrayList<String[]>();
+        for (String heater : getString("heaters", "").split(";")) {
+            String[] parts = heater.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("heaters must be \"x y width height temperature\", got "
+                        + heater.trim());
+            }
+            heaters.add(parts);
+        }
+        return heaters;
+    }
+
+    // a random start without a seed gets one, so every environment created afterwards starts the same
+    public void fixSeed() {
+        if (!properties.containsKey("seed")) {
+            properties.setProperty("seed", Long.toString(new Random().nextLong()));
+        }
+    }
+
+    public boolean isEnsemble() {
+        return properties.containsKey("ensemble.vorticity") || properties.containsKey("ensemble.density")
+                || properties.containsKey("ensemble.fanStrength");
+    }
+
+    // values of an ensemble list, null when the parameter is not varied
+    public double[] getEnsembleValues(String name) {
+        String value = properties.getProperty("ensemble." + name);
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        double[] values = new double[parts.length];
+        for (int v = 0; v < parts.length; v++) {
+            values[v] = Double.parseDouble(parts[v].trim());
+        }
+        return values;
+    }
+
+    public boolean isDistributed() {
+        return getInt("distributed.workers", 0) > 0;
+    }
+
+    public int getDistributedWorkers() {
+        return getInt("distributed.workers", 0);
+    }
+
+    public List<String> getDistributedJvmArgs() {
+        List<String> args = new ArrayList<String>();
+        for (String arg : getString("distributed.jvmArgs", "").split("\\s+")) {
+            if (arg.length() > 0) {
+                args.add(arg);
+            }
+        }
+        return args;
+    }
+
+    // the starting state of createEnvironment for the slabs of a distributed run
+    public SlabSettings createSlabSettings() {
+        if (!getString("precision", "DOUBLE").equalsIgnoreCase("DOUBLE")
+                || !getString("advection", "semi_lagrangian").equalsIgnoreCase("semi_lagrangian")
+                || !getString("solver", "jacobi").equals("jacobi") || getBoolean("sparse", false)) {
+            throw new IllegalArgumentException("distributed runs need DOUBLE precision, semi_lagrangian advection"
+                    + " and the jacobi solver without sparse stepping");
+        }
+        fixSeed();
+        SlabSettings settings = new SlabSettings(getInt("width", 200), getInt("height", 200));
+        settings.setCellSize(getDouble("cellSize", settings.getCellSize()));
+        settings.setDensity(getDouble("density", settings.getDensity()));
+        settings.setVorticity(getDouble("vorticity", settings.getVorticity()));
+        settings.setFanStrength(getDouble("fanStrength", settings.getFanStrength()));
+        settings.setWarmStartPressure(getBoolean("warmStart", true));
+        if (properties.containsKey("tolerance")) {
+            settings.setTolerance(getDouble("tolerance", 0));
+        }
+        String init = getString("init", "random");
+        if (init.equals("random")) {
+            settings.setRandomStart(getLong("seed"));
+        } else if (init.equals("uniform")) {
+            settings.setUniformStart(getDouble("uniform.pressure", 0), getDouble("uniform.velocityX", 0),
+                    getDouble("uniform.velocityY", 0));
+        } else {
+            throw new IllegalArgumentException("init must be random or uniform, got " + init);
+        }
+        settings.setFloor(getBoolean("floor", true));
+        settings.setCentralWall(getInt("wall.width", 0), getInt("wall.height", 0));
+        for (String[] heater : getHeaters()) {
+            settings.addHeater(Integer.parseInt(heater[0]), Integer.parseInt(heater[1]), Integer.parseInt(heater[2]),
+                    Integer.parseInt(heater[3]), Double.parseDouble(heater[4]));
+        }
+        settings.setFan(getBoolean("fan", true));
+        addForceSources(settings.getForceSources());
+        return settings;
+    }
+
+    public File getEnsembleFile() {
+        return new File(getString("ensemble.file", "ensemble.bin"));
+    }
+
+    public int getEnsembleChunk() {
+        return getInt("ensemble.chunk", EnsembleRunner.DEFAULT_CHUNK_STEPS);
+    }
+
+    private PressureSolver createSolver() {
+        String name = getString("solver", "jacobi");
+        PressureSolver solver;
+        if (name.equals("jacobi")) {
+            JacobiSolver jacobi = new JacobiSolver();
+            jacobi.setSweepsPerPass(getInt("sweepsPerPass", 1));
+            solver = jacobi;
+        } else if (name.equals("sor")) {
+            solver = new SorSolver();
+        } else if (name.equals("cg")) {
+            solver = new ConjugateGradientSolver();
+        } else if (name.equals("multigrid")) {
+            solver = new MultigridSolver();
+        } else {
+            throw new IllegalArgumentException("solver must be jacobi, sor, cg or multigrid, got " + name);
+        }
+        if (properties.containsKey("tolerance")) {
+            solver.setTolerance(getDouble("tolerance", 0));
+        }
+        return solver;
+    }
+
+    // null when every step is taken in one piece
+    public TimestepController createTimestepController() {
+        if (!properties.containsKey("cfl")) {
+            return null;
+        }
+        TimestepController controller = new TimestepController(getDouble("cfl", TimestepController.DEFAULT_CFL));
+        controller.setMinTime(getDouble("cfl.minTime", TimestepController.DEFAULT_MIN_TIME));
+        controller.setMaxTime(getDouble("cfl.maxTime", TimestepController.DEFAULT_MAX_TIME));
+        controller.setMaxSubsteps(getInt("cfl.maxSubsteps", TimestepController.DEFAULT_MAX_SUBSTEPS));
+        return controller;
+    }
+
+    public int getSteps() {
+        return getInt("steps", 1000);
+    }
+
+    public double getTime() {
+        return getDouble("time", 0.03);
+    }
+
+    public int getAccuracy() {
+        return getInt("accuracy", 10);
+    }
+
+    public int getThreads() {
+        return getInt("threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getSnapshotInterval() {
+        return getInt("snapshot.interval", 0);
+    }
+
+    public File getSnapshotDir() {
+        return new File(getString("snapshot.dir", "snapshots"));
+    }
+
+    public int getReportInterval() {
+        return getInt("report.interval", 100);
+    }
+
+    // null when the run isn't checkpointed
+    public File getCheckpointFile() {
+        String path = properties.getProperty("checkpoint.file");
+        return path == null ? null : new File(path.trim());
+    }
+
+    public int getCheckpointInterval() {
+        return getInt("checkpoint.interval", 0);
+    }
+
+    // null when nothing is recorded
+    public File getRecordFile() {
+        String path = properties.getProperty("record.file");
+        return path == null ? null : new File(path.trim());
+    }
+
+    public int getRecordInterval() {
+        return getInt("record.interval", 1);
+    }
+
+    public int getRecordQueue() {
+        return getInt("record.queue", 8);
+    }
+
+    public int getRecordMantissaBits() {
+        return getInt("record.mantissaBits", FrameRecorder.DEFAULT_MANTISSA_BITS);
+    }
+
+    // null when the step timings are not written
+    public File getMetricsFile() {
+        String path = properties.getProperty("metrics.file");
+        return path == null ? null : new File(path.trim());
+    }
+
+    public double getMetricsInterval() {
+        return getDouble("metrics.interval", 10);
+    }
+
+    public boolean isMetricsJmx() {
+        return getBoolean("metrics.jmx", true);
+    }
+
+    private String getString(String key, String fallback) {
+        return properties.getProperty(key, fallback).trim();
+    }
+
+    private int getInt(String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    private long getLong(String key) {
+        return Long.parseLong(properties.getProperty(key).trim());
+    }
+
+    private double getDouble(String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Double.parseDouble(value.trim());
+    }
+
+    private boolean getBoolean(String key, boolean fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Boolean.parseBoolean(value.trim());
+    }
+}
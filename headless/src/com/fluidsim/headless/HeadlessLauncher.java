@@ -0,0 +1,266 @@
+package com.fluidsim.headless;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStatistics;
+import com.fluidsim.FluidField;
+import com.fluidsim.MetricsSummary;
+import com.fluidsim.StepMetrics;
+import com.fluidsim.TimestepController;
+import com.fluidsim.jvm.AllocationCounter;
+import com.fluidsim.jvm.Checkpoint;
+import com.fluidsim.jvm.EnsembleRunner;
+import com.fluidsim.jvm.EnsembleWriter;
+import com.fluidsim.jvm.FrameRecorder;
+import com.fluidsim.jvm.MetricsDump;
+import com.fluidsim.jvm.ParallelStepExecutor;
+import com.fluidsim.jvm.SlabCoordinator;
+import com.fluidsim.jvm.SlabSettings;
+import com.fluidsim.jvm.StencilKernelsLoader;
+import com.fluidsim.jvm.StepMetricsMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Steps an Environment as fast as it goes, without libGDX or a display.
+ * Usage: HeadlessLauncher [config.properties] [key=value ...], see HeadlessConfig for the keys.
+ */
+public class HeadlessLauncher {
+
+    public static void main(String[] args) throws IOException {
+        HeadlessConfig config;
+        int first = 0;
+        if (args.length > 0 && args[0].indexOf('=') < 0) {
+            config = HeadlessConfig.load(new File(args[0]));
+            first = 1;
+        } else {
+            config = new HeadlessConfig(new Properties());
+        }
+        for (int a = first; a < args.length; a++) {
+            config.set(args[a]);
+        }
+        if (config.isEnsemble()) {
+            runEnsemble(config);
+            return;
+        }
+        if (config.isDistributed()) {
+            runDistributed(config);
+            return;
+        }
+
+        Environment env = config.createEnvironment();
+        ParallelStepExecutor executor = new ParallelStepExecutor(config.getThreads());
+        env.setStepExecutor(executor);
+        env.setStencilKernels(StencilKernelsLoader.load());
+        StepMetrics metrics = env.getMetrics();
+        metrics.setAllocationProbe(AllocationCounter.probe());
+        if (config.isMetricsJmx()) {
+            StepMetricsMonitor.register(metrics);
+        }
+        File metricsFile = config.getMetricsFile();
+        MetricsDump dump = metricsFile == null ? null : new MetricsDump(metricsFile, metrics, config.getMetricsInterval());
+        long resumed = 0;
+        File checkpoint = config.getCheckpointFile();
+        if (checkpoint != null && checkpoint.isFile()) {
+            resumed = Checkpoint.restore(env, checkpoint);
+            System.out.printf("resumed from %s at step %d%n", checkpoint, resumed);
+        }
+        SnapshotWriter snapshots = new SnapshotWriter(config.getSnapshotDir(), env.getWidth(), env.getHeight());
+        File recording = config.getRecordFile();
+        FrameRecorder recorder = recording == null ? null : new FrameRecorder(recording, env, config.getRecordQueue(),
+                FrameRecorder.DEFAULT_KEYFRAME_INTERVAL, config.getRecordMantissaBits());
+        try {
+            run(env, config, snapshots, recorder, resumed);
+        } finally {
+            executor.shutdown();
+            if (dump != null) {
+                dump.close();
+            }
+            if (recorder != null) {
+                recorder.close();
+                System.out.printf("recorded %d frames to %s, dropped %d%n", recorder.getWrittenFrames(), recording,
+                        recorder.getDroppedFrames());
+            }
+        }
+    }
+
+    // snapshots, checkpoints, recordings and metrics are single environment features, an ensemble only
+    // writes its statistics
+    private static void runEnsemble(HeadlessConfig config) throws IOException {
+        config.fixSeed();
+        double[] vorticities = config.getEnsembleValues("vorticity");
+        double[] densities = config.getEnsembleValues("density");
+        double[] fans = config.getEnsembleValues("fanStrength");
+        EnsembleRunner runner = new EnsembleRunner(config.getThreads(), config.getEnsembleChunk());
+        for (int v = 0; v < (vorticities == null ? 1 : vorticities.length); v++) {
+            for (int d = 0; d < (densities == null ? 1 : densities.length); d++) {
+                for (int f = 0; f < (fans == null ? 1 : fans.length); f++) {
+                    Environment env = config.createEnvironment();
+                    StringBuilder label = new StringBuilder();
+                    if (vorticities != null) {
+                        env.setVorticity(vorticities[v]);
+                        label.append("vorticity=").append(vorticities[v]).append(' ');
+                    }
+                    if (densities != null) {
+                        env.setDensity(densities[d]);
+                        label.append("density=").append(densities[d]).append(' ');
+                    }
+                    if (fans != null) {
+                        env.setFanStrength(fans[f]);
+                        label.append("fanStrength=").append(fans[f]).append(' ');
+                    }
+                    runner.add(label.toString().trim(), env);
+                }
+            }
+        }
+        int steps = config.getSteps();
+        File file = config.getEnsembleFile();
+        System.out.printf("ensemble of %d, %d x %d, %d steps, %d threads, to %s%n", runner.getMemberCount(),
+                runner.getMember(0).getWidth(), runner.getMember(0).getHeight(), steps, runner.getParallelism(), file);
+        EnsembleWriter writer = new EnsembleWriter(file, runner);
+        long start = System.nanoTime();
+        try {
+            runner.run(steps, config.getTime(), config.getAccuracy(), writer);
+        } finally {
+            runner.shutdown();
+            writer.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long memberSteps = (long) steps * runner.getMemberCount();
+        System.out.printf("%d member steps in %.2f s, %.1f member steps/s%n", memberSteps, seconds, memberSteps / seconds);
+    }
+
+    // the grid is stepped by worker processes, this one only reports on the statistics they reduce
+    private static void runDistributed(HeadlessConfig config) throws IOException {
+        SlabSettings settings = config.createSlabSettings();
+        int workers = config.getDistributedWorkers();
+        int steps = config.getSteps();
+        double time = config.getTime();
+        int accuracy = config.getAccuracy();
+        int reportInterval = config.getReportInterval();
+        System.out.printf("%d x %d, %d steps, %d slab workers%n", settings.getWidth(), settings.getHeight(), steps,
+                workers);
+        TimestepController timestep = config.createTimestepController();
+        SlabCoordinator coordinator = new SlabCoordinator(settings, workers, config.getDistributedJvmArgs());
+        long start = System.nanoTime();
+        try {
+            long reportStart = start;
+            for (int s = 1; s <= steps; s++) {
+                if (timestep == null) {
+                    coordinator.step(time, accuracy);
+                } else {
+                    stepDistributed(coordinator, timestep, time, accuracy);
+                }
+                if (reportInterval > 0 && s % reportInterval == 0) {
+                    long now = System.nanoTime();
+                    System.out.printf("step %d, %.1f steps/s, pressure residual %.3e after %d iterations, velocity rms %.3f, %.3f%s%n",
+                            s, reportInterval / ((now - reportStart) / 1e9), coordinator.getPressureResidual(),
+                            coordinator.getPressureIterations(), coordinator.getStatistics().getRms(FluidField.VELOCITY_X),
+                            coordinator.getStatistics().getRms(FluidField.VELOCITY_Y), describe(timestep));
+                    reportStart = now;
+                }
+            }
+        } finally {
+            coordinator.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d steps in %.2f s, %.1f steps/s, %.2f ns per cell-step%n", steps, seconds, steps / seconds,
+                seconds * 1e9 / steps / ((double) settings.getWidth() * settings.getHeight()));
+    }
+
+    // TimestepController.advance for the slabs, the very first substep is the shortest one as no
+    // statistics are in yet
+    private static void stepDistributed(SlabCoordinator coordinator, TimestepController timestep, double time,
+                                        int accuracy) throws IOException {
+        double remaining = time;
+        int substeps = 0;
+        while (timestep.isCovering(time, remaining, substeps)) {
+            FieldStatistics statistics = coordinator.getStatistics();
+            double limit = statistics == FieldStatistics.EMPTY ? timestep.getMinTime()
+                    : timestep.nextTime(statistics, coordinator.getSettings().getCellSize());
+            double substep = timestep.substep(remaining, substeps, limit);
+            coordinator.step(substep, accuracy);
+            remaining -= substep;
+            substeps++;
+        }
+        timestep.finish(time, remaining, substeps);
+    }
+
+    // the substeps of the last step for the progress lines, nothing without a controller
+    private static String describe(TimestepController timestep) {
+        if (timestep == null) {
+            return "";
+        }
+        return String.format(", %d substeps of %.4f s, max velocity %.2f, %.3f s dropped", timestep.getLastSubsteps(),
+                timestep.getLastTime(), timestep.getMaxVelocity(), timestep.getDroppedTime());
+    }
+
+    private static void run(Environment env, HeadlessConfig config, SnapshotWriter snapshots, FrameRecorder recorder,
+                            long resumed) throws IOException {
+        int steps = config.getSteps();
+        File checkpoint = config.getCheckpointFile();
+        int checkpointInterval = config.getCheckpointInterval();
+        int recordInterval = Math.max(1, config.getRecordInterval());
+        double time = config.getTime();
+        int accuracy = config.getAccuracy();
+        int snapshotInterval = config.getSnapshotInterval();
+        int reportInterval = config.getReportInterval();
+        TimestepController timestep = config.createTimestepController();
+        System.out.printf("%d x %d, %d steps, %s, %s kernels, %d threads%n", env.getWidth(), env.getHeight(), steps,
+                env.getPressureSolver().getName(), env.getStencilKernels().getClass().getSimpleName(),
+                config.getThreads());
+
+        long start = System.nanoTime();
+        long reportStart = start;
+        long snapshotNanos = 0;
+        // seconds simulated so far, less what the controller dropped. A checkpoint only keeps
+        // the step, a resumed run counts the steps before it as whole
+        double simulated = resumed * time;
+        for (long s = resumed + 1; s <= steps; s++) {
+            if (timestep == null) {
+                env.step(time, accuracy);
+                simulated += time;
+            } else {
+                double dropped = timestep.getDroppedTime();
+                timestep.advance(env, time, accuracy);
+                simulated += time - (timestep.getDroppedTime() - dropped);
+            }
+            // never waits, frames the writer can't keep up with are dropped and counted
+            if (recorder != null && s % recordInterval == 0) {
+                recorder.offer(env, s);
+            }
+            if ((snapshotInterval > 0 && s % snapshotInterval == 0) || s == steps) {
+                long before = System.nanoTime();
+                snapshots.write(env.getFields(), s, simulated);
+                snapshotNanos += System.nanoTime() - before;
+            }
+            if (checkpoint != null && ((checkpointInterval > 0 && s % checkpointInterval == 0) || s == steps)) {
+                long before = System.nanoTime();
+                Checkpoint.save(env, s, checkpoint);
+                snapshotNanos += System.nanoTime() - before;
+            }
+            if (reportInterval > 0 && s % reportInterval == 0) {
+                long now = System.nanoTime();
+                System.out.printf("step %d, %.1f steps/s, pressure residual %.3e after %d iterations, %.1f%% tiles active%s%n",
+                        s, reportInterval / ((now - reportStart) / 1e9),
+                        env.getPressureResidual(), env.getPressureIterations(), 100 * env.getActiveTileFraction(),
+                        describe(timestep));
+                reportStart = now;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long ran = Math.max(0, steps - resumed);
+        System.out.printf("%d steps in %.2f s, %.1f steps/s, %.2f ns per cell-step, %.2f s writing snapshots and checkpoints%n",
+                ran, seconds, ran / seconds, seconds * 1e9 / ran / ((double) env.getWidth() * env.getHeight()),
+                snapshotNanos / 1e9);
+        MetricsSummary summary = env.getMetrics().summarize(StepMetrics.DEFAULT_CAPACITY);
+        int slowest = summary.getSlowestTimer();
+        if (slowest >= 0) {
+            System.out.printf("last %d steps: p50 %.2f ms, p99 %.2f ms, slowest phase %s at p50 %.2f ms, %d B allocated per step%n",
+                    summary.getWindow(), summary.getStepP50() / 1e6, summary.getStepP99() / 1e6,
+                    StepMetrics.timerName(slowest), summary.getTimerP50(slowest) / 1e6,
+                    summary.getAllocatedBytesPerStep());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.fluidsim.headless;
+
+import com.fluidsim.FieldStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the field store to one binary file per snapshot, step-000100.bin and so on.
+ * Layout, little endian: int width, int height, long step, double simulated seconds,
+ * then width * height doubles each of velocity x, velocity y and pressure, followed by
+ * width * height cell type bytes, all row-major like the field store.
+ * The buffer is allocated once, writing a snapshot allocates only the file handle.
+ */
+public class SnapshotWriter {
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+
+    private final File directory;
+
+    private final ByteBuffer buffer;
+
+    public SnapshotWriter(File directory, int width, int height) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create snapshot directory " + directory);
+        }
+        this.directory = directory;
+        int size = width * height;
+        this.buffer = ByteBuffer.allocateDirect(HEADER_BYTES + size * (3 * 8 + 1)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public File write(FieldStore fields, long step, double seconds) throws IOException {
+        buffer.clear();
+        buffer.putInt(fields.getWidth());
+        buffer.putInt(fields.getHeight());
+        buffer.putLong(step);
+        buffer.putDouble(seconds);
+        buffer.asDoubleBuffer().put(fields.getVelocityX()).put(fields.getVelocityY()).put(fields.getPressure());
+        buffer.position(HEADER_BYTES + fields.getSize() * 3 * 8);
+        buffer.put(fields.getCellTypes());
+        buffer.flip();
+        File file = new File(directory, String.format("step-%06d.bin", step));
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            channel.close();
+        }
+        return file;
+    }
+}
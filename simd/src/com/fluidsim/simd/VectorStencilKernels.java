@@ -0,0 +1,167 @@
+package com.fluidsim.simd;
+
+import com.fluidsim.CellType;
+import com.fluidsim.PressureSystem;
+import com.fluidsim.StencilKernels;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Stencil kernels on the jdk.incubator.vector API. Every row runs in vectors of the
+ * preferred width and finishes the columns that do not fill a vector with scalar code.
+ * Results match ScalarStencilKernels up to rounding, only the Jacobi residual is summed
+ * in a different order. Needs JDK 16 or later started with --add-modules jdk.incubator.vector.
+ */
+public class VectorStencilKernels implements StencilKernels {
+
+    // cell types are widened from eight bytes, so no more than eight lanes
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED.length() <= 8
+            ? DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_512;
+
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public void divergence(double[] inputX, double[] inputY, double[] output, double scale,
+                           int width, int stride, int startRow, int endRow) {
+        int bound = SPECIES.loopBound(width);
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            int out = j * width;
+            int i = 0;
+            for (; i < bound; i += LANES) {
+                int p = row + i;
+                DoubleVector.fromArray(SPECIES, inputY, p + stride)
+                        .sub(DoubleVector.fromArray(SPECIES, inputY, p - stride))
+                        .add(DoubleVector.fromArray(SPECIES, inputX, p + 1))
+                        .sub(DoubleVector.fromArray(SPECIES, inputX, p - 1))
+                        .mul(scale)
+                        .intoArray(output, out + i);
+            }
+            for (; i < width; i++) {
+                int p = row + i;
+                output[out + i] = (inputY[p + stride] - inputY[p - stride] + inputX[p + 1] - inputX[p - 1]) * scale;
+            }
+        }
+    }
+
+    @Override
+    public void curl(double[] velocityX, double[] velocityY, double[] output,
+                     int width, int stride, int startRow, int endRow) {
+        int bound = SPECIES.loopBound(width);
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            int i = 0;
+            for (; i < bound; i += LANES) {
+                int p = row + i;
+                DoubleVector.fromArray(SPECIES, velocityY, p + 1)
+                        .sub(DoubleVector.fromArray(SPECIES, velocityY, p - 1))
+                        .add(DoubleVector.fromArray(SPECIES, velocityX, p + stride))
+                        .sub(DoubleVector.fromArray(SPECIES, velocityX, p - stride))
+                        .intoArray(output, p);
+            }
+            for (; i < width; i++) {
+                int p = row + i;
+                output[p] = velocityY[p + 1] - velocityY[p - 1] + velocityX[p + stride] - velocityX[p - stride];
+            }
+        }
+    }
+
+    @Override
+    public void project(byte[] types, double[] advectionX, double[] advectionY, double[] pressure, double factor,
+                        double[] velocityX, double[] velocityY, int width, int stride, int startRow, int endRow) {
+        int bound = SPECIES.loopBound(width);
+        for (int j = startRow; j < endRow; j++) {
+            int row = (j + 1) * stride + 1;
+            int out = j * width;
+            int i = 0;
+            // the mask is read eight bytes at a time, the last row may not have eight left
+            for (; i < bound && out + i + 8 <= types.length; i += LANES) {
+                int p = row + i;
+                int idx = out + i;
+                VectorMask<Double> air = ((DoubleVector) ByteVector.fromArray(ByteVector.SPECIES_64, types, idx)
+                        .convertShape(VectorOperators.B2D, SPECIES, 0))
+                        .compare(VectorOperators.EQ, CellType.AIR);
+                DoubleVector gradientX = DoubleVector.fromArray(SPECIES, pressure, p + 1)
+                        .sub(DoubleVector.fromArray(SPECIES, pressure, p - 1));
+                DoubleVector gradientY = DoubleVector.fromArray(SPECIES, pressure, p + stride)
+                        .sub(DoubleVector.fromArray(SPECIES, pressure, p - stride));
+                DoubleVector.fromArray(SPECIES, velocityX, idx)
+                        .blend(DoubleVector.fromArray(SPECIES, advectionX, p).sub(gradientX.mul(factor)), air)
+                        .intoArray(velocityX, idx);
+                DoubleVector.fromArray(SPECIES, velocityY, idx)
+                        .blend(DoubleVector.fromArray(SPECIES, advectionY, p).sub(gradientY.mul(factor)), air)
+                        .intoArray(velocityY, idx);
+            }
+            for (; i < width; i++) {
+                int p = row + i;
+                int idx = out + i;
+                if (types[idx] == CellType.AIR) {
+                    velocityX[idx] = advectionX[p] - (factor * (pressure[p + 1] - pressure[p - 1]));
+                    velocityY[idx] = advectionY[p] - (factor * (pressure[p + stride] - pressure[p - stride]));
+                }
+            }
+        }
+    }
+
+    // the stride two neighbours only wrap on the first and last two columns
+    @Override
+    public double jacobiRow(PressureSystem system, double[] source, double[] target, double weight, int j) {
+        int width = system.getWidth();
+        double[] rhs = system.getRhs();
+        double diagonal = system.diagonal(j);
+        double step = weight / diagonal;
+        boolean above = system.hasRowAbove(j);
+        boolean below = system.hasRowBelow(j);
+        int row = system.rowStart(j);
+        int rhsRow = j * width;
+        int up = 2 * width;
+        double residual = 0;
+        int i = 0;
+        int interiorEnd = width - 2;
+        if (interiorEnd - 2 >= LANES) {
+            for (; i < 2; i++) {
+                residual += jacobiCell(system, rhs, source, target, diagonal, step, i, j);
+            }
+            DoubleVector squares = DoubleVector.zero(SPECIES);
+            for (; i + LANES <= interiorEnd; i += LANES) {
+                int idx = row + i;
+                DoubleVector centre = DoubleVector.fromArray(SPECIES, source, idx);
+                DoubleVector neighbours = DoubleVector.fromArray(SPECIES, source, idx - 2)
+                        .add(DoubleVector.fromArray(SPECIES, source, idx + 2));
+                if (above) {
+                    neighbours = neighbours.add(DoubleVector.fromArray(SPECIES, source, idx + up));
+                }
+                if (below) {
+                    neighbours = neighbours.add(DoubleVector.fromArray(SPECIES, source, idx - up));
+                }
+                DoubleVector sum = DoubleVector.fromArray(SPECIES, rhs, rhsRow + i).add(neighbours);
+                DoubleVector r = sum.sub(centre.mul(diagonal));
+                squares = r.fma(r, squares);
+                centre.add(r.mul(step)).intoArray(target, idx);
+            }
+            residual += squares.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < width; i++) {
+            residual += jacobiCell(system, rhs, source, target, diagonal, step, i, j);
+        }
+        return residual;
+    }
+
+    private static double jacobiCell(PressureSystem system, double[] rhs, double[] source, double[] target,
+                                     double diagonal, double step, int i, int j) {
+        int idx = system.rowStart(j) + i;
+        double sum = rhs[j * system.getWidth() + i] + system.neighbourSum(source, i, j);
+        double r = sum - diagonal * source[idx];
+        target[idx] = source[idx] + r * step;
+        return r * r;
+    }
+
+    // lanes of the vectors in use, for diagnostics
+    public static int getLanes() {
+        return LANES;
+    }
+}
@@ -0,0 +1,66 @@
+package com.fluidsim.simd;
+
+import com.fluidsim.Environment;
+import com.fluidsim.FieldStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The vector kernels step the same state to the same velocities and pressure as the
+ * scalar kernels, up to rounding. The grid is as wide as no vector length divides, so the
+ * scalar tails of the rows are stepped too.
+ */
+public class VectorStencilKernelsTest {
+
+    private static final int WIDTH = 203;
+
+    private static final int HEIGHT = 150;
+
+    private static final int STEPS = 30;
+
+    // relative to the largest value of the field
+    private static final double TOLERANCE = 1e-9;
+
+    @Before
+    public void checkVectorModule() {
+        assumeTrue("jdk.incubator.vector was not added", ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+    }
+
+    @Test
+    public void stepsLikeScalarKernels() {
+        Environment scalar = createEnvironment();
+        Environment vector = createEnvironment();
+        vector.setStencilKernels(new VectorStencilKernels());
+        for (int step = 0; step < STEPS; step++) {
+            scalar.step(0.03, 10);
+            vector.step(0.03, 10);
+        }
+        FieldStore expected = scalar.getFields();
+        FieldStore actual = vector.getFields();
+        assertClose("velocity x", expected.getVelocityX(), actual.getVelocityX());
+        assertClose("velocity y", expected.getVelocityY(), actual.getVelocityY());
+        assertClose("pressure", expected.getPressure(), actual.getPressure());
+    }
+
+    private static Environment createEnvironment() {
+        Environment env = new Environment(WIDTH, HEIGHT);
+        env.initRandom(1);
+        env.initFloor();
+        env.initCentralWall(4, 40);
+        return env;
+    }
+
+    private static void assertClose(String field, double[] expected, double[] actual) {
+        double largest = 0;
+        for (double value : expected) {
+            largest = Math.max(largest, Math.abs(value));
+        }
+        double tolerance = TOLERANCE * Math.max(1, largest);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(field + " of cell " + i, expected[i], actual[i], tolerance);
+        }
+    }
+}